@@ -5,9 +5,13 @@ public interface CliConstants {
     String NP_HOST = "np-server.anhdh.me";
     int TCP_PORT = 1699;
     int UDP_PORT = 1700;
+    int BLOB_PORT = 1698;
 
     String AVATAR_URL = "https://ui-avatars.com/api/background=%s&size=128&color=fbfbfb&bold=true&name=%s";
     String CHARSET = "UTF-8";
 
     long MAX_FILE_SIZE = 200 * 1024 * 1024;
+
+    // receive a conference as one stream mixed by the server instead of one per speaker, for weak links
+    boolean CONFERENCE_MIXED = false;
 }
@@ -0,0 +1,27 @@
+package npclient.core;
+
+import java.util.Random;
+
+/**
+ * Fills the gaps of a suppressed silence with soft noise at the level the sender measured, so the
+ * call does not sound dead between words.
+ */
+public class ComfortNoise {
+    private final Random random = new Random();
+
+    /**
+     * @param level noise attenuation below full scale in dB, as sent in a comfort noise packet
+     * @return {@code length} bytes of 16 bit little endian noise
+     */
+    public byte[] generate(int level, int length) {
+        byte[] pcm = new byte[length];
+        // uniform noise on [-a, a] has an RMS of a / sqrt(3)
+        double amplitude = Short.MAX_VALUE * Math.pow(10, -level / 20.0) * Math.sqrt(3);
+        for (int i = 0; i + 1 < length; i += 2) {
+            short sample = (short) Math.round((random.nextDouble() * 2 - 1) * amplitude);
+            pcm[i] = (byte) sample;
+            pcm[i + 1] = (byte) (sample >> 8);
+        }
+        return pcm;
+    }
+}
@@ -0,0 +1,162 @@
+package npclient.core;
+
+import npclient.CliLogger;
+import nputils.VoicePacket;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Random;
+
+/**
+ * Peer to peer path of a 1:1 call, with the server relay as fallback.
+ * <p>
+ * Once both users are registered the server sends each one the address it sees the other at. The
+ * client probes that candidate a few times; the partner answers every probe, and an answer proves
+ * the path works both ways, so voice goes there from then on. If no probe is answered, or the
+ * direct path goes quiet, voice keeps or goes back to the relay, whose route is kept alive with
+ * keepalives meanwhile.
+ * <p>
+ * Candidates are only taken from the relay, and probes only answered to and accepted from the
+ * candidate it announced: anyone else would learn the nonce and could take the stream over. A
+ * partner behind a NAT that maps each destination differently stays on the relay.
+ */
+public class DirectPath {
+
+    private static final CliLogger logger = CliLogger.get(DirectPath.class);
+
+    public static final long PROBE_INTERVAL_MS = 100;
+    public static final int PROBE_ATTEMPTS = 20;
+    // the partner sends comfort noise at least every half second, even when silent
+    public static final long PATH_TIMEOUT_MS = 3000;
+    // well under the relay's idle timeout
+    public static final long KEEPALIVE_INTERVAL_MS = 15000;
+
+    private final DatagramSocket socket;
+    private final SocketAddress relay;
+    private final int nonce = new Random().nextInt();
+
+    private volatile InetSocketAddress candidate;
+    private volatile SocketAddress direct;
+    private volatile long lastHeard;
+    private volatile boolean probing = false;
+    private volatile boolean failed = false;
+    private long lastKeepalive;
+
+    /**
+     * @param relay address of the relay of the call, the only one sending candidates
+     */
+    public DirectPath(DatagramSocket socket, SocketAddress relay) {
+        this.socket = socket;
+        this.relay = relay;
+    }
+
+    /**
+     * Handles the path signals among the packets received on the call's socket.
+     *
+     * @return true when the packet was a candidate or probe, false for voice
+     */
+    public boolean handle(DatagramPacket packet) throws IOException {
+        if (packet.getLength() == 0) return false;
+        byte[] data = packet.getData();
+        switch (data[packet.getOffset()]) {
+            case VoicePacket.TYPE_CANDIDATE:
+                if (!relay.equals(packet.getSocketAddress())) return true;
+                InetSocketAddress addr = VoicePacket.readCandidate(data, packet.getLength());
+                if (addr != null) this.probe(addr);
+                return true;
+            case VoicePacket.TYPE_PROBE:
+                if (packet.getLength() < 5 || !packet.getSocketAddress().equals(candidate)) return true;
+                byte[] ack = VoicePacket.probe(VoicePacket.TYPE_PROBE_ACK, VoicePacket.nonce(data));
+                socket.send(new DatagramPacket(ack, ack.length, packet.getSocketAddress()));
+                return true;
+            case VoicePacket.TYPE_PROBE_ACK:
+                if (packet.getLength() < 5 || !packet.getSocketAddress().equals(candidate)
+                        || VoicePacket.nonce(data) != nonce) return true;
+                lastHeard = System.currentTimeMillis();
+                if (direct == null) {
+                    direct = packet.getSocketAddress();
+                    logger.info("Direct path to " + direct + " is open");
+                }
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Called for every voice packet, keeps the direct path while the partner is heard on it.
+     */
+    public void heard(SocketAddress from) {
+        if (from.equals(direct)) lastHeard = System.currentTimeMillis();
+    }
+
+    /**
+     * @return where to send voice: the partner when the direct path is open, the relay otherwise
+     */
+    public SocketAddress destination(SocketAddress relay) {
+        SocketAddress path = direct;
+        if (path == null) return relay;
+        if (System.currentTimeMillis() - lastHeard > PATH_TIMEOUT_MS) {
+            logger.info("Direct path to " + path + " went quiet, back to the relay");
+            direct = null;
+            return relay;
+        }
+        return path;
+    }
+
+    /**
+     * Sends a keepalive to the relay when it is due, so that its route survives while voice goes
+     * directly and is still there to fall back to.
+     */
+    public void keepRelayAlive(SocketAddress relay) throws IOException {
+        long now = System.currentTimeMillis();
+        if (now - lastKeepalive < KEEPALIVE_INTERVAL_MS) return;
+        lastKeepalive = now;
+        byte[] keepalive = {VoicePacket.TYPE_KEEPALIVE};
+        socket.send(new DatagramPacket(keepalive, 1, relay));
+    }
+
+    /**
+     * Probes {@code addr} in the background until a probe is answered or the attempts run out.
+     */
+    private synchronized void probe(InetSocketAddress addr) {
+        candidate = addr;
+        failed = false;
+        if (probing) return;
+        probing = true;
+        Thread prober = new Thread(() -> {
+            byte[] probe = VoicePacket.probe(VoicePacket.TYPE_PROBE, nonce);
+            try {
+                for (int i = 0; i < PROBE_ATTEMPTS && direct == null && !socket.isClosed(); i++) {
+                    socket.send(new DatagramPacket(probe, probe.length, candidate));
+                    Thread.sleep(PROBE_INTERVAL_MS);
+                }
+            } catch (IOException e) {
+                logger.error("Failed to probe " + candidate + ": " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            probing = false;
+            if (direct == null) {
+                failed = true;
+                logger.info("No direct path to " + candidate + ", voice stays on the relay");
+            }
+        }, "Direct Path Prober");
+        prober.setDaemon(true);
+        prober.start();
+    }
+
+    public boolean isDirect() {
+        return direct != null;
+    }
+
+    /**
+     * @return true when the last candidate never answered
+     */
+    public boolean isFailed() {
+        return failed;
+    }
+}
@@ -0,0 +1,312 @@
+package npclient.core;
+
+import npclient.CliConstants;
+import npclient.CliLogger;
+import nputils.BlobRequest;
+import nputils.Constants;
+import nputils.DataTransfer;
+import nputils.FileChunk;
+import nputils.FileInfo;
+import nputils.FileRange;
+import nputils.FrameCodec;
+import nputils.Utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Streamed files being received. The session reader writes every chunk to a temporary file as it
+ * arrives, checking its CRC and the MD5 of the whole file at the end; the file is then set as the
+ * local file of its {@link FileInfo}.
+ * <p>
+ * The server keeps the chunks it relayed: a chunk received twice is dropped, and after a corrupt
+ * chunk, a gap or a new session the missing chunks are pulled from the server with
+ * {@link Constants#FILE_RESUME}. The bytes held are confirmed every {@link #CONFIRM_BYTES} so the
+ * server can delete the file once everyone has it. A file sent as a blob reference is downloaded
+ * from the blob port of the server, and pulled as chunks from where it stopped if that fails.
+ */
+public class FileDownloads {
+
+    private static final CliLogger logger = CliLogger.get(FileDownloads.class);
+
+    public static final long CONFIRM_BYTES = 1024 * 1024;
+    private static final long RESUME_RETRY_MS = 1000;
+    private static final int RESUME_ATTEMPTS = 30;
+
+    private static FileDownloads instance;
+
+    private static class Download {
+        final FileInfo info;
+        final File file;
+        final OutputStream out;
+        final MessageDigest md5;
+        final AtomicBoolean resuming = new AtomicBoolean();
+        volatile long received = 0;
+
+        Download(FileInfo info) throws IOException {
+            this.info = info;
+            String name = info.getName() == null ? "" : info.getName();
+            int dot = name.lastIndexOf('.');
+            // the name comes from the network, only its extension goes into the path
+            this.file = Files.createTempFile("np-", dot >= 0 ? name.substring(dot).replaceAll("[^\\w.]", "") : "").toFile();
+            this.file.deleteOnExit();
+            this.out = new BufferedOutputStream(new FileOutputStream(file));
+            try {
+                this.md5 = MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException e) {
+                out.close();
+                throw new IOException(e);
+            }
+        }
+
+        /**
+         * @return false for a chunk that is not the next one or is corrupt, it is not written
+         */
+        boolean write(FileChunk chunk) throws IOException {
+            if (chunk.getOffset() != received || !chunk.isIntact())
+                return false;
+            append(chunk.getData(), 0, chunk.getData().length);
+            return true;
+        }
+
+        void append(byte[] data, int offset, int length) throws IOException {
+            out.write(data, offset, length);
+            md5.update(data, offset, length);
+            received += length;
+        }
+
+        boolean isComplete() {
+            return received >= info.getSize();
+        }
+
+        boolean finishIfComplete() throws IOException {
+            if (received < info.getSize())
+                return false;
+            out.close();
+            String digest = Utils.toHex(md5.digest());
+            if (!digest.equals(info.getMd5()))
+                throw new IOException("Checksum mismatch, got " + digest);
+            return true;
+        }
+    }
+
+    private final Map<String, Download> downloads = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<File>> results = new ConcurrentHashMap<>();
+
+    public static synchronized FileDownloads getInstance() {
+        if (instance == null)
+            instance = new FileDownloads();
+        return instance;
+    }
+
+    /**
+     * Prepares to receive the chunks of a streamed file; files with embedded data are ignored.
+     *
+     * @param session the session the metadata came on, to pull the content of a blob reference
+     */
+    public void start(Session session, FileInfo info) {
+        if (!info.isStreamed())
+            return;
+        CompletableFuture<File> result = futureOf(info.getTransferId());
+        // the same blob sent again
+        if (downloads.containsKey(info.getTransferId()) || (result.isDone() && !result.isCompletedExceptionally())) {
+            result.thenAccept(info::setLocalFile);
+            return;
+        }
+        try {
+            Download download = new Download(info);
+            downloads.put(info.getTransferId(), download);
+            if (download.finishIfComplete())
+                complete(download);
+            else if (info.isBlobReference() && session != null)
+                resume(session, download);
+        } catch (IOException e) {
+            logger.error("Can't receive " + info.getName() + ": " + e.getMessage());
+            downloads.remove(info.getTransferId());
+            result.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * @param session the session the chunk came on, to pull missing chunks and confirm them;
+     *                null to only write the chunk
+     */
+    public void onChunk(Session session, FileChunk chunk) {
+        Download download = downloads.get(chunk.getTransferId());
+        if (download == null || chunk.getOffset() < download.received)
+            return;
+        try {
+            if (!download.write(chunk)) {
+                logger.debug("Missing chunks before " + chunk + ", " + download.received + " bytes received");
+                if (session != null)
+                    resume(session, download);
+                return;
+            }
+            boolean complete = download.finishIfComplete();
+            long received = download.received;
+            if (session != null && (complete || received / CONFIRM_BYTES != (received - chunk.getData().length) / CONFIRM_BYTES))
+                session.request(range(session, download, Constants.FILE_CONFIRM));
+            if (complete)
+                complete(download);
+        } catch (IOException e) {
+            logger.error("Failed to receive " + download.info.getName() + ": " + e.getMessage());
+            fail(download, e);
+        }
+    }
+
+    /**
+     * Pulls the chunks of the unfinished downloads, called when a session is opened.
+     */
+    public void resume(Session session) {
+        for (Download download : downloads.values())
+            resume(session, download);
+    }
+
+    private void resume(Session session, Download download) {
+        if (!download.resuming.compareAndSet(false, true))
+            return;
+        Thread thread = new Thread(() -> {
+            try {
+                if (download.info.isBlobReference())
+                    fetch(download);
+                if (!download.isComplete())
+                    pull(session, download);
+                else if (downloads.get(download.info.getTransferId()) == download)
+                    finish(download);
+            } catch (IOException e) {
+                // tried again with the next session
+                logger.error("Can't resume " + download.info.getName() + ": " + e.getMessage());
+            } finally {
+                download.resuming.set(false);
+            }
+        }, "File Resume");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Downloads the rest of a blob from the blob port; what was received is kept when it fails.
+     */
+    private void fetch(Download download) {
+        String id = download.info.getBlobId();
+        try (TCPConnection conn = new TCPConnection(CliConstants.NP_HOST, CliConstants.BLOB_PORT)) {
+            // the request goes in one segment
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(conn.getOutputStream()));
+            DataInputStream in = new DataInputStream(new BufferedInputStream(conn.getInputStream(), Constants.FILE_CHUNK_SIZE));
+            FrameCodec.writeHello(out);
+            new BlobRequest(id, download.received, BlobRequest.TO_END).write(out);
+            long length = in.readLong();
+            if (length == BlobRequest.NOT_FOUND)
+                return;
+            long end = download.received + length;
+            byte[] buffer = new byte[Constants.FILE_CHUNK_SIZE];
+            while (download.received < end) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, end - download.received));
+                if (read < 0)
+                    throw new EOFException("Blob ended at " + download.received);
+                download.append(buffer, 0, read);
+            }
+        } catch (IOException e) {
+            logger.debug("Blob port failed for " + download.info.getName() + ", pulling chunks: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Asks for the chunks after the ones received until caught up with the server, the session
+     * reader writes them before the ACK arrives.
+     */
+    private void pull(Session session, Download download) throws IOException {
+        int attempts = 0;
+        while (!download.isComplete() && downloads.get(download.info.getTransferId()) == download) {
+            long before = download.received;
+            DataTransfer ack = session.call(range(session, download, Constants.FILE_RESUME));
+            if (!(ack.data instanceof FileRange)) {
+                IOException e = new IOException("Transfer is no longer on the server");
+                logger.error("Failed to receive " + download.info.getName() + ": " + e.getMessage());
+                fail(download, e);
+                return;
+            }
+            long stored = ((FileRange) ack.data).getOffset();
+            // the rest comes with the upload
+            if (download.received >= stored)
+                return;
+            if (download.received > before) {
+                attempts = 0;
+                continue;
+            }
+            if (++attempts >= RESUME_ATTEMPTS)
+                throw new IOException("No progress after " + attempts + " attempts");
+            try {
+                Thread.sleep(RESUME_RETRY_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+    }
+
+    private static DataTransfer range(Session session, Download download, String action) {
+        String topic = Constants.PREFIX_FILE + Constants.SPLITTER + download.info.getTransferId();
+        return new DataTransfer(topic, session.getUsername(), Constants.PUBLISH, new FileRange(action, download.received));
+    }
+
+    /**
+     * @return completed with the local copy of the file, at once for a file sent from here
+     */
+    public CompletableFuture<File> whenComplete(FileInfo info) {
+        if (info.getLocalFile() != null)
+            return CompletableFuture.completedFuture(info.getLocalFile());
+        if (!info.isStreamed()) {
+            CompletableFuture<File> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new IOException("Not a streamed file"));
+            return failed;
+        }
+        return futureOf(info.getTransferId());
+    }
+
+    private CompletableFuture<File> futureOf(String transferId) {
+        return results.computeIfAbsent(transferId, id -> new CompletableFuture<>());
+    }
+
+    private void finish(Download download) {
+        try {
+            if (download.finishIfComplete())
+                complete(download);
+        } catch (IOException e) {
+            logger.error("Failed to receive " + download.info.getName() + ": " + e.getMessage());
+            fail(download, e);
+        }
+    }
+
+    private void complete(Download download) {
+        downloads.remove(download.info.getTransferId());
+        download.info.setLocalFile(download.file);
+        futureOf(download.info.getTransferId()).complete(download.file);
+        logger.debug("Received " + download.info);
+    }
+
+    private void fail(Download download, IOException e) {
+        downloads.remove(download.info.getTransferId());
+        try {
+            download.out.close();
+        } catch (IOException ignored) {
+        }
+        download.file.delete();
+        futureOf(download.info.getTransferId()).completeExceptionally(e);
+    }
+}
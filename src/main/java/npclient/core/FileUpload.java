@@ -0,0 +1,129 @@
+package npclient.core;
+
+import npclient.CliLogger;
+import npclient.exception.BigFileTransferException;
+import nputils.Constants;
+import nputils.DataTransfer;
+import nputils.FileChunk;
+import nputils.FileInfo;
+import nputils.FileRange;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Sends a file as its {@link FileInfo} followed by {@link FileChunk}s on a chat or group topic.
+ * <p>
+ * At most {@link #WINDOW} chunks are waiting for their ACK, so whatever the size of the file only
+ * a few chunks are on the heap. The server holds the ACK of a chunk while a recipient is falling
+ * behind, so the upload goes at the pace of the slowest recipient.
+ * <p>
+ * The server stores the chunks it relays, so an upload cut by a lost connection is sent again from
+ * the bytes the server has, see {@link Constants#FILE_STATUS}. A file whose content the server
+ * already holds is not uploaded at all, only a reference to it is published.
+ */
+public class FileUpload {
+
+    private static final CliLogger logger = CliLogger.get(FileUpload.class);
+
+    public static final int WINDOW = 4;
+
+    private final String topic;
+    private final File file;
+    private final FileInfo info;
+    private boolean announced = false;
+
+    public FileUpload(String topic, File file) throws IOException, BigFileTransferException {
+        this.topic = topic;
+        this.file = file;
+        this.info = FileInfo.stream(file);
+    }
+
+    public FileInfo getInfo() {
+        return info;
+    }
+
+    /**
+     * Publishes the metadata then the chunks, and returns once the server stored the whole file.
+     * Called again after a failure, it goes on from the bytes the server stored.
+     */
+    public void send(Session session) throws IOException {
+        if (!announced && sendReference(session)) {
+            logger.debug("Sent " + info + " already on the server");
+            return;
+        }
+        long offset = announced ? stored(session) : -1;
+        if (offset < 0) {
+            // first attempt, or the server lost the transfer
+            session.call(new DataTransfer(topic, session.getUsername(), Constants.PUBLISH, info));
+            announced = true;
+            offset = 0;
+        }
+        while (offset < info.getSize()) {
+            sendFrom(session, offset);
+            // chunks the server could not store in order are sent again
+            offset = stored(session);
+            // already delivered to everyone, or relayed without being stored
+            if (offset < 0)
+                break;
+        }
+        logger.debug("Sent " + info);
+    }
+
+    /**
+     * @return true when the server holds the content and took a reference to it
+     */
+    private boolean sendReference(Session session) throws IOException {
+        String offer = Constants.PREFIX_BLOB + Constants.SPLITTER + info.getBlobId();
+        DataTransfer ack = session.call(new DataTransfer(offer, session.getUsername(), Constants.PUBLISH, Constants.BLOB_OFFER));
+        if (!Boolean.TRUE.equals(ack.data))
+            return false;
+        String transferId = info.getTransferId();
+        info.referBlob();
+        ack = session.call(new DataTransfer(topic, session.getUsername(), Constants.PUBLISH, info));
+        if (Boolean.TRUE.equals(ack.data))
+            return true;
+        // the blob went away in between
+        info.setTransferId(transferId);
+        return false;
+    }
+
+    /**
+     * @return the bytes the server stored, -1 when it does not know the transfer
+     */
+    private long stored(Session session) throws IOException {
+        String status = Constants.PREFIX_FILE + Constants.SPLITTER + info.getTransferId();
+        DataTransfer ack = session.call(new DataTransfer(status, session.getUsername(), Constants.PUBLISH,
+                new FileRange(Constants.FILE_STATUS, 0)));
+        return ack.data instanceof FileRange ? ((FileRange) ack.data).getOffset() : -1;
+    }
+
+    private void sendFrom(Session session, long offset) throws IOException {
+        final String username = session.getUsername();
+        ArrayDeque<DataTransfer> inflight = new ArrayDeque<>();
+        ArrayDeque<CompletableFuture<DataTransfer>> acks = new ArrayDeque<>();
+        try (FileChannel channel = new FileInputStream(file).getChannel();
+             DataInputStream in = new DataInputStream(Channels.newInputStream(channel.position(offset)))) {
+            while (offset < info.getSize()) {
+                byte[] data = new byte[(int) Math.min(info.getChunkSize(), info.getSize() - offset)];
+                in.readFully(data);
+
+                if (inflight.size() >= WINDOW)
+                    session.await(inflight.poll(), acks.poll());
+                DataTransfer chunk = new DataTransfer(topic, username, Constants.PUBLISH,
+                        new FileChunk(info.getTransferId(), offset, data));
+                acks.add(session.request(chunk));
+                inflight.add(chunk);
+                offset += data.length;
+            }
+            while (!inflight.isEmpty())
+                session.await(inflight.poll(), acks.poll());
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package npclient.core;
+
+import java.util.TreeMap;
+
+/**
+ * Adaptive playout buffer of received voice frames.
+ * <p>
+ * Frames are kept ordered by sequence number, late duplicates are dropped and a missing frame is
+ * reported as {@link #MISSING} so the player can conceal it. The target depth follows the
+ * interarrival jitter (RFC 3550 estimator): playout starts once that many frames are buffered and
+ * a frame is skipped when the buffer stays deeper than needed, so latency shrinks again when the
+ * network calms down.
+ */
+public class JitterBuffer {
+
+    /**
+     * Returned by {@link #poll} when the next frame did not arrive in time.
+     */
+    public static final byte[] MISSING = new byte[0];
+
+    private static final int MAX_DEPTH = 16;
+    private static final int MAX_CONCEALED = 3;
+    private static final int SHRINK_AFTER = 50;
+
+    private final int frameMs;
+    private final TreeMap<Long, byte[]> frames = new TreeMap<>();
+
+    private long firstSeq = -1;
+    private long highestSeq = -1;
+    private long nextSeq = -1;
+    private boolean playing = false;
+    private int concealed = 0;
+    private int tooDeep = 0;
+
+    private long lastTransit;
+    private double jitterMs = 0;
+
+    private long received = 0;
+    private long late = 0;
+    private long missing = 0;
+    private long skipped = 0;
+
+    public JitterBuffer(int frameMs) {
+        this.frameMs = frameMs;
+    }
+
+    /**
+     * @param seq       16 bit sequence number from the packet header
+     * @param timestamp sender capture time in ms
+     * @param arrivalMs local receive time in ms
+     */
+    public synchronized void put(int seq, int timestamp, byte[] payload, long arrivalMs) {
+        long ext = unwrap(seq);
+        received++;
+
+        long transit = arrivalMs - timestamp;
+        if (received > 1) {
+            long d = Math.abs(transit - lastTransit);
+            jitterMs += (d - jitterMs) / 16;
+        }
+        lastTransit = transit;
+
+        if ((playing && ext < nextSeq) || frames.containsKey(ext)) {
+            late++;
+            return;
+        }
+        frames.put(ext, payload);
+        // never hold more than the cap, the oldest frames are the least useful
+        while (frames.size() > MAX_DEPTH) {
+            frames.pollFirstEntry();
+            skipped++;
+            if (playing) nextSeq = frames.firstKey();
+        }
+        notifyAll();
+    }
+
+    private long unwrap(int seq) {
+        if (highestSeq < 0) {
+            firstSeq = highestSeq = seq;
+            return seq;
+        }
+        long ext = highestSeq + (short) (seq - (int) highestSeq);
+        if (ext > highestSeq) highestSeq = ext;
+        return ext;
+    }
+
+    /**
+     * Waits at most one frame duration for the next frame in playout order.
+     *
+     * @return the frame, {@link #MISSING} when it should be concealed, or null while (re)buffering
+     */
+    public synchronized byte[] poll() throws InterruptedException {
+        return poll(frameMs);
+    }
+
+    /**
+     * @param waitMs longest wait for a frame that has not arrived yet, 0 to answer at once when
+     *               the caller keeps its own playout clock
+     * @return the frame, {@link #MISSING} when it should be concealed, or null while (re)buffering
+     */
+    public synchronized byte[] poll(long waitMs) throws InterruptedException {
+        if (!playing) {
+            if (frames.size() < targetDepth() && waitMs > 0) wait(waitMs);
+            if (frames.size() < targetDepth()) return null;
+            playing = true;
+            nextSeq = frames.firstKey();
+            concealed = 0;
+        }
+
+        byte[] frame = frames.remove(nextSeq);
+        if (frame == null && frames.isEmpty() && waitMs > 0) {
+            wait(waitMs);
+            frame = frames.remove(nextSeq);
+        }
+        nextSeq++;
+
+        if (frame == null) {
+            missing++;
+            // a long outage: start over and rebuild the cushion
+            if (++concealed > MAX_CONCEALED && frames.isEmpty()) playing = false;
+            return MISSING;
+        }
+        concealed = 0;
+
+        if (frames.size() > targetDepth() + 1) {
+            if (++tooDeep >= SHRINK_AFTER) {
+                frames.remove(nextSeq++);
+                skipped++;
+                tooDeep = 0;
+            }
+        } else {
+            tooDeep = 0;
+        }
+        return frame;
+    }
+
+    /**
+     * @return frames to buffer before playing, enough to absorb the measured jitter
+     */
+    public synchronized int targetDepth() {
+        int depth = (int) Math.ceil((frameMs + 3 * jitterMs) / frameMs);
+        return Math.max(1, Math.min(MAX_DEPTH / 2, depth));
+    }
+
+    public synchronized double getJitterMs() {
+        return jitterMs;
+    }
+
+    public synchronized long getReceived() {
+        return received;
+    }
+
+    /**
+     * @return frames sent from the first one received to the newest, whether they arrived or not
+     */
+    public synchronized long getExpected() {
+        return highestSeq < 0 ? 0 : highestSeq - firstSeq + 1;
+    }
+
+    public synchronized long getLate() {
+        return late;
+    }
+
+    public synchronized long getMissing() {
+        return missing;
+    }
+
+    public synchronized long getSkipped() {
+        return skipped;
+    }
+
+    public synchronized int size() {
+        return frames.size();
+    }
+}
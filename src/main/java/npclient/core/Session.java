@@ -0,0 +1,197 @@
+package npclient.core;
+
+import npclient.CliLogger;
+import npclient.core.command.Subscriber;
+import nputils.Constants;
+import nputils.DataTransfer;
+import nputils.FileChunk;
+import nputils.FileInfo;
+import nputils.FrameCodec;
+
+import java.io.*;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The one connection of a logged-in user. Every subscription and publish goes over it:
+ * requests carry an id the server echoes in its ACK, and pushed messages are dispatched to the
+ * {@link Subscriber} of their topic.
+ */
+public class Session implements Runnable {
+
+    private static final CliLogger logger = CliLogger.get(Session.class);
+
+    public static final long REQUEST_TIMEOUT_MS = 10000;
+
+    private static Session instance;
+
+    private final String username;
+    private final TCPConnection conn;
+    private final DataOutputStream outputStream;
+    private final DataInputStream inputStream;
+    private final AtomicLong nextRequestId = new AtomicLong();
+    private final Map<Long, CompletableFuture<DataTransfer>> pending = new ConcurrentHashMap<>();
+    private final Map<String, Subscriber> subscribers = new ConcurrentHashMap<>();
+    private volatile boolean closed = false;
+
+    private Session(String username) throws IOException {
+        this.username = username;
+
+        logger.debug("Initialize a session connection");
+        this.conn = new TCPConnection();
+        this.outputStream = new DataOutputStream(new BufferedOutputStream(conn.getOutputStream()));
+        this.inputStream = new DataInputStream(new BufferedInputStream(conn.getInputStream()));
+
+        FrameCodec.writeHello(outputStream);
+        send(new DataTransfer(Constants.INITIALIZE_TOPIC, username, Constants.INIT_COMMAND));
+        FrameCodec.readHello(inputStream);
+
+        Thread reader = new Thread(this, "Session Reader");
+        reader.setDaemon(true);
+        reader.start();
+
+        FileDownloads.getInstance().resume(this);
+    }
+
+    /**
+     * @return the open session of the user, connecting a new one if there is none
+     */
+    public static synchronized Session open(String username) throws IOException {
+        if (instance != null && !instance.closed && instance.username.equals(username))
+            return instance;
+        if (instance != null)
+            instance.close();
+        instance = new Session(username);
+        return instance;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Sends the data with a new request id.
+     *
+     * @return completed with the server's ACK, or exceptionally if the server refused it or the session closed
+     */
+    public CompletableFuture<DataTransfer> request(DataTransfer data) {
+        CompletableFuture<DataTransfer> future = new CompletableFuture<>();
+        long id = nextRequestId.incrementAndGet();
+        data.requestId = id;
+        pending.put(id, future);
+        try {
+            if (closed)
+                throw new IOException("Session is closed");
+            send(data);
+        } catch (IOException e) {
+            pending.remove(id);
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Blocking {@link #request}.
+     */
+    public DataTransfer call(DataTransfer data) throws IOException {
+        return await(data, request(data));
+    }
+
+    /**
+     * Waits for the ACK of a {@link #request}, for callers that keep several requests in flight.
+     */
+    public DataTransfer await(DataTransfer data, CompletableFuture<DataTransfer> future) throws IOException {
+        try {
+            return future.get(REQUEST_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        } catch (TimeoutException e) {
+            pending.remove(data.requestId);
+            throw new IOException("No ACK for request " + data.requestId + " in " + REQUEST_TIMEOUT_MS + " ms");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    /**
+     * Routes messages of the subscriber's topic to it and subscribes on the server,
+     * also when the topic is already subscribed (e.g. to get a new ONLINE snapshot).
+     */
+    public DataTransfer subscribe(Subscriber subscriber) throws IOException {
+        subscribers.put(subscriber.getTopic(), subscriber);
+        return call(new DataTransfer(subscriber.getTopic(), username, Constants.SUBSCRIBE));
+    }
+
+    public void unsubscribe(Subscriber subscriber) {
+        if (subscribers.remove(subscriber.getTopic(), subscriber))
+            request(new DataTransfer(subscriber.getTopic(), username, Constants.UN_SUBSCRIBE));
+    }
+
+    private void send(DataTransfer data) throws IOException {
+        synchronized (outputStream) {
+            FrameCodec.write(outputStream, data);
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!closed) {
+                DataTransfer data = FrameCodec.read(inputStream);
+                if (data.requestId != 0) {
+                    CompletableFuture<DataTransfer> future = pending.remove(data.requestId);
+                    if (future == null)
+                        continue;
+                    if (Constants.ACK.equals(data.command))
+                        future.complete(data);
+                    else
+                        future.completeExceptionally(new IOException("Request " + data.requestId + " failed: " + data.command));
+                    continue;
+                }
+
+                // file content goes to disk here, only the metadata reaches the subscriber
+                if (data.data instanceof FileChunk) {
+                    FileDownloads.getInstance().onChunk(this, (FileChunk) data.data);
+                    continue;
+                }
+                if (data.data instanceof FileInfo)
+                    FileDownloads.getInstance().start(this, (FileInfo) data.data);
+
+                Subscriber subscriber = data.topic != null ? subscribers.get(data.topic) : null;
+                if (subscriber != null)
+                    subscriber.onMessage(data);
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                logger.error("Session closed: " + e.getMessage());
+                for (Subscriber subscriber : subscribers.values())
+                    subscriber.onSessionClosed(e);
+            }
+        } finally {
+            close();
+        }
+    }
+
+    public synchronized void close() {
+        if (closed)
+            return;
+        closed = true;
+        logger.debug("Close session connection");
+        try {
+            conn.close();
+        } catch (IOException e) {
+            logger.error("Failed to close session: " + e.getMessage());
+        }
+        IOException closedError = new IOException("Session is closed");
+        for (CompletableFuture<DataTransfer> future : pending.values())
+            future.completeExceptionally(closedError);
+        pending.clear();
+    }
+}
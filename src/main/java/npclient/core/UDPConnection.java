@@ -1,6 +1,7 @@
 package npclient.core;
 
 import npclient.CliConstants;
+import nputils.RelayShard;
 
 import java.net.DatagramSocket;
 import java.net.InetAddress;
@@ -9,10 +10,37 @@ import java.net.UnknownHostException;
 
 public class UDPConnection extends DatagramSocket {
 
+    /**
+     * Relay workers advertised by the server when registering
+     */
+    private int relayWorkers = 1;
+
     public UDPConnection() throws SocketException {
         super();
     }
 
+    public int getRelayWorkers() {
+        return relayWorkers;
+    }
+
+    public void setRelayWorkers(int relayWorkers) {
+        this.relayWorkers = Math.max(1, relayWorkers);
+    }
+
+    /**
+     * @return server port relaying the call between the two users
+     */
+    public int getRelayPort(String user, String partner) {
+        return CliConstants.UDP_PORT + RelayShard.of(user, partner, relayWorkers);
+    }
+
+    /**
+     * @return server port relaying the conference of {@code room}
+     */
+    public int getRoomPort(String room) {
+        return CliConstants.UDP_PORT + RelayShard.ofRoom(room, relayWorkers);
+    }
+
     public static InetAddress getServInetAddr() throws UnknownHostException {
         return InetAddress.getByName(CliConstants.NP_HOST);
     }
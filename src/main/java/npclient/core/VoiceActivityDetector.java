@@ -0,0 +1,97 @@
+package npclient.core;
+
+/**
+ * Energy based voice activity detection on 16 bit little endian PCM frames.
+ * <p>
+ * A frame is speech when its RMS level is well above the tracked background noise. The noise floor
+ * drops at once to a quieter frame and creeps up otherwise, slower while the frame counts as
+ * speech, so a steady fan or hum ends up below the threshold within a few seconds while the
+ * pauses between words keep pulling the floor back down. After the last speech frame a few more are still reported as speech, so
+ * word endings and short pauses are not clipped.
+ */
+public class VoiceActivityDetector {
+    private static final double MIN_THRESHOLD = 200;
+    private static final double SPEECH_OVER_NOISE = 2.5;
+    private static final double FLOOR_ADAPT = 0.05;
+    private static final double FLOOR_ADAPT_SPEECH = 0.003;
+
+    private final int hangoverFrames;
+
+    private double noiseFloor = MIN_THRESHOLD / SPEECH_OVER_NOISE;
+    private int hangover = 0;
+    private double level = 0;
+
+    private long speech = 0;
+    private long suppressed = 0;
+
+    /**
+     * @param hangoverFrames frames still sent after speech stops
+     */
+    public VoiceActivityDetector(int hangoverFrames) {
+        this.hangoverFrames = hangoverFrames;
+    }
+
+    /**
+     * @return true when the frame should be sent
+     */
+    public boolean isSpeech(byte[] pcm, int offset, int length) {
+        level = rms(pcm, offset, length);
+        boolean active = level > Math.max(MIN_THRESHOLD, noiseFloor * SPEECH_OVER_NOISE);
+        if (level < noiseFloor) {
+            noiseFloor = level;
+        } else {
+            noiseFloor += (level - noiseFloor) * (active ? FLOOR_ADAPT_SPEECH : FLOOR_ADAPT);
+        }
+
+        if (active) {
+            hangover = hangoverFrames;
+        } else if (hangover > 0) {
+            hangover--;
+            active = true;
+        }
+
+        if (active) speech++;
+        else suppressed++;
+        return active;
+    }
+
+    /**
+     * @return loudness of the last frame in dB below full scale, 0 to 127
+     */
+    public int level() {
+        return toDbov(level);
+    }
+
+    /**
+     * @return background noise as attenuation below full scale in dB (RFC 3389), 0 to 127
+     */
+    public int noiseLevel() {
+        return toDbov(noiseFloor);
+    }
+
+    public static int toDbov(double rms) {
+        if (rms < 1) return 127;
+        int dbov = (int) Math.round(-20 * Math.log10(rms / Short.MAX_VALUE));
+        return Math.max(0, Math.min(127, dbov));
+    }
+
+    public static double rms(byte[] pcm, int offset, int length) {
+        int samples = length / 2;
+        if (samples == 0) return 0;
+        double sum = 0;
+        for (int i = 0; i < samples; i++) {
+            int p = offset + 2 * i;
+            short sample = (short) ((pcm[p] & 0xFF) | (pcm[p + 1] << 8));
+            sum += sample * sample;
+        }
+        return Math.sqrt(sum / samples);
+    }
+
+    public long getSpeech() {
+        return speech;
+    }
+
+    public long getSuppressed() {
+        return suppressed;
+    }
+}
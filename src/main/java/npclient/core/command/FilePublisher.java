@@ -0,0 +1,43 @@
+package npclient.core.command;
+
+import npclient.core.FileUpload;
+import npclient.core.Session;
+import nputils.Constants;
+import nputils.DataTransfer;
+
+import java.io.IOException;
+
+/**
+ * Publishes a file as a stream of chunks, see {@link FileUpload}. When the connection is lost the
+ * upload goes on over a new session from where the server got to.
+ */
+public class FilePublisher extends TCPPublisher {
+
+    private static final int ATTEMPTS = 5;
+    private static final long RETRY_DELAY_MS = 2000;
+
+    private final FileUpload upload;
+
+    public FilePublisher(String topic, String username, FileUpload upload) {
+        super(topic, username);
+        this.upload = upload;
+        this.dataTransfer = new DataTransfer(topic, username, Constants.PUBLISH, upload.getInfo());
+    }
+
+    @Override
+    protected void handlePublish(Session session) throws Exception {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                upload.send(session);
+                break;
+            } catch (IOException e) {
+                if (attempt >= ATTEMPTS || isCancel)
+                    throw e;
+                logger.error("Upload of " + upload.getInfo().getName() + " interrupted, retrying: " + e.getMessage());
+                Thread.sleep(RETRY_DELAY_MS);
+                session = Session.open(username);
+            }
+        }
+        notifySuccess();
+    }
+}
@@ -1,6 +1,7 @@
 package npclient.core.command;
 
 import javafx.application.Platform;
+import npclient.core.Session;
 import npclient.core.UDPConnection;
 import npclient.exception.ExistUserException;
 import npclient.exception.InvalidNameException;
@@ -9,8 +10,6 @@ import nputils.Constants;
 import nputils.DataTransfer;
 
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 
 public class LoginPublisher extends TCPPublisher {
 
@@ -20,11 +19,9 @@ public class LoginPublisher extends TCPPublisher {
     }
 
     @Override
-    protected void handlePublish(ObjectOutputStream outputStream, ObjectInputStream inputStream) throws Exception {
-        outputStream.writeObject(dataTransfer);
-
+    protected void handlePublish(Session session) throws Exception {
         logger.debug("Checking existing user");
-        DataTransfer res = (DataTransfer) inputStream.readObject();
+        DataTransfer res = session.call(dataTransfer);
         boolean isLoginSuccess = (boolean) res.data;
 
         if (isLoginSuccess) {
@@ -41,6 +38,8 @@ public class LoginPublisher extends TCPPublisher {
             }
         } else {
             logger.error("Found Existing User. Login Failure!");
+            // the session registered the name too, drop it so the other user keeps it
+            session.close();
             handleError(new ExistUserException());
         }
     }
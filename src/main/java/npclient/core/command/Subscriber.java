@@ -1,32 +1,38 @@
 package npclient.core.command;
 
 import javafx.application.Platform;
-import npclient.core.TCPConnection;
+import npclient.core.Session;
 import npclient.core.callback.ErrorListener;
 import npclient.core.callback.SubscribedTopicListener;
 import npclient.CliLogger;
-import nputils.Constants;
 import nputils.DataTransfer;
 
-import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.*;
 
 public class Subscriber extends AbstractTask {
 
     private static final CliLogger logger = CliLogger.get(Subscriber.class);
 
+    private static final int RECONNECT_ATTEMPTS = 5;
+    private static final long RECONNECT_DELAY_MS = 2000;
+
     private final String topic;
 
     private SubscribedTopicListener newMsgListener;
 
     private final String username;
 
+    private volatile Session session;
+
     public Subscriber(String topic, String username) {
         this.topic = topic;
         this.username = username;
     }
 
+    public String getTopic() {
+        return topic;
+    }
+
     public Subscriber setNewMessageListener(SubscribedTopicListener listener) {
         this.newMsgListener = listener;
         return this;
@@ -42,49 +48,81 @@ public class Subscriber extends AbstractTask {
         new Thread(this, threadName).start();
     }
 
-    public void run() {
-        try {
-            logger.debug("Initialize a subscribe connection");
-            TCPConnection subConn = new TCPConnection();
-
-            ObjectOutputStream outputStream = new ObjectOutputStream(subConn.getOutputStream());
-
-            DataTransfer initData = new DataTransfer(Constants.INITIALIZE_TOPIC, username, Constants.INIT_COMMAND);
-            outputStream.writeObject(initData);
-//            Thread.sleep(2000);
-
-            logger.debug("Send subscribe signal");
-            DataTransfer subSignal = new DataTransfer(topic, username, Constants.SUBSCRIBE);
-            outputStream.writeObject(subSignal);
-//            Thread.sleep(2000);
-
-            logger.debug("Listening data from server");
-            ObjectInputStream inputStream = new ObjectInputStream(subConn.getInputStream());
-
-            while (!isCancel) {
-                try {
-                    DataTransfer data = (DataTransfer) inputStream.readObject();
-                    if (newMsgListener != null && data != null) {
-                        logger.debug("Receive new message");
-                        try {
-                            Platform.runLater(() -> newMsgListener.onReceive(data));
-                        } catch (IllegalStateException ex) {
-                            newMsgListener.onReceive(data);
-                        }
-                    }
-
-                } catch (Exception e) {
-                    logger.error("Failed to subscribe: " + e.getMessage());
-                    handleError(e);
-                }
-            }
+    /**
+     * Sends the subscribe signal again on the session, e.g. to get a fresh ONLINE snapshot.
+     */
+    public void resubscribe() {
+        listen();
+    }
 
-            logger.debug("Close subscribe connection");
-            subConn.close();
+    @Override
+    public void cancel() {
+        super.cancel();
+        Session session = this.session;
+        if (session != null)
+            session.unsubscribe(this);
+    }
 
+    public void run() {
+        try {
+            subscribe();
         } catch (IOException e) {
             logger.error("Failed to subscribe: " + e.getMessage());
             handleError(e);
         }
     }
+
+    private void subscribe() throws IOException {
+        logger.debug("Send subscribe signal");
+        Session session = Session.open(username);
+        this.session = session;
+        session.subscribe(this);
+        if (isCancel)
+            session.unsubscribe(this);
+    }
+
+    /**
+     * Called by the session reader for each message of the topic.
+     */
+    public void onMessage(DataTransfer data) {
+        if (isCancel || newMsgListener == null)
+            return;
+        logger.debug("Receive new message");
+        try {
+            Platform.runLater(() -> newMsgListener.onReceive(data));
+        } catch (IllegalStateException ex) {
+            newMsgListener.onReceive(data);
+        }
+    }
+
+    /**
+     * Called by the session reader when the connection is lost. The server forgot the subscription
+     * with the connection, so the topic is subscribed again over a new session; the error reaches
+     * the listener only once that failed.
+     */
+    public void onSessionClosed(Exception e) {
+        if (isCancel)
+            return;
+        Thread thread = new Thread(() -> reconnect(e), String.format("%s Resubscribe Thread", topic));
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void reconnect(Exception cause) {
+        for (int attempt = 1; attempt <= RECONNECT_ATTEMPTS && !isCancel; attempt++) {
+            try {
+                Thread.sleep(RECONNECT_DELAY_MS);
+                subscribe();
+                return;
+            } catch (IOException e) {
+                logger.error("Failed to subscribe again: " + e.getMessage());
+                cause = e;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        if (!isCancel)
+            handleError(cause);
+    }
 }
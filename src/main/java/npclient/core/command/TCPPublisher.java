@@ -1,16 +1,12 @@
 package npclient.core.command;
 
 import javafx.application.Platform;
-import npclient.core.TCPConnection;
+import npclient.core.Session;
 import npclient.core.callback.ErrorListener;
 import npclient.core.callback.OnPublishMessageSuccess;
 import npclient.CliLogger;
-import nputils.Constants;
 import nputils.DataTransfer;
 
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-
 public abstract class TCPPublisher extends AbstractPublisher {
 
     protected static final CliLogger logger = CliLogger.get(TCPPublisher.class);
@@ -46,22 +42,13 @@ public abstract class TCPPublisher extends AbstractPublisher {
         try {
             preprocess(dataTransfer);
 
-            logger.debug("Initialize a publish connection");
-            TCPConnection publishConn = new TCPConnection();
-
-            ObjectOutputStream outputStream = new ObjectOutputStream(publishConn.getOutputStream());
-            DataTransfer initData = new DataTransfer(Constants.INITIALIZE_TOPIC, username, Constants.INIT_COMMAND);
-            outputStream.writeObject(initData);
+            Session session = Session.open(username);
 
             if (!isCancel) {
-                ObjectInputStream inputStream = new ObjectInputStream(publishConn.getInputStream());
                 logger.debug("Publish " + dataTransfer + " to topic " + topic);
-                handlePublish(outputStream, inputStream);
+                handlePublish(session);
             }
 
-            logger.debug("Close publish connection");
-            publishConn.close();
-
         } catch (Exception e) {
             e.printStackTrace();
             logger.error("Failed to publish: " + e.getMessage());
@@ -73,9 +60,12 @@ public abstract class TCPPublisher extends AbstractPublisher {
 
     }
 
-    protected void handlePublish(ObjectOutputStream outputStream, ObjectInputStream inputStream) throws Exception {
-        outputStream.writeObject(dataTransfer);
+    protected void handlePublish(Session session) throws Exception {
+        session.call(dataTransfer);
+        notifySuccess();
+    }
 
+    protected void notifySuccess() {
         if (successListener != null) {
             logger.debug("On Success Callback");
             try {
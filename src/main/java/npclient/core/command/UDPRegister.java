@@ -1,16 +1,24 @@
 package npclient.core.command;
 
 import npclient.CliConstants;
+import npclient.CliLogger;
 import npclient.core.UDPConnection;
 import nputils.Constants;
+import nputils.VoicePacket;
 
 import java.io.IOException;
 import java.net.DatagramPacket;
+import java.net.SocketTimeoutException;
 
 public class UDPRegister {
 
+    private static final CliLogger logger = CliLogger.get(UDPRegister.class);
+
+    private static final int ACK_TIMEOUT_MS = 2000;
+
     private UDPConnection connection;
     private String name;
+    private int port = CliConstants.UDP_PORT;
 
     public UDPRegister setConnection(UDPConnection conn) {
         this.connection = conn;
@@ -22,18 +30,40 @@ public class UDPRegister {
         return this;
     }
 
+    public UDPRegister setPort(int port) {
+        this.port = port;
+        return this;
+    }
+
+    /**
+     * Registers the name and waits for the server's answer carrying its number of relay workers.
+     */
     public void register() throws IOException {
         byte[] nameBytes = name.getBytes();
         byte[] initBuf = new byte[Constants.BUFFER_SIZE];
-        initBuf[0] = 0;
+        initBuf[0] = VoicePacket.TYPE_REGISTER;
         initBuf[1] = (byte) name.length();
         System.arraycopy(nameBytes, 0, initBuf, 2, nameBytes.length);
 
         DatagramPacket initPacket = new DatagramPacket(initBuf, initBuf.length,
                 UDPConnection.getServInetAddr(),
-                CliConstants.UDP_PORT
+                port
         );
 
         connection.send(initPacket);
+
+        DatagramPacket ack = new DatagramPacket(new byte[2], 2);
+        int timeout = connection.getSoTimeout();
+        connection.setSoTimeout(ACK_TIMEOUT_MS);
+        try {
+            connection.receive(ack);
+            if (ack.getLength() == 2 && ack.getData()[0] == VoicePacket.TYPE_REGISTER)
+                connection.setRelayWorkers(ack.getData()[1] & 0xFF);
+        } catch (SocketTimeoutException e) {
+            // server without relay workers, everything goes to the first port
+            logger.debug("No register answer, using a single relay");
+        } finally {
+            connection.setSoTimeout(timeout);
+        }
     }
 }
@@ -3,21 +3,41 @@ package npclient.core.command;
 import npclient.CliLogger;
 import npclient.CliConstants;
 import npclient.MyAccount;
+import npclient.core.DirectPath;
 import npclient.core.UDPConnection;
+import npclient.core.VoiceActivityDetector;
 import nputils.Constants;
+import nputils.VoicePacket;
+import nputils.codec.VoiceCodec;
+import nputils.codec.VoiceCodecs;
 
 import javax.sound.sampled.TargetDataLine;
 import java.io.IOException;
 import java.net.DatagramPacket;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Random;
 
 public class VoiceListener extends AbstractPublisher {
 
     private static final CliLogger logger = CliLogger.get(VoiceListener.class);
 
+    // about a quarter second at 32 ms per frame
+    private static final int HANGOVER_FRAMES = 8;
+    // while silent, keeps the partner's comfort noise and the relay route fresh
+    private static final int COMFORT_NOISE_INTERVAL = 15;
+
     private TargetDataLine audioInput;
 
     private UDPConnection connection;
 
+    private int port = CliConstants.UDP_PORT;
+
+    private String codec = VoiceCodecs.PCM;
+
+    // null in a conference
+    private DirectPath directPath;
+
     public VoiceListener() {
         super(null);
     }
@@ -33,6 +53,27 @@ public class VoiceListener extends AbstractPublisher {
         return this;
     }
 
+    public VoiceListener setPort(int port) {
+        this.port = port;
+        return this;
+    }
+
+    /**
+     * @param codec name of the codec negotiated for the call
+     */
+    public VoiceListener setCodec(String codec) {
+        this.codec = codec;
+        return this;
+    }
+
+    /**
+     * @param directPath sends voice straight to the partner once a probe was answered
+     */
+    public VoiceListener setDirectPath(DirectPath directPath) {
+        this.directPath = directPath;
+        return this;
+    }
+
     public VoiceListener setConnection(UDPConnection connection) {
         this.connection = connection;
         return this;
@@ -40,22 +81,50 @@ public class VoiceListener extends AbstractPublisher {
 
     @Override
     public void run() {
-        byte[] buffer = new byte[Constants.BUFFER_SIZE];
-        long pack = 0L;
+        final int codecId = VoiceCodecs.idOf(codec);
+        final VoiceCodec encoder = VoiceCodecs.create(codecId, audioInput.getFormat().getChannels());
+        byte[] pcm = new byte[Constants.BUFFER_SIZE];
+        // encoded frames are never larger than the PCM they come from
+        byte[] packet = new byte[VoicePacket.MAX_SIZE];
+        int seq = 0;
+        // tells this stream apart from the others of a conference
+        final int ssrc = new Random().nextInt();
+        VoiceActivityDetector vad = new VoiceActivityDetector(HANGOVER_FRAMES);
+        int silentFrames = 0;
+        long comfortNoise = 0;
+        logger.debug("Encode voice with " + codec);
 
         while (!isCancel) {
             try {
-                int read = audioInput.read(buffer, 0, buffer.length);
-                buffer[0] = 1;
+                int read = audioInput.read(pcm, 0, pcm.length);
                 logger.debug("Read " + read + " bytes from audio input");
 
-                DatagramPacket data = new DatagramPacket(buffer, buffer.length,
-                        UDPConnection.getServInetAddr(),
-                        CliConstants.UDP_PORT
-                );
+                int timestamp = (int) System.currentTimeMillis();
+                int length;
+                if (vad.isSpeech(pcm, 0, read)) {
+                    silentFrames = 0;
+                    length = encoder.encode(pcm, 0, read, packet, VoicePacket.HEADER_SIZE);
+                    VoicePacket.writeHeader(packet, VoicePacket.TYPE_VOICE, codecId, seq, timestamp, ssrc, vad.level());
+                    seq = (seq + 1) & 0xFFFF;
+                } else if (silentFrames++ % COMFORT_NOISE_INTERVAL == 0) {
+                    packet[VoicePacket.HEADER_SIZE] = (byte) vad.noiseLevel();
+                    length = 1;
+                    VoicePacket.writeHeader(packet, VoicePacket.TYPE_COMFORT_NOISE, codecId, seq, timestamp, ssrc, VoicePacket.SILENT);
+                    comfortNoise++;
+                } else {
+                    continue;
+                }
+
+                InetSocketAddress relay = new InetSocketAddress(UDPConnection.getServInetAddr(), port);
+                SocketAddress to = relay;
+                if (directPath != null) {
+                    to = directPath.destination(relay);
+                    if (to != relay) directPath.keepRelayAlive(relay);
+                }
+                DatagramPacket data = new DatagramPacket(packet, VoicePacket.HEADER_SIZE + length, to);
                 connection.send(data);
 
-                logger.debug("Send packet #" + pack++);
+                logger.debug("Send packet #" + seq);
 
             } catch (IOException ex) {
                 logger.error("Failed to listen: " + ex.getMessage());
@@ -64,6 +133,8 @@ public class VoiceListener extends AbstractPublisher {
         }
 
         logger.debug("Recorder is stop");
+        logger.debug("Sent " + vad.getSpeech() + " frames, suppressed " + vad.getSuppressed()
+                + " silent frames, sent " + comfortNoise + " comfort noise packets");
         audioInput.drain();
         audioInput.close();
 
@@ -1,21 +1,75 @@
 package npclient.core.command;
 
 import npclient.CliLogger;
+import npclient.core.ComfortNoise;
+import npclient.core.DirectPath;
+import npclient.core.JitterBuffer;
 import npclient.core.UDPConnection;
 import nputils.Constants;
+import nputils.VoicePacket;
+import nputils.VoiceReport;
+import nputils.codec.PcmMixer;
+import nputils.codec.VoiceCodec;
+import nputils.codec.VoiceCodecs;
 
+import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.SourceDataLine;
 import java.io.IOException;
 import java.net.DatagramPacket;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class VoiceSpeaker extends AbstractTask {
 
     private static final CliLogger logger = CliLogger.get(VoiceSpeaker.class);
 
+    private static final int MAX_REPEATED = 2;
+    // a conference participant that sent nothing, not even comfort noise, for this long has left
+    private static final long STREAM_TIMEOUT_MS = 5000;
+    private static final long REPORT_INTERVAL_MS = 5000;
+
+    /**
+     * Frames of one sender. A call has one stream, a conference one per forwarded speaker, told
+     * apart by the ssrc in the packet header.
+     */
+    private static class Stream {
+        final JitterBuffer jitter;
+        // the sender's codec is in every packet header
+        final VoiceCodec[] decoders = new VoiceCodec[256];
+        // level of the sender's background noise while they are silent, -1 while they talk
+        volatile int comfortLevel = -1;
+        volatile long lastHeard;
+        // sender timestamp of the newest packet and when it arrived, echoed in reports
+        volatile int lastTimestamp;
+        volatile long lastArrival;
+
+        // playout thread only
+        byte[] last;
+        int repeated;
+
+        Stream(int frameMs) {
+            this.jitter = new JitterBuffer(frameMs);
+        }
+    }
+
     private SourceDataLine audioOutput;
 
     private UDPConnection connection;
 
+    // null in a conference
+    private DirectPath directPath;
+
+    // relay port receiver reports go to, 0 for none
+    private int reportPort = 0;
+    // round trip worked out from the partner's reports on our stream
+    private volatile int rttMs = -1;
+
+    private final Map<Integer, Stream> streams = new ConcurrentHashMap<>();
+    private long comfortFrames = 0;
+
     public VoiceSpeaker setAudioOutput(SourceDataLine audioOutput) {
         this.audioOutput = audioOutput;
         return this;
@@ -26,22 +80,87 @@ public class VoiceSpeaker extends AbstractTask {
         return this;
     }
 
+    /**
+     * @param reportPort relay port of the call, receiver reports are sent there every
+     *                   {@link #REPORT_INTERVAL_MS} so that the server sees the call quality
+     */
+    public VoiceSpeaker setReportPort(int reportPort) {
+        this.reportPort = reportPort;
+        return this;
+    }
+
+    public VoiceSpeaker setDirectPath(DirectPath directPath) {
+        this.directPath = directPath;
+        return this;
+    }
+
     @Override
     public void run(){
         try {
-            byte[] buffer = new byte[Constants.BUFFER_SIZE];
+            AudioFormat format = audioOutput.getFormat();
+            int frameMs = (int) (Constants.BUFFER_SIZE * 1000 / (format.getFrameRate() * format.getFrameSize()));
+            Thread playout = new Thread(() -> this.play(frameMs), "Voice Playout Thread");
+            playout.start();
+
+            byte[] buffer = new byte[VoicePacket.MAX_SIZE];
             DatagramPacket incoming = new DatagramPacket(buffer, buffer.length);
 
             logger.debug("Waiting for incoming data...");
 
             while (!isCancel){
+                incoming.setLength(buffer.length);
                 connection.receive(incoming);
-                buffer = incoming.getData();
-                logger.debug("Receive " + buffer.length + " bytes");
-                audioOutput.write(buffer, 0, buffer.length);
+                if (directPath != null && directPath.handle(incoming))
+                    continue;
+                if (VoicePacket.type(buffer) == VoicePacket.TYPE_REPORT) {
+                    VoiceReport report = VoiceReport.read(buffer, incoming.getLength());
+                    if (report != null) {
+                        int rtt = report.roundTrip(System.currentTimeMillis());
+                        if (rtt >= 0) rttMs = rtt;
+                        logger.debug("Partner report " + report + ", round trip " + rtt + " ms");
+                    }
+                    continue;
+                }
+                // a register answer, not voice
+                if (incoming.getLength() < VoicePacket.HEADER_SIZE)
+                    continue;
+                byte type = VoicePacket.type(buffer);
+                if (type != VoicePacket.TYPE_VOICE && type != VoicePacket.TYPE_COMFORT_NOISE)
+                    continue;
+
+                if (directPath != null)
+                    directPath.heard(incoming.getSocketAddress());
+                long now = System.currentTimeMillis();
+                Stream stream = streams.computeIfAbsent(VoicePacket.ssrc(buffer), ssrc -> new Stream(frameMs));
+                stream.lastHeard = now;
+                stream.lastTimestamp = VoicePacket.timestamp(buffer);
+                stream.lastArrival = now;
+                if (type == VoicePacket.TYPE_COMFORT_NOISE) {
+                    if (incoming.getLength() > VoicePacket.HEADER_SIZE)
+                        stream.comfortLevel = buffer[VoicePacket.HEADER_SIZE] & 0x7F;
+                    continue;
+                }
+                stream.comfortLevel = -1;
+
+                logger.debug("Receive " + incoming.getLength() + " bytes");
+                int codecId = VoicePacket.codec(buffer);
+                if (stream.decoders[codecId] == null)
+                    stream.decoders[codecId] = VoiceCodecs.create(codecId, format.getChannels());
+                if (stream.decoders[codecId] == null) {
+                    logger.debug("Unknown codec " + codecId);
+                    continue;
+                }
+                byte[] payload = stream.decoders[codecId].decode(buffer, VoicePacket.HEADER_SIZE, incoming.getLength() - VoicePacket.HEADER_SIZE);
+                stream.jitter.put(VoicePacket.seq(buffer), VoicePacket.timestamp(buffer), payload, now);
             }
 
             logger.debug("Speaker is stop");
+            playout.join();
+
+            for (Map.Entry<Integer, Stream> entry : streams.entrySet()) {
+                logStats(entry.getKey(), entry.getValue());
+            }
+            logger.debug("Comfort noise " + comfortFrames + " frames");
 
             audioOutput.drain();
             audioOutput.close();
@@ -51,6 +170,125 @@ public class VoiceSpeaker extends AbstractTask {
         } catch (IOException e) {
             logger.error("Failed to subscribe: " + e.getMessage());
             handleError(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void logStats(int ssrc, Stream stream) {
+        JitterBuffer jitter = stream.jitter;
+        logger.debug("Stream " + ssrc + ": received " + jitter.getReceived() + ", late " + jitter.getLate()
+                + ", concealed " + jitter.getMissing() + ", skipped " + jitter.getSkipped()
+                + ", jitter " + jitter.getJitterMs() + " ms");
+    }
+
+    /**
+     * Every {@code frameMs} takes the next frame of each stream from its jitter buffer and writes
+     * their sum to the line.
+     */
+    private void play(int frameMs) {
+        ComfortNoise noise = new ComfortNoise();
+        int[] mix = new int[Constants.BUFFER_SIZE / 2];
+        long next = System.nanoTime();
+        long nextReport = System.currentTimeMillis() + REPORT_INTERVAL_MS;
+        try {
+            while (!isCancel) {
+                Arrays.fill(mix, 0);
+                int samples = 0;
+                long now = System.currentTimeMillis();
+                if (reportPort > 0 && now >= nextReport) {
+                    nextReport = now + REPORT_INTERVAL_MS;
+                    this.report(now);
+                }
+                for (Iterator<Map.Entry<Integer, Stream>> it = streams.entrySet().iterator(); it.hasNext(); ) {
+                    Map.Entry<Integer, Stream> entry = it.next();
+                    Stream stream = entry.getValue();
+                    if (now - stream.lastHeard > STREAM_TIMEOUT_MS) {
+                        logStats(entry.getKey(), stream);
+                        it.remove();
+                        continue;
+                    }
+                    byte[] frame = this.nextFrame(stream, noise);
+                    if (frame == null)
+                        continue;
+                    samples = Math.max(samples, PcmMixer.add(mix, frame));
+                }
+                if (samples > 0) {
+                    byte[] pcm = PcmMixer.toPcm(mix, samples);
+                    audioOutput.write(pcm, 0, pcm.length);
+                }
+
+                next += frameMs * 1000000L;
+                long wait = next - System.nanoTime();
+                if (wait > 0) {
+                    Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+                } else if (wait < -frameMs * 1000000L) {
+                    // blocked on a full line or descheduled, do not rush to catch up
+                    next = System.nanoTime();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Sends the relay a receiver report for every stream, it forwards them to the sender.
+     */
+    private void report(long now) {
+        for (Map.Entry<Integer, Stream> entry : streams.entrySet()) {
+            Stream stream = entry.getValue();
+            JitterBuffer jitter = stream.jitter;
+            VoiceReport report = new VoiceReport(entry.getKey(), jitter.getExpected(), jitter.getReceived(),
+                    (int) Math.round(jitter.getJitterMs()), stream.lastTimestamp,
+                    (int) (now - stream.lastArrival), rttMs);
+            byte[] packet = report.toBytes();
+            try {
+                connection.send(new DatagramPacket(packet, packet.length,
+                        new InetSocketAddress(UDPConnection.getServInetAddr(), reportPort)));
+                logger.debug("Report " + report);
+            } catch (IOException e) {
+                logger.error("Failed to send report: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * While the sender is silent the gaps are filled with comfort noise. A lost frame is covered
+     * by the previous one at half the volume each time, and by silence after
+     * {@link #MAX_REPEATED} repeats.
+     *
+     * @return the stream's frame for this playout tick, null for silence
+     */
+    private byte[] nextFrame(Stream stream, ComfortNoise noise) throws InterruptedException {
+        byte[] frame = stream.jitter.poll(0);
+        int level = stream.comfortLevel;
+        if ((frame == null || frame == JitterBuffer.MISSING) && level >= 0) {
+            comfortFrames++;
+            return noise.generate(level, Constants.BUFFER_SIZE);
+        }
+        if (frame == null)
+            return null;
+        if (frame == JitterBuffer.MISSING) {
+            if (stream.last == null || stream.repeated++ >= MAX_REPEATED)
+                return null;
+            attenuate(stream.last);
+            return stream.last;
+        }
+        stream.repeated = 0;
+        stream.last = frame;
+        return frame;
+    }
+
+    /**
+     * Halves every 16 bit little endian sample in place.
+     */
+    private static void attenuate(byte[] pcm) {
+        for (int i = 0; i + 1 < pcm.length; i += 2) {
+            short sample = (short) ((pcm[i] & 0xFF) | (pcm[i + 1] << 8));
+            sample >>= 1;
+            pcm[i] = (byte) sample;
+            pcm[i + 1] = (byte) (sample >> 8);
         }
     }
 
@@ -12,6 +12,8 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ResourceBundle;
 
 public abstract class AbstractFileMessageController implements Initializable {
@@ -49,9 +51,15 @@ public abstract class AbstractFileMessageController implements Initializable {
 
     private void save(File file) {
         try {
-            FileOutputStream stream = new FileOutputStream(file);
-            stream.write(fileInfo.getData());
-            stream.close();
+            if (fileInfo.getData() != null) {
+                FileOutputStream stream = new FileOutputStream(file);
+                stream.write(fileInfo.getData());
+                stream.close();
+            } else if (fileInfo.getLocalFile() != null) {
+                Files.copy(fileInfo.getLocalFile().toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                UIUtils.showErrorAlert(fileInfo.getName() + " is still being received");
+            }
         } catch (IOException e) {
             UIUtils.showErrorAlert("Can't save file " + file.getName() + ": " + e.getMessage());
         }
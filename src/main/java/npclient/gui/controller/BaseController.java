@@ -12,6 +12,7 @@ import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.AnchorPane;
 import javafx.scene.layout.HBox;
 import javafx.scene.text.Text;
+import javafx.stage.WindowEvent;
 import javafx.util.Callback;
 import npclient.MyAccount;
 import npclient.core.callback.OnAcceptListener;
@@ -27,6 +28,7 @@ import npclient.gui.util.AudioUtils;
 import npclient.gui.util.JFXSmoothScroll;
 import npclient.gui.view.*;
 import nputils.*;
+import nputils.codec.VoiceCodecs;
 import npclient.exception.DuplicateGroupException;
 import npclient.gui.entity.*;
 import npclient.gui.manager.MessageManager;
@@ -36,6 +38,7 @@ import npclient.gui.util.UIUtils;
 import javax.sound.sampled.LineUnavailableException;
 import java.io.IOException;
 import java.net.URL;
+import java.util.Collections;
 import java.util.List;
 import java.util.ResourceBundle;
 
@@ -60,6 +63,9 @@ public class BaseController implements Initializable {
 
     private SimpleBooleanProperty callableProperty;
 
+    // version of the last applied presence update, -1 while waiting for a snapshot
+    private long presenceVersion = -1;
+
     @Override
     public void initialize(URL location, ResourceBundle resources) {
         StageManager.getInstance().setBaseController(this);
@@ -108,7 +114,9 @@ public class BaseController implements Initializable {
                 .setNewMessageListener(new SubscribedTopicListener() {
                     @Override
                     public void onReceive(DataTransfer message) {
-                        String action = message.data.toString();
+                        String action = VoiceSignal.actionOf(message.data);
+                        if (action == null)
+                            return;
                         switch (action) {
                             case Constants.VOICE_REQUEST:
                                 onReceiveVoiceRequest(message);
@@ -138,55 +146,96 @@ public class BaseController implements Initializable {
      */
     private void listenOnlineUsers() {
         final String username = MyAccount.getInstance().getName();
-        new Subscriber(Constants.ONLINE_TOPIC, username)
-                .setNewMessageListener(new SubscribedTopicListener() {
-                    @Override
-                    public void onReceive(DataTransfer message) {
-                        // Get current user in chat box
-                        ChatBox currentChatBox = getCurrentChat();
-                        final String current = currentChatBox != null ? currentChatBox.getTarget() : null;
-
-                        boolean isCurrentOnline = current == null;
-
-                        // Clear all exist chat item
-                        lvUserItem.getItems().clear();
-
-                        // Retrieve online users
-                        List<String> onlineUsers = (List<String>) message.data;
-
-                        // Clear all offline user chat messages in MessageManager
-                        MessageManager.getInstance().clearOffline(onlineUsers);
-                        MessageSubscribeManager.getInstance().clearOffline(onlineUsers);
-
-                        for (String user : onlineUsers) {
-                            // Add user (not your self) into listview
-                            if (!username.equals(user)) {
-                                ChatItem item = new UserChatItem();
-                                item.setName(user);
-                                lvUserItem.getItems().add(item);
-
-                                // Check whether current user still online
-                                if (user.equals(current))
-                                    isCurrentOnline = true;
-                                else {
-                                    String topic = String.format("chat/%s", user);
-                                    if (!MessageSubscribeManager.getInstance().containsKey(topic)) {
-                                        // with other user listen message
-                                        Subscriber subscriber = subscribeMessages(username, topic);
-                                        MessageSubscribeManager.getInstance().put(topic, subscriber);
-                                    }
-                                }
-                            }
-                        }
+        final Subscriber subscriber = new Subscriber(Constants.ONLINE_TOPIC, username);
+        subscriber.setNewMessageListener(new SubscribedTopicListener() {
+            @Override
+            public void onReceive(DataTransfer message) {
+                if (!(message.data instanceof PresenceUpdate))
+                    return;
+                PresenceUpdate update = (PresenceUpdate) message.data;
+
+                if (update.isSnapshot()) {
+                    applyOnlineSnapshot(username, update.getJoined());
+                    presenceVersion = update.getVersion();
+                } else if (presenceVersion < 0 || update.getVersion() <= presenceVersion) {
+                    // waiting for a snapshot, or already part of the last one
+                } else if (update.getVersion() != presenceVersion + 1) {
+                    // missed an update, ask for a new snapshot
+                    presenceVersion = -1;
+                    subscriber.resubscribe();
+                } else {
+                    update.getLeft().forEach(BaseController.this::removeOnlineUser);
+                    update.getJoined().forEach(user -> addOnlineUser(username, user));
+                    presenceVersion = update.getVersion();
+                }
+            }
+        }).listen();
+    }
 
-                        // In case current user offline
-                        // Clear chat box
-                        if (!isCurrentOnline) {
-                            clearChatBox();
-                        }
-                    }
-                })
-                .listen();
+    private void applyOnlineSnapshot(String username, List<String> onlineUsers) {
+        // Get current user in chat box
+        ChatBox currentChatBox = getCurrentChat();
+        final String current = currentChatBox != null ? currentChatBox.getTarget() : null;
+
+        boolean isCurrentOnline = current == null;
+
+        // Clear all exist chat item
+        lvUserItem.getItems().clear();
+
+        // Clear all offline user chat messages in MessageManager
+        MessageManager.getInstance().clearOffline(onlineUsers);
+        MessageSubscribeManager.getInstance().clearOffline(onlineUsers);
+
+        for (String user : onlineUsers) {
+            addOnlineUser(username, user);
+
+            // Check whether current user still online
+            if (user.equals(current))
+                isCurrentOnline = true;
+        }
+
+        // In case current user offline
+        // Clear chat box
+        if (!isCurrentOnline) {
+            clearChatBox();
+        }
+    }
+
+    private void addOnlineUser(String username, String user) {
+        // Add user (not your self) into listview
+        if (username.equals(user))
+            return;
+
+        ChatItem item = new UserChatItem();
+        item.setName(user);
+        if (!lvUserItem.getItems().contains(item))
+            lvUserItem.getItems().add(item);
+
+        String topic = String.format("chat/%s", user);
+        if (!MessageSubscribeManager.getInstance().containsKey(topic)) {
+            // with other user listen message
+            Subscriber subscriber = subscribeMessages(username, topic);
+            MessageSubscribeManager.getInstance().put(topic, subscriber);
+        }
+    }
+
+    private void removeOnlineUser(String user) {
+        ChatItem item = getChatItemByName(user, false);
+        if (item != null)
+            lvUserItem.getItems().remove(item);
+
+        String topic = String.format("chat/%s", user);
+        MessageManager.getInstance().remove(topic);
+        Subscriber subscriber = MessageSubscribeManager.getInstance().remove(topic);
+        if (subscriber != null)
+            subscriber.cancel();
+
+        // In case current user offline
+        // Clear chat box
+        ChatBox currentChatBox = getCurrentChat();
+        if (currentChatBox != null && user.equals(currentChatBox.getTarget())) {
+            clearChatBox();
+        }
     }
 
     /**
@@ -335,7 +384,7 @@ public class BaseController implements Initializable {
     }
 
     private void onReceiveVoiceAccept(DataTransfer message) {
-        openVoiceChatDialog(message.name);
+        openVoiceChatDialog(message.name, VoiceCodecs.choose(VoiceSignal.codecsOf(message.data)));
     }
 
     private void onReceiveVoiceRequest(DataTransfer message) {
@@ -350,15 +399,21 @@ public class BaseController implements Initializable {
         } else {
             MyAccount.getInstance().setInCall(true);
             callableProperty.set(false);
+            final List<String> offered = VoiceSignal.codecsOf(message.data);
+            final String codec = VoiceCodecs.choose(offered);
             UIUtils.showIncomingCallAlert(message.name, new OnAcceptListener() {
                 @Override
                 public void onAccept() {
+                    // a caller that offered nothing only understands the bare string
+                    Object accept = offered == null
+                            ? Constants.VOICE_ACCEPT
+                            : new VoiceSignal(Constants.VOICE_ACCEPT, Collections.singletonList(codec));
                     new Publisher(resTopic, username)
-                            .putData(Constants.VOICE_ACCEPT)
+                            .putData(accept)
                             .setSuccessListener(new OnPublishMessageSuccess() {
                                 @Override
                                 public void onReceive(DataTransfer m) {
-                                    openVoiceChatDialog(message.name);
+                                    openVoiceChatDialog(message.name, codec);
                                 }
                             })
                             .post();
@@ -405,11 +460,11 @@ public class BaseController implements Initializable {
         paneCalling.hide();
     }
 
-    private void openVoiceChatDialog(String target) {
+    private void openVoiceChatDialog(String target, String codec) {
         try {
             voiceChatStage = new VoiceChatDialog();
             voiceChatStage.setUsername(MyAccount.getInstance().getName());
-            voiceChatStage.setTarget(target);
+            voiceChatStage.setTarget(target, codec);
             voiceChatStage.show();
         } catch (LineUnavailableException | IOException e) {
             // Quit if catch a exception
@@ -428,6 +483,31 @@ public class BaseController implements Initializable {
         }
     }
 
+    /**
+     * Opens the voice conference of {@code group}
+     */
+    public void joinConference(String group) {
+        MyAccount.getInstance().setInCall(true);
+        callableProperty.set(false);
+        try {
+            voiceChatStage = new VoiceChatDialog();
+            voiceChatStage.setUsername(MyAccount.getInstance().getName());
+            voiceChatStage.setConference(group);
+            voiceChatStage.setOnHidden(new EventHandler<WindowEvent>() {
+                @Override
+                public void handle(WindowEvent event) {
+                    MyAccount.getInstance().setInCall(false);
+                    callableProperty.set(true);
+                }
+            });
+            voiceChatStage.show();
+        } catch (LineUnavailableException | IOException e) {
+            MyAccount.getInstance().setInCall(false);
+            callableProperty.set(true);
+            UIUtils.showErrorAlert("Cannot join the conference: " + e.getMessage());
+        }
+    }
+
     private void closeVoiceChatDialog() {
         if (voiceChatStage != null) {
             voiceChatStage.close();
@@ -28,6 +28,8 @@ import nputils.Constants;
 import nputils.DataTransfer;
 import nputils.Emoji;
 import nputils.FileInfo;
+import nputils.VoiceSignal;
+import nputils.codec.VoiceCodecs;
 
 import java.io.File;
 import java.io.IOException;
@@ -109,11 +111,15 @@ public class ChatBoxController implements Initializable {
 
     @FXML
     public void startVoiceCall() {
+        if (isGroup) {
+            StageManager.getInstance().getBaseController().joinConference(target);
+            return;
+        }
         final String topic = String.format("voice/%s", target);
         final String username = MyAccount.getInstance().getName();
         StageManager.getInstance().getBaseController().showCallingPane(target);
         new Publisher(topic, username)
-                .putData(Constants.VOICE_REQUEST)
+                .putData(new VoiceSignal(Constants.VOICE_REQUEST, VoiceCodecs.names()))
                 .setSuccessListener(new OnPublishMessageSuccess() {
                     @Override
                     public void onReceive(DataTransfer message) {
@@ -200,17 +206,15 @@ public class ChatBoxController implements Initializable {
 
         if (isGroup) {
             title = String.format("g:/%s", target);
-//            voiceCallIcon.setOpacity(0.5f);
-            btnVoiceCall.setDisable(true);
         } else {
             title = String.format("u:/%s", target);
 //            voiceCallIcon.setOpacity(1f);
 //            btnVoiceCall.setDisable(false);
-            btnVoiceCall.disableProperty().bind(StageManager.getInstance()
-                    .getBaseController()
-                    .callableProperty().not()
-            );
         }
+        btnVoiceCall.disableProperty().bind(StageManager.getInstance()
+                .getBaseController()
+                .callableProperty().not()
+        );
         this.lTitle.setText(title);
 
         // load exist message
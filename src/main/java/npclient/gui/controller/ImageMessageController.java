@@ -1,5 +1,6 @@
 package npclient.gui.controller;
 
+import javafx.application.Platform;
 import javafx.event.EventHandler;
 import javafx.fxml.FXML;
 import javafx.scene.control.Button;
@@ -7,6 +8,7 @@ import javafx.scene.image.Image;
 import javafx.scene.input.MouseEvent;
 import javafx.scene.paint.ImagePattern;
 import javafx.scene.shape.Rectangle;
+import npclient.core.FileDownloads;
 import npclient.gui.view.ImagePreviewStage;
 import nputils.FileInfo;
 
@@ -49,7 +51,17 @@ public class ImageMessageController extends AbstractFileMessageController {
         super.setFileInfo(fileInfo);
 
         name = fileInfo.getName();
-        image = new Image(new ByteArrayInputStream(fileInfo.getData()));
+        if (fileInfo.getData() != null) {
+            showImage(new Image(new ByteArrayInputStream(fileInfo.getData())));
+        } else {
+            // streamed, shown once received
+            FileDownloads.getInstance().whenComplete(fileInfo)
+                    .thenAccept(file -> Platform.runLater(() -> showImage(new Image(file.toURI().toString()))));
+        }
+    }
+
+    private void showImage(Image image) {
+        this.image = image;
         final double HEIGHT = image.getHeight() / image.getWidth() * WIDTH;
         rectThumbnail.setHeight(HEIGHT);
         rectThumbnail.setWidth(WIDTH);
@@ -6,17 +6,24 @@ import javafx.fxml.Initializable;
 import javafx.scene.Node;
 import javafx.scene.control.Label;
 import javafx.stage.Stage;
+import npclient.CliConstants;
 import npclient.CliLogger;
 import npclient.MyAccount;
+import npclient.core.DirectPath;
+import npclient.core.Session;
 import npclient.core.UDPConnection;
 import npclient.core.command.Publisher;
 import npclient.core.command.UDPRegister;
 import npclient.core.command.VoiceListener;
 import npclient.core.command.VoiceSpeaker;
 import nputils.Constants;
+import nputils.DataTransfer;
+import nputils.VoiceSignal;
+import nputils.codec.VoiceCodecs;
 
 import javax.sound.sampled.*;
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.URL;
 import java.util.ResourceBundle;
 
@@ -32,6 +39,12 @@ public class VoiceChatController implements Initializable {
     private VoiceListener listener;
     private VoiceSpeaker speaker;
 
+    private SourceDataLine audioOutput;
+    private TargetDataLine audioInput;
+
+    // group of the conference, null in a 1:1 call
+    private String room;
+
     @Override
     public void initialize(URL location, ResourceBundle resources) {
 
@@ -39,35 +52,82 @@ public class VoiceChatController implements Initializable {
 
     public void setAudioFormat(AudioFormat format) throws IOException, LineUnavailableException {
         logger.debug("Start audio output");
-        SourceDataLine audioOutput = AudioSystem.getSourceDataLine(format);
+        audioOutput = AudioSystem.getSourceDataLine(format);
         audioOutput.open(format);
         increaseVolume(audioOutput);
         audioOutput.start();
 
         logger.debug("Start audio input");
-        TargetDataLine audioInput = AudioSystem.getTargetDataLine(format);
+        audioInput = AudioSystem.getTargetDataLine(format);
         audioInput.open(format);
         increaseVolume(audioInput);
         audioInput.start();
+    }
+
+    /**
+     * Starts sending and playing voice through the relay worker of this call, and directly to
+     * the partner once their address answers a probe
+     *
+     * @param partner the other user of the call
+     * @param codec   name of the negotiated codec
+     */
+    public void startCall(String partner, String codec) throws IOException {
+        final UDPConnection udpConn = MyAccount.getInstance().getUdpConn();
+        final String name = MyAccount.getInstance().getName();
+        final int relayPort = udpConn.getRelayPort(name, partner);
+        final InetSocketAddress relay = new InetSocketAddress(UDPConnection.getServInetAddr(), relayPort);
+        startStreams(relayPort, codec, new DirectPath(udpConn, relay));
+    }
 
+    /**
+     * Joins the conference of a group and starts sending and playing voice through its relay worker.
+     * Every client decodes every codec, so no codec is negotiated: the most preferred one is sent.
+     * With {@link CliConstants#CONFERENCE_MIXED} the server sends one mixed stream in a codec picked
+     * from the ones offered.
+     */
+    public void startConference(String group) throws IOException {
         final UDPConnection udpConn = MyAccount.getInstance().getUdpConn();
         final String name = MyAccount.getInstance().getName();
+        final String topic = Constants.PREFIX_CONFERENCE + Constants.SPLITTER + group;
+
+        Object join = CliConstants.CONFERENCE_MIXED
+                ? new VoiceSignal(Constants.CONFERENCE_JOIN, VoiceCodecs.names())
+                : Constants.CONFERENCE_JOIN;
+        DataTransfer ack = Session.open(name).call(new DataTransfer(topic, name, Constants.PUBLISH, join));
+        if (!Boolean.TRUE.equals(ack.data))
+            throw new IOException("Not a member of group " + group);
+        this.room = group;
+        startStreams(udpConn.getRoomPort(group), VoiceCodecs.names().get(0), null);
+    }
 
-        logger.debug("Register UDP Connection to the server");
+    /**
+     * @param directPath null in a conference, whose streams always go through the server
+     */
+    private void startStreams(int relayPort, String codec, DirectPath directPath) throws IOException {
+        final UDPConnection udpConn = MyAccount.getInstance().getUdpConn();
+        final String name = MyAccount.getInstance().getName();
+
+        logger.debug("Register UDP Connection to the server on port " + relayPort);
         new UDPRegister()
                 .setName(name)
                 .setConnection(udpConn)
+                .setPort(relayPort)
                 .register();
 
         logger.debug("Start voice listener");
         listener = new VoiceListener()
                 .setConnection(udpConn)
+                .setPort(relayPort)
+                .setCodec(codec)
+                .setDirectPath(directPath)
                 .setAudioInput(audioInput);
         listener.post();
 
         logger.debug("Start voice speaker");
         speaker = new VoiceSpeaker()
                 .setConnection(udpConn)
+                .setDirectPath(directPath)
+                .setReportPort(directPath != null ? relayPort : 0)
                 .setAudioOutput(audioOutput);
         speaker.listen();
     }
@@ -89,12 +149,22 @@ public class VoiceChatController implements Initializable {
 
     public void stop() {
         logger.debug("Cancel listener & speaker");
-        listener.cancel();
-        speaker.cancel();
+        if (listener != null)
+            listener.cancel();
+        if (speaker != null)
+            speaker.cancel();
+
+        final String username = lUser1.getText();
+        if (room != null) {
+            logger.debug("Leave the conference");
+            new Publisher(Constants.PREFIX_CONFERENCE + Constants.SPLITTER + room, username)
+                    .putData(Constants.CONFERENCE_LEAVE)
+                    .post();
+            return;
+        }
 
         logger.debug("Send Voice Quit signal to the partner");
         final String topic = "voice/" + lUser2.getText();
-        final String username = lUser1.getText();
 
         new Publisher(topic, username)
                 .putData(Constants.VOICE_QUIT)
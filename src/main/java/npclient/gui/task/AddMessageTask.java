@@ -2,14 +2,16 @@ package npclient.gui.task;
 
 import javafx.concurrent.Task;
 import npclient.MyAccount;
+import npclient.core.FileUpload;
 import npclient.core.callback.ErrorListener;
 import npclient.core.callback.OnPublishMessageSuccess;
+import npclient.core.command.FilePublisher;
 import npclient.core.command.Publisher;
+import npclient.core.command.TCPPublisher;
 import npclient.gui.entity.*;
 import npclient.gui.manager.MessageManager;
 import nputils.DataTransfer;
 import nputils.Emoji;
-import nputils.FileInfo;
 
 import java.io.File;
 
@@ -39,27 +41,27 @@ public class AddMessageTask extends Task<Messages> {
     protected Messages call() throws Exception {
         final String username = MyAccount.getInstance().getName();
         Message m;
-        Object data;
+        TCPPublisher publisher;
 
         if (content instanceof File) {
             m = new FileMessage();
-            FileInfo fileInfo = new FileInfo((File) content);
-            ((FileMessage) m).setContent(fileInfo);
-            data = fileInfo;
+            // streamed in chunks, the file is never read into memory as a whole
+            FileUpload upload = new FileUpload(topic, (File) content);
+            ((FileMessage) m).setContent(upload.getInfo());
+            publisher = new FilePublisher(topic, username, upload);
 
         } else if (content instanceof Emoji) {
             m = new EmojiMessage();
             ((EmojiMessage) m).setContent((Emoji) content);
-            data = content;
+            publisher = new Publisher(topic, username).putData(content);
 
         } else {
             m = new TextMessage();
             ((TextMessage) m).setContent(content.toString());
-            data = content;
+            publisher = new Publisher(topic, username).putData(content);
         }
 
-        new Publisher(topic, username)
-                .putData(data)
+        publisher
                 .setSuccessListener(new OnPublishMessageSuccess() {
                     @Override
                     public void onReceive(DataTransfer message) {
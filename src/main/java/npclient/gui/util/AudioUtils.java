@@ -1,12 +1,14 @@
 package npclient.gui.util;
 
+import nputils.Constants;
+
 import javax.sound.sampled.*;
 
 public class AudioUtils {
 
     private static final float RATE = 8000.0F;
     private static final int BITS_SIZE = 16;
-    private static final int CHANNELS = 2;
+    private static final int CHANNELS = Constants.VOICE_CHANNELS;
     private static final boolean SIGNED = true;
     private static final boolean BIG_ENDIAN = false;
 
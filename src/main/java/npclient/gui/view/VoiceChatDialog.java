@@ -47,7 +47,19 @@ public class VoiceChatDialog extends Stage {
         controller.setUser1(username);
     }
 
-    public void setTarget(String target) {
+    /**
+     * @param codec name of the codec negotiated for the call
+     */
+    public void setTarget(String target, String codec) throws IOException {
         controller.setUser2(target);
+        controller.startCall(target, codec);
+    }
+
+    /**
+     * @param group group whose conference to join
+     */
+    public void setConference(String group) throws IOException {
+        controller.setUser2(String.format("g:/%s", group));
+        controller.startConference(group);
     }
 }
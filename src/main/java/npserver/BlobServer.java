@@ -0,0 +1,134 @@
+package npserver;
+
+import npserver.utils.BlobStore;
+import npserver.utils.ConfigReader;
+import npserver.utils.ServerMetrics;
+import nputils.BlobRequest;
+import nputils.FrameCodec;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Download port of the {@link BlobStore}: ranges of blobs go from the file to the socket with
+ * {@link FileChannel#transferTo}, which the kernel serves with sendfile, so the content is neither
+ * copied onto the heap nor framed like the messages of {@link Server}.
+ * <p>
+ * One thread per connection, a download being one long write. Connections past
+ * {@link #MAX_CONNECTIONS} are closed at once, and a client has {@link #REQUEST_TIMEOUT_MS} to send
+ * each request.
+ */
+public class BlobServer {
+    private static final Logger LOGGER = LogManager.getLogger(BlobServer.class);
+
+    public static final int MAX_CONNECTIONS = 64;
+    public static final int REQUEST_TIMEOUT_MS = 30000;
+
+    private static final LongAdder downloads = ServerMetrics.counter("blob.downloads");
+    private static final LongAdder bytesSent = ServerMetrics.counter("blob.bytes.sent");
+    private static final LongAdder refused = ServerMetrics.counter("blob.refused");
+
+    private final int port;
+    private final AtomicInteger connections = new AtomicInteger();
+    // no queue, a connection is served at once or refused
+    private final ExecutorService workers = new ThreadPoolExecutor(0, MAX_CONNECTIONS, 60, TimeUnit.SECONDS,
+            new SynchronousQueue<>(), r -> {
+                Thread thread = new Thread(r, "BlobServer-" + connections.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+    public volatile ServerSocketChannel server;
+
+    public BlobServer(ConfigReader config) {
+        this.port = config.portBlob;
+    }
+
+    public void StartServer() throws IOException {
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        channel.bind(new InetSocketAddress(port));
+        server = channel;
+        LOGGER.info("Blob server is opening on port {}", channel.socket().getLocalPort());
+        try {
+            while (true) {
+                SocketChannel socket = channel.accept();
+                try {
+                    workers.execute(() -> this.serve(socket));
+                } catch (RejectedExecutionException e) {
+                    LOGGER.info("{}: refused, ({}) connections already", socket.socket().getRemoteSocketAddress(), MAX_CONNECTIONS);
+                    refused.increment();
+                    socket.close();
+                }
+            }
+        } finally {
+            channel.close();
+            workers.shutdown();
+        }
+    }
+
+    private void serve(SocketChannel socket){
+        String client = String.valueOf(socket.socket().getRemoteSocketAddress());
+        // unbuffered, nothing is read past a request; the stream of the socket, unlike
+        // Channels.newInputStream, honours SO_TIMEOUT
+        try (SocketChannel channel = socket;
+             DataInputStream in = new DataInputStream(socket.socket().getInputStream())) {
+            // the length goes out alone before the content, do not hold it back for an ACK
+            socket.socket().setTcpNoDelay(true);
+            socket.socket().setSoTimeout(REQUEST_TIMEOUT_MS);
+            FrameCodec.checkHello(in.readShort(), in.readShort());
+            ByteBuffer header = ByteBuffer.allocate(8);
+            while (true) {
+                BlobRequest request;
+                try {
+                    request = BlobRequest.read(in);
+                } catch (EOFException e) {
+                    return;
+                }
+                File blob = BlobStore.get(request.id);
+                long length = blob == null ? BlobRequest.NOT_FOUND : request.rangeOf(blob.length());
+                header.clear();
+                header.putLong(length).flip();
+                while (header.hasRemaining()) channel.write(header);
+                if (length == BlobRequest.NOT_FOUND) {
+                    LOGGER.info("{}: no blob for ({})", client, request);
+                    continue;
+                }
+                this.send(blob, request.offset, length, channel);
+                downloads.increment();
+                bytesSent.add(length);
+                LOGGER.info("{}: sent blob ({})", client, request);
+            }
+        } catch (IOException e) {
+            LOGGER.info("{}: blob connection closed: ({})", client, e.toString());
+        }
+    }
+
+    private void send(File blob, long offset, long length, SocketChannel socket) throws IOException {
+        try (FileChannel file = FileChannel.open(blob.toPath(), StandardOpenOption.READ)) {
+            long position = offset;
+            long end = offset + length;
+            // transferTo may send less than asked, e.g. 2 GB at most per call on Linux
+            while (position < end) {
+                long sent = file.transferTo(position, end - position, socket);
+                if (sent <= 0 && position >= file.size()) throw new IOException("Truncated " + blob);
+                position += sent;
+            }
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package npserver;
+
+import npserver.utils.ServerMetrics;
+import npserver.utils.UdpConnManagement;
+import nputils.Constants;
+import nputils.VoicePacket;
+import nputils.codec.PcmMixer;
+import nputils.codec.VoiceCodec;
+import nputils.codec.VoiceCodecs;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Mixes conferences for participants that asked for a single stream.
+ * <p>
+ * The relay workers hand over the frames of the speakers they forward; once per frame duration the
+ * mixer decodes the next frame of every speaker, sums them, and sends each mixed participant the
+ * sum without their own voice, encoded with their codec. A listener then receives one stream
+ * whatever the size of the room, at the cost of server CPU.
+ */
+public class ConferenceMixer implements Runnable {
+    private static final Logger LOGGER = LogManager.getLogger(ConferenceMixer.class);
+
+    private static final int SAMPLES = Constants.BUFFER_SIZE / 2;
+    // frames a speaker may be ahead of the mixer before the oldest is dropped
+    private static final int MAX_QUEUED = 3;
+    // frames to queue before a speaker is mixed, to ride out some jitter
+    private static final int PREFETCH = 2;
+
+    private static final LongAdder mixedFrames = ServerMetrics.counter("udp.mixed");
+    private static final LongAdder mixDropped = ServerMetrics.counter("udp.mix.dropped");
+
+    /**
+     * Frames of one speaker waiting to be mixed; filled by the relay worker, drained by the mixer.
+     */
+    private static class Speaker {
+        final ArrayDeque<byte[]> frames = new ArrayDeque<>();
+        final VoiceCodec[] decoders = new VoiceCodec[256];
+        boolean playing = false;
+
+        synchronized boolean add(byte[] packet) {
+            frames.add(packet);
+            if (frames.size() <= MAX_QUEUED) return true;
+            frames.poll();
+            return false;
+        }
+
+        synchronized byte[] next() {
+            if (!playing && frames.size() < PREFETCH) return null;
+            byte[] packet = frames.poll();
+            playing = packet != null;
+            return packet;
+        }
+    }
+
+    /**
+     * Encoder state of one mixed stream.
+     */
+    private static class Listener {
+        final int codecId;
+        final VoiceCodec encoder;
+        final byte[] packet = new byte[VoicePacket.MAX_SIZE];
+        int seq = 0;
+
+        Listener(int codecId) {
+            this.codecId = codecId;
+            this.encoder = VoiceCodecs.create(codecId, Constants.VOICE_CHANNELS);
+        }
+    }
+
+    private final DatagramChannel[] channels;
+    private final Map<UdpConnManagement.Route, Speaker> speakers = new ConcurrentHashMap<>();
+    private final Map<UdpConnManagement.Route, Listener> listeners = new ConcurrentHashMap<>();
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param channels relay channels by worker, a room's mix goes out through the channel of its worker
+     */
+    public ConferenceMixer(DatagramChannel[] channels) {
+        this.channels = channels;
+    }
+
+    public void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "Conference Mixer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(this, Constants.VOICE_FRAME_MS, Constants.VOICE_FRAME_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        if (scheduler != null) scheduler.shutdownNow();
+    }
+
+    /**
+     * Called by the relay worker with a voice frame of a speaker of {@code room}; copies the packet.
+     */
+    public void offer(UdpConnManagement.Route speaker, UdpConnManagement.Room room, ByteBuffer packet) {
+        if (room.getMixed().length == 0) return;
+        if (packet.remaining() <= VoicePacket.HEADER_SIZE || packet.get(0) != VoicePacket.TYPE_VOICE) return;
+        byte[] copy = new byte[packet.remaining()];
+        packet.duplicate().get(copy);
+        if (!speakers.computeIfAbsent(speaker, s -> new Speaker()).add(copy)) mixDropped.increment();
+    }
+
+    @Override
+    public void run() {
+        try {
+            // participants that left or were evicted
+            speakers.keySet().removeIf(route -> route.getRoom() == null);
+            listeners.keySet().removeIf(route -> route.getMixCodec() < 0);
+            for (UdpConnManagement.Room room : UdpConnManagement.getRooms()) {
+                if (room.getMixed().length > 0) this.mix(room);
+            }
+        } catch (Exception e) {
+            // an exception would cancel the schedule
+            LOGGER.error("Conference mixer error: ({})", e.toString());
+        }
+    }
+
+    private void mix(UdpConnManagement.Room room) throws IOException {
+        UdpConnManagement.Route[] members = room.getMembers();
+        byte[][] frames = new byte[members.length][];
+        int[] total = new int[SAMPLES];
+        int samples = 0;
+        int speaking = 0;
+        for (int i = 0; i < members.length; i++) {
+            frames[i] = this.decode(members[i]);
+            if (frames[i] == null) continue;
+            samples = Math.max(samples, PcmMixer.add(total, frames[i]));
+            speaking++;
+        }
+        if (speaking == 0) return;
+
+        DatagramChannel channel = channels[room.getShard() % channels.length];
+        int ssrc = room.name.hashCode();
+        int[] mix = new int[SAMPLES];
+        for (int i = 0; i < members.length; i++) {
+            UdpConnManagement.Route member = members[i];
+            int codecId = member.getMixCodec();
+            if (codecId < 0) continue;
+            // the listener is the only one talking, nothing to send
+            if (frames[i] != null && speaking == 1) continue;
+
+            System.arraycopy(total, 0, mix, 0, SAMPLES);
+            if (frames[i] != null) PcmMixer.subtract(mix, frames[i]);
+            byte[] pcm = PcmMixer.toPcm(mix, samples);
+
+            Listener listener = listeners.get(member);
+            if (listener == null || listener.codecId != codecId) {
+                listener = new Listener(codecId);
+                listeners.put(member, listener);
+            }
+            if (listener.encoder == null) continue;
+            int length = listener.encoder.encode(pcm, 0, pcm.length, listener.packet, VoicePacket.HEADER_SIZE);
+            VoicePacket.writeHeader(listener.packet, VoicePacket.TYPE_VOICE, codecId, listener.seq,
+                    (int) System.currentTimeMillis(), ssrc, PcmMixer.level(mix, samples));
+            listener.seq = (listener.seq + 1) & 0xFFFF;
+            channel.send(ByteBuffer.wrap(listener.packet, 0, VoicePacket.HEADER_SIZE + length), member.addr);
+            mixedFrames.increment();
+        }
+    }
+
+    /**
+     * @return the speaker's next frame as PCM, null when it has none for this tick
+     */
+    private byte[] decode(UdpConnManagement.Route route) {
+        Speaker speaker = speakers.get(route);
+        byte[] packet = speaker == null ? null : speaker.next();
+        if (packet == null) return null;
+        int codecId = VoicePacket.codec(packet);
+        if (speaker.decoders[codecId] == null)
+            speaker.decoders[codecId] = VoiceCodecs.create(codecId, Constants.VOICE_CHANNELS);
+        if (speaker.decoders[codecId] == null) return null;
+        return speaker.decoders[codecId].decode(packet, VoicePacket.HEADER_SIZE, packet.length - VoicePacket.HEADER_SIZE);
+    }
+}
@@ -1,7 +1,9 @@
 package npserver;
 
 import npserver.Server;
+import npserver.utils.BlobStore;
 import npserver.utils.ConfigReader;
+import npserver.utils.ServerMetrics;
 
 import java.io.IOException;
 
@@ -9,6 +11,9 @@ public class MainServer {
     public static void main(String[] args) throws IOException, InterruptedException {
         ConfigReader cr = new ConfigReader();
         cr.getPropValues();
+        // the blob server may serve before the message server is built
+        BlobStore.configure(cr.blobDir);
+        ServerMetrics.startReporter(cr.metricsIntervalMs);
 
         Thread udpServerThread = new Thread(()-> {
             UdpServer udpserver = new UdpServer(cr);
@@ -19,6 +24,17 @@ public class MainServer {
             }
         });
         udpServerThread.start();
+        if(cr.portBlob >= 0){
+            Thread blobServerThread = new Thread(()-> {
+                BlobServer blobServer = new BlobServer(cr);
+                try {
+                    blobServer.StartServer();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            });
+            blobServerThread.start();
+        }
         Thread.sleep(3000);
         Server server = new Server(cr);
         server.StartServer();
@@ -1,11 +1,19 @@
 package npserver;
 
+import npserver.handler.BlockingServerHandler;
+import npserver.handler.EventLoop;
 import npserver.handler.ServerHandler;
+import npserver.utils.BlobStore;
 import npserver.utils.ConfigReader;
+import npserver.utils.FileTransfers;
+import npserver.utils.Presence;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -13,18 +21,57 @@ import org.apache.logging.log4j.Logger;
 public class Server{
     private static final Logger LOGGER = LogManager.getLogger(Server.class);
     private int port;
+    private String transport;
+    private int eventLoops;
     public ServerSocket server;
     public Server(ConfigReader config) {
         this.port = config.port;
+        this.transport = config.transport;
+        this.eventLoops = config.eventLoops;
+        ServerHandler.configure(config);
+        Presence.configure(config.presenceWindowMs);
+        FileTransfers.configure(config.transferDir, config.transferTtlMs);
+        BlobStore.configure(config.blobDir);
     }
 
     public void StartServer() throws IOException {
+        if (ConfigReader.TRANSPORT_NIO.equals(transport)) this.startNio();
+        else this.startBlocking();
+    }
+
+    private void startBlocking() throws IOException {
         server = new ServerSocket(port);
         LOGGER.info("Server is opening on port {}", port);
         while (true) {
             Socket socket = server.accept();
-            ServerHandler serverHandler = new ServerHandler(socket);
+            BlockingServerHandler serverHandler = new BlockingServerHandler(socket);
             serverHandler.start();
         }
     }
+
+    private void startNio() throws IOException {
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        server = channel.socket();
+        server.bind(new InetSocketAddress(port));
+
+        EventLoop[] loops = new EventLoop[eventLoops];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop(i);
+            loops[i].start();
+        }
+        LOGGER.info("Server is opening on port {} with {} event loops", port, loops.length);
+
+        try {
+            int next = 0;
+            while (true) {
+                SocketChannel socket = channel.accept();
+                loops[next].register(socket);
+                next = (next + 1) % loops.length;
+            }
+        } finally {
+            for (EventLoop loop : loops) {
+                loop.shutdown();
+            }
+        }
+    }
 }
@@ -0,0 +1,169 @@
+package npserver;
+
+import npserver.utils.ServerMetrics;
+import npserver.utils.UdpConnManagement;
+import nputils.VoicePacket;
+import nputils.VoiceReport;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Voice relay on a non-blocking {@link DatagramChannel}.
+ * <p>
+ * One direct buffer is reused for every datagram; a voice packet costs a route lookup by source
+ * address and a send of exactly the received bytes, with no per-packet arrays, strings or locks.
+ */
+public class UdpRelay implements Runnable {
+    private static final Logger LOGGER = LogManager.getLogger(UdpRelay.class);
+    private static final long SELECT_TIMEOUT_MS = 500;
+
+    private static final LongAdder relayed = ServerMetrics.counter("udp.relayed");
+    private static final LongAdder dropped = ServerMetrics.counter("udp.dropped");
+    private static final LongAdder misrouted = ServerMetrics.counter("udp.misrouted");
+    private static final LongAdder filtered = ServerMetrics.counter("udp.filtered");
+    private static final LongAdder reports = ServerMetrics.counter("udp.reports");
+
+    private final DatagramChannel channel;
+    private final int index;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(VoicePacket.MAX_SIZE);
+    private final ByteBuffer registerAck;
+    private final ConferenceMixer mixer;
+
+    /**
+     * @param index worker number, the channel is bound to {@code portUdp + index}
+     * @param mixer receives the conference frames of participants that get a mixed stream
+     */
+    public UdpRelay(DatagramChannel channel, int index, ConferenceMixer mixer) {
+        this.channel = channel;
+        this.index = index;
+        this.mixer = mixer;
+        this.registerAck = ByteBuffer.allocateDirect(2);
+        this.registerAck.put((byte) 0).put((byte) UdpConnManagement.getWorkers()).flip();
+    }
+
+    @Override
+    public void run() {
+        try (Selector selector = Selector.open()) {
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ);
+            // the channel may be closed from another thread, so do not select forever
+            while (channel.isOpen()) {
+                if (selector.select(SELECT_TIMEOUT_MS) == 0) continue;
+                selector.selectedKeys().clear();
+                this.drain();
+            }
+        } catch (ClosedChannelException e) {
+            LOGGER.info("Udp relay {} closed", index);
+        } catch (IOException e) {
+            LOGGER.error("Udp relay {} error: ({})", index, e.toString());
+        }
+    }
+
+    private void drain() throws IOException {
+        InetSocketAddress from;
+        while ((from = (InetSocketAddress) channel.receive(buffer)) != null) {
+            buffer.flip();
+            this.relay(from);
+            buffer.clear();
+        }
+    }
+
+    private void relay(InetSocketAddress from) throws IOException {
+        if (buffer.remaining() == 0) return;
+        if (buffer.get(0) == VoicePacket.TYPE_REGISTER) {
+            String username = parseRegister(buffer);
+            if (username != null) {
+                UdpConnManagement.Route partner = UdpConnManagement.addMapping(username, from);
+                channel.send(registerAck.duplicate(), from);
+                if (partner != null) {
+                    channel.send(ByteBuffer.wrap(VoicePacket.candidate(partner.addr)), from);
+                    channel.send(ByteBuffer.wrap(VoicePacket.candidate(from)), partner.addr);
+                }
+            }
+            return;
+        }
+
+        UdpConnManagement.Route route = UdpConnManagement.getRoute(from);
+        InetSocketAddress partner = route == null ? null : route.getPartner();
+        if (route != null) {
+            route.touch(System.currentTimeMillis());
+            // a client talking to its partner directly, only keeping the route
+            if (buffer.get(0) == VoicePacket.TYPE_KEEPALIVE) return;
+            // recorded, then relayed like voice: the partner works out the round trip from it
+            if (buffer.get(0) == VoicePacket.TYPE_REPORT) {
+                this.record(route);
+                if (route.getRoom() != null) return;
+            }
+            // clients of an older version send everything to the first port, still relay them
+            if (route.getShard() != index) misrouted.increment();
+            UdpConnManagement.Room room = route.getRoom();
+            if (room != null) {
+                this.forward(route, room);
+                return;
+            }
+        }
+        // send() returns 0 when the socket buffer is full; voice is better late dropped than queued
+        if (partner == null || channel.send(buffer, partner) == 0) {
+            dropped.increment();
+        } else {
+            relayed.increment();
+        }
+    }
+
+    private void record(UdpConnManagement.Route route) {
+        byte[] packet = new byte[buffer.remaining()];
+        buffer.duplicate().get(packet);
+        VoiceReport report = VoiceReport.read(packet, packet.length);
+        if (report == null) return;
+        route.report(report);
+        reports.increment();
+        LOGGER.debug("{}: ({}) report {}, loss {}", route.addr, route.user, report, route.getLoss());
+    }
+
+    /**
+     * Sends a conference frame to every other participant, if its sender is among the loudest.
+     * Participants receiving a mixed stream get it from the mixer instead.
+     */
+    private void forward(UdpConnManagement.Route speaker, UdpConnManagement.Room room) throws IOException {
+        if (buffer.remaining() > VoicePacket.LEVEL_OFFSET) speaker.hear(buffer.get(VoicePacket.LEVEL_OFFSET) & 0x7F);
+        if (!room.isForwarded(speaker, System.currentTimeMillis())) {
+            filtered.increment();
+            return;
+        }
+        mixer.offer(speaker, room, buffer);
+        for (UdpConnManagement.Route member : room.getMembers()) {
+            if (member == speaker || member.getMixCodec() >= 0) continue;
+            buffer.rewind();
+            if (channel.send(buffer, member.addr) == 0) {
+                dropped.increment();
+            } else {
+                relayed.increment();
+            }
+        }
+    }
+
+    /**
+     * Register signal: {@code 0, name length, name bytes}, answered with {@code 0, number of workers}.
+     * @return the registering user, or null when the packet is malformed
+     */
+    static String parseRegister(ByteBuffer packet) {
+        if (packet.remaining() < 2) return null;
+        int len = packet.get(packet.position() + 1) & 0xFF;
+        if (len == 0 || packet.remaining() < 2 + len) return null;
+        byte[] name = new byte[len];
+        ByteBuffer view = packet.duplicate();
+        view.position(packet.position() + 2);
+        view.get(name);
+        return new String(name, StandardCharsets.UTF_8);
+    }
+}
@@ -2,59 +2,122 @@ package npserver;
 
 import npserver.utils.ConfigReader;
 import npserver.utils.UdpConnManagement;
-import nputils.Constants;
+import nputils.VoicePacket;
+import nputils.VoiceReport;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
 
 public class UdpServer {
     private static final Logger LOGGER = LogManager.getLogger(UdpServer.class);
     private int port;
+    private String transport;
+    private int workers;
     public DatagramSocket server;
     public UdpServer(ConfigReader config) {
         this.port = config.portUdp;
+        this.transport = config.udpTransport;
+        this.workers = ConfigReader.TRANSPORT_NIO.equals(transport) ? Math.max(1, config.udpWorkers) : 1;
+        UdpConnManagement.configure(this.workers, config.conferenceSpeakers);
+        UdpConnManagement.startSweeper(config.udpIdleTimeoutMs);
 }
 
     public void StartServer() throws IOException {
+        if (ConfigReader.TRANSPORT_NIO.equals(transport)) this.startNio();
+        else this.startBlocking();
+    }
+
+    /**
+     * Worker i relays on port + i, a call is pinned to one worker by {@link nputils.RelayShard}.
+     * The first worker runs on the calling thread; closing {@link #server} stops all of them.
+     */
+    private void startNio() throws IOException {
+        DatagramChannel[] channels = new DatagramChannel[workers];
+        ConferenceMixer mixer = new ConferenceMixer(channels);
+        try {
+            for (int i = 0; i < workers; i++) {
+                channels[i] = DatagramChannel.open();
+                channels[i].socket().bind(new InetSocketAddress(port + i));
+            }
+            server = channels[0].socket();
+            LOGGER.info("Udp server is opening on ports {}-{} in relay mode", port, port + workers - 1);
+
+            mixer.start();
+            for (int i = 1; i < workers; i++) {
+                new Thread(new UdpRelay(channels[i], i, mixer), "UdpRelay-" + i).start();
+            }
+            new UdpRelay(channels[0], 0, mixer).run();
+        } finally {
+            mixer.stop();
+            for (DatagramChannel channel : channels) {
+                if (channel != null) channel.close();
+            }
+        }
+    }
+
+    private void startBlocking() throws IOException {
         server = new DatagramSocket(port);
         LOGGER.info("Udp server is opening on port {}", port);
 
         while (true) {
-            byte[] recvData = new byte[Constants.BUFFER_SIZE];
+            byte[] recvData = new byte[VoicePacket.MAX_SIZE];
             DatagramPacket recvPacket = new DatagramPacket(recvData, recvData.length);
             server.receive(recvPacket);
 
-            String strAdr = recvPacket.getAddress().getHostAddress();
-            LOGGER.info("Server: Recv package from ({})", strAdr);
-            int port = recvPacket.getPort();
-            String ipAdr = UdpConnManagement.createAddr(strAdr, port);
+            InetSocketAddress from = (InetSocketAddress) recvPacket.getSocketAddress();
+            LOGGER.info("Server: Recv package from ({})", from);
 
-            boolean isRegisterSignal = recvPacket.getData()[0] == 0;
+            boolean isRegisterSignal = recvPacket.getData()[0] == VoicePacket.TYPE_REGISTER;
 
             if(isRegisterSignal){
-                LOGGER.info("{}: Server recv register signal: ({})", ipAdr, new String(recvPacket.getData()));
-                int len = recvPacket.getData()[1];
-                if(len > 0){
-                    byte[] newBuff = new byte[len];
-                    System.arraycopy(recvPacket.getData(), 2, newBuff, 0, len);
-                    String username = new String(newBuff);
-                    UdpConnManagement.addMapping(username, recvPacket.getAddress(), port);
+                LOGGER.info("{}: Server recv register signal: ({})", from, new String(recvPacket.getData(), 0, recvPacket.getLength()));
+                String username = UdpRelay.parseRegister(ByteBuffer.wrap(recvData, 0, recvPacket.getLength()));
+                if(username != null){
+                    UdpConnManagement.Route partner = UdpConnManagement.addMapping(username, from);
+                    server.send(new DatagramPacket(new byte[]{0, 1}, 2, from));
+                    if(partner != null){
+                        byte[] candidate = VoicePacket.candidate(partner.addr);
+                        server.send(new DatagramPacket(candidate, candidate.length, from));
+                        candidate = VoicePacket.candidate(from);
+                        server.send(new DatagramPacket(candidate, candidate.length, partner.addr));
+                    }
 //                    DatagramPacket sendPacket = new DatagramPacket(recvData, recvData.length, recvPacket.getAddress(), port);
 //                    server.send(sendPacket);
                 }
             } else {
-                String sender = UdpConnManagement.getUserByConn(ipAdr);
-                UdpConnManagement.IPInfo ipInfo = UdpConnManagement.getPartnerIpInfo(sender);
-                if(ipInfo != null){
-                    DatagramPacket sendPacket = new DatagramPacket(recvData, recvData.length, ipInfo.host, ipInfo.port);
+                UdpConnManagement.Route route = UdpConnManagement.getRoute(from);
+                InetSocketAddress partner = route == null ? null : route.getPartner();
+                UdpConnManagement.Room room = route == null ? null : route.getRoom();
+                long now = System.currentTimeMillis();
+                if(route != null) route.touch(now);
+                if(recvData[0] == VoicePacket.TYPE_KEEPALIVE) continue;
+                VoiceReport report = VoiceReport.read(recvData, recvPacket.getLength());
+                if(route != null && report != null){
+                    route.report(report);
+                    LOGGER.debug("{}: ({}) report {}, loss {}", from, route.user, report, route.getLoss());
+                    if(room != null) continue;
+                }
+                if(room != null){
+                    // no mixer here, participants that asked for a mixed stream get the frames too
+                    if(recvPacket.getLength() > VoicePacket.LEVEL_OFFSET) route.hear(VoicePacket.level(recvData));
+                    if(!room.isForwarded(route, now)) continue;
+                    for(UdpConnManagement.Route member : room.getMembers()){
+                        if(member == route) continue;
+                        server.send(new DatagramPacket(recvData, recvPacket.getLength(), member.addr));
+                    }
+                    LOGGER.info("{}: ({}) forward to conference ({})", from, route.user, room.name);
+                } else if(partner != null){
+                    DatagramPacket sendPacket = new DatagramPacket(recvData, recvPacket.getLength(), partner);
                     server.send(sendPacket);
-                    String partnerAdr = UdpConnManagement.createAddr(ipInfo.host.getHostAddress(), ipInfo.port);
-                    LOGGER.info("{}: ({}) forward to ({})", ipAdr, sender, partnerAdr);
+                    LOGGER.info("{}: ({}) forward to ({})", from, route.user, partner);
                 } else {
-                    LOGGER.error("{}: ({}) not found partner", ipAdr, sender);
+                    LOGGER.error("{}: ({}) not found partner", from, route == null ? null : route.user);
                 }
             }
         }
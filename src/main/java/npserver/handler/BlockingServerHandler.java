@@ -0,0 +1,77 @@
+package npserver.handler;
+
+import nputils.DataTransfer;
+import nputils.FrameCodec;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+
+/**
+ * ServerHandler with a thread reading frames from the socket and another writing the outbound queue.
+ */
+public class BlockingServerHandler extends ServerHandler {
+    private static final Logger LOGGER = LogManager.getLogger(BlockingServerHandler.class);
+
+    private final Socket socket;
+    private DataInputStream dis;
+    private DataOutputStream dos;
+
+    public BlockingServerHandler(Socket socket) {
+        super(socket.getRemoteSocketAddress().toString());
+        this.socket = socket;
+    }
+
+    public void start() {
+        new Thread(this::readLoop, this.idSocket + " Reader Thread").start();
+    }
+
+    private void readLoop() {
+        try {
+            this.dos = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            this.dis = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            FrameCodec.writeHello(this.dos);
+            FrameCodec.readHello(this.dis);
+            Thread writer = new Thread(this::writeLoop, this.idSocket + " Writer Thread");
+            writer.start();
+            while (true){
+                DataTransfer data = FrameCodec.read(this.dis, this.maxFrameSize());
+                if(!this.handle(data)) break;
+            }
+        } catch (IOException e) {
+            LOGGER.error("{}: error: ({})", this.idSocket, e.toString());
+        }
+        finally {
+            this.closeAll();
+        }
+    }
+
+    private void writeLoop() {
+        try {
+            ByteBuffer frame;
+            while ((frame = outbound.take()) != null) {
+                this.dos.write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+                if (outbound.isEmpty()) this.dos.flush();
+            }
+        } catch (IOException | InterruptedException e) {
+            LOGGER.error("{}: error: ({})", this.idSocket, e.toString());
+            this.closeAll();
+        }
+    }
+
+    @Override
+    protected void closeTransport() {
+        // the streams go with the socket
+        try {
+            socket.close();
+        } catch (IOException e) {
+            LOGGER.error("{}: error: ({})", this.idSocket, e.getMessage());
+        }
+    }
+}
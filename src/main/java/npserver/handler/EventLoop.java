@@ -0,0 +1,130 @@
+package npserver.handler;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Selector thread multiplexing many {@link NioServerHandler}s.
+ * Other threads never touch the selector directly: they queue registrations and flush requests
+ * and wake the loop up.
+ */
+public class EventLoop extends Thread {
+    private static final Logger LOGGER = LogManager.getLogger(EventLoop.class);
+
+    private final Selector selector;
+    private final Queue<NioServerHandler> registrations = new ConcurrentLinkedQueue<>();
+    private final Queue<NioServerHandler> flushes = new ConcurrentLinkedQueue<>();
+    private volatile boolean running = true;
+
+    public EventLoop(int index) throws IOException {
+        super("EventLoop-" + index);
+        this.selector = Selector.open();
+    }
+
+    public NioServerHandler register(SocketChannel channel) throws IOException {
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        NioServerHandler handler = new NioServerHandler(channel, this);
+        registrations.add(handler);
+        selector.wakeup();
+        return handler;
+    }
+
+    void flush(NioServerHandler handler) {
+        flushes.add(handler);
+        if (Thread.currentThread() != this) selector.wakeup();
+    }
+
+    public void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                selector.select();
+                processRegistrations();
+                processFlushes();
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    NioServerHandler handler = (NioServerHandler) key.attachment();
+                    try {
+                        if (key.isValid() && key.isReadable()) handler.onReadable();
+                        if (key.isValid() && key.isWritable()) handler.onWritable();
+                    } catch (IOException | CancelledKeyException e) {
+                        LOGGER.error("{}: error: ({})", handler.idSocket, e.toString());
+                        handler.closeAll();
+                    } catch (RuntimeException e) {
+                        // a bug hit by one connection must not end the loop serving all the others
+                        LOGGER.error("{}: failed to handle a frame", handler.idSocket, e);
+                        handler.closeAll();
+                    }
+                }
+                // frames queued while handling reads are written in the same turn
+                processFlushes();
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            LOGGER.error("{}: error: ({})", this.getName(), e.toString());
+        } finally {
+            closeAll();
+        }
+    }
+
+    private void processRegistrations() {
+        NioServerHandler handler;
+        while ((handler = registrations.poll()) != null) {
+            try {
+                handler.setKey(handler.getChannel().register(selector, SelectionKey.OP_READ, handler));
+                handler.onWritable();
+            } catch (IOException e) {
+                LOGGER.error("{}: error: ({})", handler.idSocket, e.toString());
+                handler.closeAll();
+            }
+        }
+    }
+
+    private void processFlushes() {
+        NioServerHandler handler;
+        while ((handler = flushes.poll()) != null) {
+            try {
+                handler.onWritable();
+            } catch (IOException | CancelledKeyException e) {
+                LOGGER.error("{}: error: ({})", handler.idSocket, e.toString());
+                handler.closeAll();
+            } catch (RuntimeException e) {
+                LOGGER.error("{}: failed to write", handler.idSocket, e);
+                handler.closeAll();
+            }
+        }
+    }
+
+    private void closeAll() {
+        for (SelectionKey key : selector.keys()) {
+            ((NioServerHandler) key.attachment()).closeAll();
+        }
+        NioServerHandler handler;
+        while ((handler = registrations.poll()) != null) {
+            handler.closeAll();
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            LOGGER.error("{}: error: ({})", this.getName(), e.toString());
+        }
+    }
+}
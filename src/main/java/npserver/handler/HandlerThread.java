@@ -3,17 +3,17 @@ package npserver.handler;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.Socket;
 
 public class HandlerThread extends Thread {
     private static final Logger LOGGER = LogManager.getLogger(HandlerThread.class);
     public String idSocket;
     protected Socket socket;
-    protected ObjectInputStream ois;
-    protected ObjectOutputStream oos;
+    protected DataInputStream dis;
+    protected DataOutputStream dos;
 
     public HandlerThread(Socket socket) {
         this.socket = socket;
@@ -26,23 +26,23 @@ public class HandlerThread extends Thread {
         }
     }
 
-    private void closeStream(ObjectInputStream objectInputStream) throws IOException {
-        if (objectInputStream != null) {
-            objectInputStream.close();
+    private void closeStream(DataInputStream dataInputStream) throws IOException {
+        if (dataInputStream != null) {
+            dataInputStream.close();
         }
     }
 
-    private void closeStream(ObjectOutputStream objectOutputStream) throws IOException {
-        if (objectOutputStream != null) {
-            objectOutputStream.close();
+    private void closeStream(DataOutputStream dataOutputStream) throws IOException {
+        if (dataOutputStream != null) {
+            dataOutputStream.close();
         }
     }
 
     public void closeAll() {
         try {
             this.closeSocket(this.socket);
-            this.closeStream(this.ois);
-            this.closeStream(this.oos);
+            this.closeStream(this.dis);
+            this.closeStream(this.dos);
         } catch (IOException e) {
             LOGGER.error("{}: error: ({})", this.idSocket, e.getMessage());
         }
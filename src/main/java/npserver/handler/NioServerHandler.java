@@ -0,0 +1,123 @@
+package npserver.handler;
+
+import nputils.DataTransfer;
+import nputils.FrameCodec;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * ServerHandler driven by an {@link EventLoop} instead of its own thread.
+ * Frames are decoded from the channel as they arrive and outgoing frames are queued
+ * until the loop can write them without blocking.
+ */
+public class NioServerHandler extends ServerHandler {
+    private static final Logger LOGGER = LogManager.getLogger(NioServerHandler.class);
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+
+    private final SocketChannel channel;
+    private final EventLoop loop;
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    private ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    private ByteBuffer writing;
+    private SelectionKey key;
+    private boolean helloReceived = false;
+
+    public NioServerHandler(SocketChannel channel, EventLoop loop) {
+        super(channel.socket().getRemoteSocketAddress().toString());
+        this.channel = channel;
+        this.loop = loop;
+        this.outbound.offer(ByteBuffer.wrap(FrameCodec.hello()), OverflowPolicy.DISCONNECT);
+    }
+
+    public SocketChannel getChannel() {
+        return channel;
+    }
+
+    void setKey(SelectionKey key) {
+        this.key = key;
+    }
+
+    @Override
+    protected void onFrameQueued() {
+        if (flushScheduled.compareAndSet(false, true)) loop.flush(this);
+    }
+
+    void onReadable() throws IOException {
+        int read = channel.read(readBuffer);
+        if (read < 0) {
+            this.closeAll();
+            return;
+        }
+
+        readBuffer.flip();
+        if (!helloReceived) {
+            if (readBuffer.remaining() < FrameCodec.HELLO_SIZE) {
+                readBuffer.compact();
+                return;
+            }
+            FrameCodec.checkHello(readBuffer.getShort(), readBuffer.getShort());
+            helloReceived = true;
+        }
+        while (readBuffer.remaining() >= FrameCodec.HEADER_SIZE) {
+            int length = readBuffer.getInt(readBuffer.position());
+            // checked before the buffer grows to it
+            FrameCodec.checkLength(length, this.maxFrameSize());
+            int frameSize = FrameCodec.HEADER_SIZE + length;
+            if (readBuffer.remaining() < frameSize) {
+                if (frameSize > readBuffer.capacity()) {
+                    ByteBuffer bigger = ByteBuffer.allocate(frameSize);
+                    bigger.put(readBuffer);
+                    readBuffer = bigger;
+                    return;
+                }
+                break;
+            }
+
+            int bodyStart = readBuffer.position() + FrameCodec.HEADER_SIZE;
+            DataTransfer data = FrameCodec.decode(readBuffer.array(), readBuffer.arrayOffset() + bodyStart, length);
+            readBuffer.position(bodyStart + length);
+            if (!this.handle(data)) {
+                this.closeAll();
+                return;
+            }
+        }
+
+        if (!readBuffer.hasRemaining() && readBuffer.capacity() > INITIAL_BUFFER_SIZE) {
+            readBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+        } else {
+            readBuffer.compact();
+        }
+    }
+
+    @Override
+    protected void closeTransport() {
+        // also cancels the key
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOGGER.error("{}: error: ({})", this.idSocket, e.getMessage());
+        }
+    }
+
+    void onWritable() throws IOException {
+        flushScheduled.set(false);
+        if (key == null || !key.isValid()) return;
+
+        // the frame being written is taken off the queue so overflow never drops half a frame
+        while (writing != null || (writing = outbound.poll()) != null) {
+            channel.write(writing);
+            if (writing.hasRemaining()) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                return;
+            }
+            writing = null;
+        }
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+    }
+}
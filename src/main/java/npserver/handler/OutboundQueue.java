@@ -0,0 +1,223 @@
+package npserver.handler;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded queue of encoded frames waiting to be written to one connection.
+ * Publishers only enqueue, so a slow client never blocks the thread fanning a message out.
+ */
+public class OutboundQueue {
+    private static class Entry {
+        final ByteBuffer frame;
+        final OverflowPolicy policy;
+
+        Entry(ByteBuffer frame, OverflowPolicy policy) {
+            this.frame = frame;
+            this.policy = policy;
+        }
+    }
+
+    private static class Waiter {
+        final int depth;
+        final Runnable task;
+
+        Waiter(int depth, Runnable task) {
+            this.depth = depth;
+            this.task = task;
+        }
+    }
+
+    private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+    private final List<Waiter> waiters = new ArrayList<>();
+    private final int capacity;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private boolean closed = false;
+
+    private long enqueued = 0;
+    private long dropped = 0;
+    private int maxDepth = 0;
+
+    public OutboundQueue(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return false when the queue is full and the policy asks to disconnect
+     */
+    public boolean offer(ByteBuffer frame, OverflowPolicy policy) {
+        lock.lock();
+        try {
+            if (closed) return true;
+            if (entries.size() >= capacity) {
+                if (policy == OverflowPolicy.DISCONNECT) return false;
+                dropped++;
+                if (!removeOldest(policy)) return true;
+            }
+            entries.addLast(new Entry(frame, policy));
+            enqueued++;
+            maxDepth = Math.max(maxDepth, entries.size());
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean removeOldest(OverflowPolicy policy) {
+        Iterator<Entry> it = entries.iterator();
+        while (it.hasNext()) {
+            if (it.next().policy == policy) {
+                it.remove();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public ByteBuffer poll() {
+        List<Runnable> drained;
+        Entry entry;
+        lock.lock();
+        try {
+            entry = entries.pollFirst();
+            drained = this.drained();
+        } finally {
+            lock.unlock();
+        }
+        run(drained);
+        return entry == null ? null : entry.frame;
+    }
+
+    /**
+     * Waits for the next frame.
+     * @return null once the queue is closed
+     */
+    public ByteBuffer take() throws InterruptedException {
+        List<Runnable> drained;
+        Entry entry;
+        lock.lock();
+        try {
+            while (entries.isEmpty() && !closed) {
+                notEmpty.await();
+            }
+            entry = entries.pollFirst();
+            drained = this.drained();
+        } finally {
+            lock.unlock();
+        }
+        run(drained);
+        return entry == null ? null : entry.frame;
+    }
+
+    public void close() {
+        List<Runnable> drained;
+        lock.lock();
+        try {
+            closed = true;
+            entries.clear();
+            notEmpty.signalAll();
+            drained = this.drained();
+        } finally {
+            lock.unlock();
+        }
+        run(drained);
+    }
+
+    /**
+     * Runs the task once at most {@code depth} frames are queued, or the queue is closed: at once
+     * when that is already the case, else on the thread taking the frame, which must not block.
+     */
+    public void whenDrained(int depth, Runnable task) {
+        lock.lock();
+        try {
+            if (!closed && entries.size() > depth) {
+                waiters.add(new Waiter(depth, task));
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        task.run();
+    }
+
+    /**
+     * Removes the waiters whose depth is reached, called with the lock held; they run after it is released.
+     */
+    private List<Runnable> drained() {
+        if (waiters.isEmpty()) return null;
+        List<Runnable> drained = null;
+        Iterator<Waiter> it = waiters.iterator();
+        while (it.hasNext()) {
+            Waiter waiter = it.next();
+            if (closed || entries.size() <= waiter.depth) {
+                if (drained == null) drained = new ArrayList<>();
+                drained.add(waiter.task);
+                it.remove();
+            }
+        }
+        return drained;
+    }
+
+    private static void run(List<Runnable> tasks) {
+        if (tasks == null) return;
+        for (Runnable task : tasks) {
+            task.run();
+        }
+    }
+
+    public boolean isEmpty() {
+        lock.lock();
+        try {
+            return entries.isEmpty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public int depth() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int maxDepth() {
+        lock.lock();
+        try {
+            return maxDepth;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long enqueued() {
+        lock.lock();
+        try {
+            return enqueued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long dropped() {
+        lock.lock();
+        try {
+            return dropped;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
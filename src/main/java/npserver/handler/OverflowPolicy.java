@@ -0,0 +1,11 @@
+package npserver.handler;
+
+/**
+ * What a connection's outbound queue does with a new frame once it is full.
+ */
+public enum OverflowPolicy {
+    /** Discard the oldest queued frame of the same policy, e.g. a presence update that is already stale. */
+    DROP_OLDEST,
+    /** The client cannot keep up with messages it must not lose: close the connection. */
+    DISCONNECT
+}
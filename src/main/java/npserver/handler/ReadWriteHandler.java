@@ -1,12 +1,11 @@
 package npserver.handler;
 
 import nputils.DataTransfer;
+import nputils.FrameCodec;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.*;
 import java.net.Socket;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -30,14 +29,16 @@ public class ReadWriteHandler extends HandlerThread{
     }
 
     public void initStream() throws IOException {
-        this.oos = new ObjectOutputStream(this.getSocket().getOutputStream());
-        this.ois = new ObjectInputStream(this.getSocket().getInputStream());
+        this.dos = new DataOutputStream(new BufferedOutputStream(this.getSocket().getOutputStream()));
+        this.dis = new DataInputStream(new BufferedInputStream(this.getSocket().getInputStream()));
+        FrameCodec.writeHello(this.dos);
+        FrameCodec.readHello(this.dis);
     }
 
     public void sendObj(DataTransfer data) {
         this.lock.lock();
         try {
-            this.oos.writeObject(data);
+            FrameCodec.write(this.dos, data);
         } catch (IOException e) {
             LOGGER.error("{}: error: ({})", this.idSocket, e.getMessage());
 //            e.printStackTrace();
@@ -50,7 +51,7 @@ public class ReadWriteHandler extends HandlerThread{
         DataTransfer data = null;
         this.lock.lock();
         try {
-            data = (DataTransfer)this.ois.readObject();
+            data = FrameCodec.read(this.dis);
         } catch (IOException e) {
             LOGGER.error("{}: error: ({})", this.idSocket, e.getMessage());
         } finally {
@@ -1,87 +1,311 @@
 package npserver.handler;
 
+import npserver.utils.BlobStore;
+import npserver.utils.ConfigReader;
+import npserver.utils.FileTransfers;
 import npserver.utils.HandlerManagement;
 import npserver.utils.Helper;
+import npserver.utils.ServerMetrics;
 import npserver.utils.UdpConnManagement;
 import nputils.Constants;
 import nputils.DataTransfer;
+import nputils.FileChunk;
+import nputils.FileInfo;
+import nputils.FileRange;
+import nputils.FrameCodec;
+import nputils.VoiceSignal;
+import nputils.codec.VoiceCodecs;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.io.File;
 import java.io.IOException;
-import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.List;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-public class ServerHandler extends ReadWriteHandler{
+/**
+ * Server side of a client connection, whatever carries its frames: commands are executed here and
+ * replies are queued on the {@link OutboundQueue} the transport drains, {@link BlockingServerHandler}
+ * with a reader and a writer thread, {@link NioServerHandler} from its {@link EventLoop}.
+ */
+public abstract class ServerHandler {
     private static final Logger LOGGER = LogManager.getLogger(ServerHandler.class);
 
-    public ServerHandler(Socket socket) {
-        super(socket);
+    private static volatile int queueCapacity = 1024;
+    private static volatile OverflowPolicy presencePolicy = OverflowPolicy.DROP_OLDEST;
+    private static volatile OverflowPolicy chatPolicy = OverflowPolicy.DISCONNECT;
+
+    public final String idSocket;
+    public String name;
+    protected final OutboundQueue outbound;
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    private final Set<String> subscribedTopics = ConcurrentHashMap.newKeySet();
+
+    protected ServerHandler(String idSocket) {
+        this.idSocket = idSocket;
+        this.outbound = new OutboundQueue(queueCapacity);
+        ServerMetrics.addConnection(this);
         LOGGER.info("{}: connected", this.idSocket);
     }
 
+    public static void configure(ConfigReader config){
+        queueCapacity = config.outboundQueueSize;
+        presencePolicy = config.presenceOverflow;
+        chatPolicy = config.chatOverflow;
+    }
+
+    public OutboundQueue getOutbound() {
+        return outbound;
+    }
+
+    public boolean isClosed() {
+        return closed.get();
+    }
+
+    /**
+     * Topics this connection joined, so disconnect cleanup only touches those.
+     */
+    public Set<String> getSubscribedTopics() {
+        return subscribedTopics;
+    }
+
     private boolean checkName(DataTransfer data){
         if(data.command.equals(Constants.INIT_COMMAND)) return true;
-        else return HandlerManagement.checkContainKey(data.name);
+        // the name in the frame is the client's word, the connection must have logged in itself
+        else return this.name != null && HandlerManagement.checkContainKey(data.name);
     }
 
-    @Override
-    public void run() {
+    public void sendObj(DataTransfer data) {
         try {
-            this.initStream();
-            while (true){
-                DataTransfer data = (DataTransfer) ois.readObject();
-                LOGGER.info("{}: Recv from ({}) with command ({}) with topic ({}) data ({})", this.idSocket, data.name, data.command, data.topic, data.data);
-                if(!this.checkName(data)) break;
-                if(data.command.equals(Constants.INIT_COMMAND)){
-                    if(data.name.isEmpty()) break;
-                    else{
-                        this.name = data.name;
-                        HandlerManagement.addNewHandler(data.name, this);
+            this.sendEncoded(FrameCodec.encode(data), data);
+        } catch (IOException e) {
+            LOGGER.error("{}: error: ({})", this.idSocket, e.getMessage());
+        }
+    }
+
+    /**
+     * Queues a frame already produced by {@link FrameCodec#encode} for {@code data}.
+     * The array is never written to, so one encoded frame can be shared by every recipient of a fan-out.
+     */
+    public void sendEncoded(byte[] frame, DataTransfer data) {
+        this.sendFrame(ByteBuffer.wrap(frame), this.policyFor(data));
+    }
+
+    /**
+     * Queues an encoded frame without waiting for the client to read it.
+     */
+    public void sendFrame(ByteBuffer frame, OverflowPolicy policy) {
+        if (closed.get()) return;
+        if (!outbound.offer(frame, policy)) {
+            LOGGER.error("{}: ({}) outbound queue is full ({} frames), disconnecting", this.idSocket, this.name, outbound.capacity());
+            this.closeAll();
+            return;
+        }
+        this.onFrameQueued();
+    }
+
+    /**
+     * Called after a frame was queued, from any thread.
+     */
+    protected void onFrameQueued() {
+    }
+
+    /**
+     * Closes the connection itself, once.
+     */
+    protected abstract void closeTransport();
+
+    /**
+     * @return the longest frame body taken from the client, small until it logged in
+     */
+    protected int maxFrameSize() {
+        return this.name == null ? Constants.MAX_LOGIN_FRAME_SIZE : Constants.MAX_CLIENT_FRAME_SIZE;
+    }
+
+    protected OverflowPolicy policyFor(DataTransfer data) {
+        // an ACK is never dropped, the client is waiting for it
+        boolean presence = Constants.ONLINE_TOPIC.equals(data.topic) && !Constants.ACK.equals(data.command);
+        return presence ? presencePolicy : chatPolicy;
+    }
+
+    /**
+     * Executes one command received from the client.
+     * @return false when the connection has to be closed
+     */
+    public boolean handle(DataTransfer data){
+        LOGGER.info("{}: Recv from ({}) with command ({}) with topic ({}) data ({})", this.idSocket, data.name, data.command, data.topic, data.data);
+        // the codec decodes any of them as null, only the login goes without a topic
+        if(data.command == null || data.name == null) return false;
+        if(data.topic == null && !data.command.equals(Constants.INIT_COMMAND)) return false;
+        if(!this.checkName(data)) return false;
+        Object result = null;
+        if(data.command.equals(Constants.INIT_COMMAND)){
+            if(data.name.isEmpty()) return false;
+            else{
+                this.name = data.name;
+                HandlerManagement.addNewHandler(data.name, this);
+            }
+        }
+        else if(data.command.equals(Constants.SUBSCRIBE)) HandlerManagement.subscribeTopic(this, data.topic);
+        else if (data.command.equals(Constants.UN_SUBSCRIBE)) HandlerManagement.unsubscribe(this, data.topic);
+        else if (data.command.equals(Constants.PUBLISH)){
+            // xxx/yyy
+            // arr[0] = xxx
+            String[] arr = data.topic.split(Constants.SPLITTER);
+            if(arr.length != 2) return true;
+            if(arr[0].equals(Constants.PREFIX_CHAT) || arr[0].equals(Constants.PREFIX_GROUP)){
+                if(data.data instanceof FileChunk){
+                    // written to disk off the event loop, the file thread relays and acknowledges it
+                    FileTransfers.execute(((FileChunk) data.data).getTransferId(), () -> this.relayChunk(data, arr));
+                    return true;
+                } else if(data.data instanceof FileInfo && ((FileInfo) data.data).isBlobReference()
+                        && BlobStore.get(((FileInfo) data.data).getBlobId()) == null){
+                    // recipients would have nothing to pull, the sender uploads the file instead
+                    result = false;
+                } else if(data.data instanceof FileInfo && ((FileInfo) data.data).isStreamed()
+                        && !FileTransfers.isTransferId(((FileInfo) data.data).getTransferId())){
+                    // its spool would be named after the id
+                    result = false;
+                } else {
+                    ServerHandler[] recipients = this.relay(data, arr);
+                    if(data.data instanceof FileInfo && ((FileInfo) data.data).isBlobReference()){
+                        result = true;
+                    } else if(data.data instanceof FileInfo && ((FileInfo) data.data).isStreamed()){
+                        // the spool is created ahead of the chunks queued after it
+                        FileInfo info = (FileInfo) data.data;
+                        FileTransfers.execute(info.getTransferId(), () -> FileTransfers.start(info, this.name, data.topic, recipients));
                     }
                 }
-                else if(data.command.equals(Constants.SUBSCRIBE)) HandlerManagement.subscribeTopic(this, data.topic);
-                else if (data.command.equals(Constants.UN_SUBSCRIBE)) HandlerManagement.unsubscribe(this, data.topic);
-                else if (data.command.equals(Constants.PUBLISH)){
-                    // xxx/yyy
-                    // arr[0] = xxx
-                    String[] arr = data.topic.split(Constants.SPLITTER);
-                    if(arr.length != 2) continue;
-                    if(arr[0].equals(Constants.PREFIX_CHAT)){
-                        Helper.sendMessPeerToPeerChat(this, data, arr[1]);
-                    } else if (arr[0].equals(Constants.PREFIX_GROUP)){
-                        Helper.sendMessToTopic(this, data);
-                    } else if (arr[0].equals(Constants.PREFIX_LOGIN)){
-                        DataTransfer res = new DataTransfer(null, this.name, "", !Helper.checkExistUser(this.name));
-                        this.sendObj(res);
-                    } else if (arr[0].equals(Constants.PREFIX_VOICE)){ // publish voice/B
-                        String action = (String)data.data;
-                        if(action.equals(Constants.VOICE_REQUEST) || action.equals(Constants.VOICE_REJECT)){
-                            Helper.sendMessPeerToPeerVoice(this, data, arr[1]);
-                        }else if (action.equals(Constants.VOICE_ACCEPT)){
-                            Helper.sendMessPeerToPeerVoice(this, data, arr[1]);
-                            UdpConnManagement.tcpAddPair(this.name, arr[1]);
-                        } else if (action.equals(Constants.VOICE_QUIT)){
-                            Helper.sendMessPeerToPeerVoice(this, data, arr[1]);
-                            UdpConnManagement.tcpRemovePair(this.name, arr[1]);
-                        }
-                    }
+            } else if (arr[0].equals(Constants.PREFIX_BLOB)){ // publish blob/<blob id>
+                if(Constants.BLOB_OFFER.equals(data.data)) result = BlobStore.offer(arr[1]);
+            } else if (arr[0].equals(Constants.PREFIX_FILE)){ // publish file/<transfer id>
+                if(data.data instanceof FileRange){
+                    FileTransfers.execute(arr[1], () -> this.ack(data, this.handleFileRange(arr[1], (FileRange) data.data)));
+                    return true;
+                }
+            } else if (arr[0].equals(Constants.PREFIX_LOGIN)){
+                boolean available = !Helper.checkExistUser(this.name);
+                // a session reads the answer from its ACK
+                if(data.requestId != 0) result = available;
+                else this.sendObj(new DataTransfer(null, this.name, "", available));
+            } else if (arr[0].equals(Constants.PREFIX_VOICE)){ // publish voice/B
+                // a bare string, or a signal negotiating the codec
+                String action = VoiceSignal.actionOf(data.data);
+                if(action == null) return true;
+                if(action.equals(Constants.VOICE_REQUEST) || action.equals(Constants.VOICE_REJECT)){
+                    Helper.sendMessPeerToPeerVoice(this, data, arr[1]);
+                }else if (action.equals(Constants.VOICE_ACCEPT)){
+                    Helper.sendMessPeerToPeerVoice(this, data, arr[1]);
+                    UdpConnManagement.tcpAddPair(this.name, arr[1]);
+                } else if (action.equals(Constants.VOICE_QUIT)){
+                    Helper.sendMessPeerToPeerVoice(this, data, arr[1]);
+                    UdpConnManagement.tcpRemovePair(this.name, arr[1]);
                 }
-                else {
-                    // UN_KNOWN_COMMAND
-                    data = new DataTransfer();
-                    data.command = Constants.UN_KNOWN_COMMAND;
-                    this.sendObj(data);
+            } else if (arr[0].equals(Constants.PREFIX_CONFERENCE)){ // publish conference/G
+                String action = VoiceSignal.actionOf(data.data);
+                if(Constants.CONFERENCE_JOIN.equals(action)){
+                    // only members of the group may listen to its conference
+                    String group = Constants.PREFIX_GROUP + Constants.SPLITTER + arr[1];
+                    if(HandlerManagement.getSubscribers(group, this.name).length == 0){
+                        result = false;
+                    } else {
+                        // codecs offered with the join ask for one mixed stream
+                        List<String> codecs = VoiceSignal.codecsOf(data.data);
+                        int mixCodec = codecs == null || codecs.isEmpty() ? -1 : VoiceCodecs.idOf(VoiceCodecs.choose(codecs));
+                        Helper.endVoiceCall(this, this.name);
+                        UdpConnManagement.joinRoom(arr[1], this.name, mixCodec);
+                        result = true;
+                    }
+                } else if(Constants.CONFERENCE_LEAVE.equals(action)){
+                    UdpConnManagement.leaveRoom(this.name);
                 }
             }
-        } catch (IOException | ClassNotFoundException e) {
-            LOGGER.error("{}: error: ({})", this.idSocket, e.toString());
         }
-        finally {
-            this.closeAll();
+        else {
+            // UN_KNOWN_COMMAND
+            DataTransfer res = new DataTransfer();
+            res.command = Constants.UN_KNOWN_COMMAND;
+            res.requestId = data.requestId;
+            this.sendObj(res);
+            return true;
+        }
+        this.ack(data, result);
+        return true;
+    }
+
+    private void ack(DataTransfer data, Object result){
+        if(data.requestId == 0) return;
+        DataTransfer ack = new DataTransfer(data.topic, this.name, Constants.ACK, result);
+        ack.requestId = data.requestId;
+        this.sendObj(ack);
+    }
+
+    private ServerHandler[] relay(DataTransfer data, String[] arr){
+        return arr[0].equals(Constants.PREFIX_CHAT)
+                ? Helper.sendMessPeerToPeerChat(this, data, arr[1])
+                : Helper.sendMessToTopic(this, data);
+    }
+
+    /**
+     * Stores a chunk and relays it, on the file thread of its transfer.
+     */
+    private void relayChunk(DataTransfer data, String[] arr){
+        // a chunk stored before the upload was cut is not relayed twice
+        if(!FileTransfers.append(this.name, (FileChunk) data.data)){
+            this.ack(data, true);
+            return;
+        }
+        ServerHandler[] recipients = this.relay(data, arr);
+        // the sender waits for the ACK of a chunk, holding it keeps the upload at the pace of the recipients
+        Helper.keepUp(this, recipients, () -> this.ack(data, true));
+    }
+
+    /**
+     * Runs on the file thread of the transfer.
+     * @return the answer carried by the ACK, null when the transfer is unknown to this user
+     */
+    private FileRange handleFileRange(String transferId, FileRange range){
+        FileTransfers.Transfer transfer = FileTransfers.get(transferId);
+        if(transfer == null) return this.handleBlobRange(transferId, range);
+        if(Constants.FILE_STATUS.equals(range.getAction())){
+            if(transfer.sender.equals(this.name)) return new FileRange(Constants.FILE_STATUS, transfer.getStored());
+        } else if(!transfer.isRecipient(this.name)){
+            return null;
+        } else if(Constants.FILE_RESUME.equals(range.getAction())){
+            FileTransfers.confirm(transfer, this.name, range.getOffset());
+            // queued ahead of the ACK, so the recipient has them when the answer arrives
+            for(FileChunk chunk : FileTransfers.read(transfer, range.getOffset())){
+                this.sendObj(new DataTransfer(transfer.topic, transfer.sender, Constants.PUBLISH, chunk));
+            }
+            LOGGER.info("{}: ({}) resume ({}) from ({})", this.idSocket, this.name, transfer.info, range.getOffset());
+            return new FileRange(Constants.FILE_RESUME, transfer.getStored());
+        } else if(Constants.FILE_CONFIRM.equals(range.getAction())){
+            FileTransfers.confirm(transfer, this.name, range.getOffset());
+            return range;
         }
+        return null;
     }
 
+    /**
+     * A file sent as a blob reference is pulled from the store, by anyone knowing its digest.
+     */
+    private FileRange handleBlobRange(String blobId, FileRange range){
+        File blob = BlobStore.get(blobId);
+        if(blob == null || !Constants.FILE_RESUME.equals(range.getAction())) return null;
+        try {
+            for(FileChunk chunk : BlobStore.read(blob, range.getOffset(), Constants.FILE_CHUNK_SIZE, FileTransfers.RESUME_BATCH)){
+                this.sendObj(new DataTransfer(Constants.PREFIX_FILE + Constants.SPLITTER + blobId, this.name, Constants.PUBLISH, chunk));
+            }
+        } catch (IOException e) {
+            LOGGER.error("{}: cannot read blob ({}): ({})", this.idSocket, blobId, e.toString());
+            return null;
+        }
+        return new FileRange(Constants.FILE_RESUME, blob.length());
+    }
 
     @Override
     public boolean equals(Object o) {
@@ -96,9 +320,11 @@ public class ServerHandler extends ReadWriteHandler{
         return Objects.hash(name, idSocket);
     }
 
-    @Override
     public void closeAll() {
-        super.closeAll();
+        if (!closed.compareAndSet(false, true)) return;
+        outbound.close();
+        this.closeTransport();
+        ServerMetrics.removeConnection(this);
         HandlerManagement.removeHandler(this.name, this);
         HandlerManagement.unsubscribeIfExist(this);
     }
@@ -0,0 +1,108 @@
+package npserver.utils;
+
+import nputils.FileChunk;
+import nputils.Utils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Contents of the files sent through the server, one file per {@link nputils.Digests#tree} digest,
+ * so a file forwarded to many chats is uploaded and stored once. A blob is only added from a
+ * completed transfer whose bytes match the digest it claimed.
+ */
+public class BlobStore {
+    private static final Logger LOGGER = LogManager.getLogger(BlobStore.class);
+
+    private static volatile File dir = new File(System.getProperty("java.io.tmpdir"), "np-blobs");
+
+    private static final LongAdder added = ServerMetrics.counter("blob.added");
+    private static final LongAdder hits = ServerMetrics.counter("blob.hits");
+
+    public synchronized static void configure(String directory){
+        if(directory != null && !directory.isEmpty()) dir = new File(directory);
+    }
+
+    /**
+     * @return the file of the blob, null for an id that is not a digest or not stored
+     */
+    public static File get(String id){
+        if(!Utils.isBlobId(id)) return null;
+        File file = new File(dir, id);
+        return file.isFile() ? file : null;
+    }
+
+    /**
+     * Answers a client offering the digest of a file it is about to send.
+     */
+    public static boolean offer(String id){
+        boolean stored = get(id) != null;
+        if(stored) hits.increment();
+        return stored;
+    }
+
+    /**
+     * Adds the content of a completed transfer to the store, on the file thread of the transfer.
+     * The blob is a second link to the spool, so the file is on disk once and the transfer goes on
+     * reading the same bytes; it is copied only when the store is on another file system.
+     */
+    public static void add(String id, File content){
+        if(!Utils.isBlobId(id) || get(id) != null) return;
+        try {
+            if(!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Cannot create " + dir);
+            File blob = new File(dir, id);
+            try {
+                Files.createLink(blob.toPath(), content.toPath());
+            } catch (FileAlreadyExistsException e) {
+                return;
+            } catch (IOException | UnsupportedOperationException e) {
+                copy(content, blob);
+            }
+            added.increment();
+            LOGGER.info("Stored blob ({}) of ({}) bytes", id, content.length());
+        } catch (IOException e) {
+            LOGGER.error("Cannot store blob ({}): ({})", id, e.toString());
+        }
+    }
+
+    private static void copy(File content, File blob) throws IOException {
+        // readers never see a partial blob
+        File tmp = File.createTempFile(blob.getName(), ".tmp", dir);
+        try {
+            Files.copy(content.toPath(), tmp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tmp.toPath(), blob.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp.toPath());
+        }
+    }
+
+    /**
+     * @return at most {@code maxChunks} chunks of the blob from {@code offset} on, tagged with the blob id
+     */
+    public static List<FileChunk> read(File blob, long offset, int chunkSize, int maxChunks) throws IOException {
+        List<FileChunk> chunks = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(blob.toPath(), StandardOpenOption.READ)) {
+            long end = Math.min(channel.size(), offset + (long) maxChunks * chunkSize);
+            for (long position = Math.max(0, offset); position < end; ) {
+                ByteBuffer data = ByteBuffer.allocate((int) Math.min(chunkSize, end - position));
+                while (data.hasRemaining()) {
+                    if (channel.read(data, position + data.position()) < 0) throw new IOException("Truncated " + blob);
+                }
+                chunks.add(new FileChunk(blob.getName(), position, data.array()));
+                position += data.capacity();
+            }
+        }
+        return chunks;
+    }
+}
@@ -1,13 +1,36 @@
 package npserver.utils;
 
+import npserver.handler.OverflowPolicy;
+
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Properties;
 
 public class ConfigReader {
+    public static final String TRANSPORT_BLOCKING = "blocking";
+    public static final String TRANSPORT_NIO = "nio";
+
     public int port = -1;
     public int portUdp = -1;
+    // download port of the blob store, -1 for none
+    public int portBlob = -1;
+    public String transport = TRANSPORT_BLOCKING;
+    public String udpTransport = TRANSPORT_BLOCKING;
+    public int udpWorkers = 1;
+    public int conferenceSpeakers = 3;
+    public long udpIdleTimeoutMs = 60000;
+    public int eventLoops = Runtime.getRuntime().availableProcessors();
+    public int outboundQueueSize = 1024;
+    public OverflowPolicy presenceOverflow = OverflowPolicy.DROP_OLDEST;
+    public OverflowPolicy chatOverflow = OverflowPolicy.DISCONNECT;
+    public long metricsIntervalMs = 60000;
+    public long presenceWindowMs = 100;
+    // empty for a directory under java.io.tmpdir
+    public String transferDir = "";
+    public long transferTtlMs = 24 * 60 * 60 * 1000L;
+    // empty for a directory under java.io.tmpdir
+    public String blobDir = "";
     public void getPropValues() throws IOException {
         InputStream inputStream = null;
         try {
@@ -26,6 +49,21 @@ public class ConfigReader {
             int portUdp = Integer.parseInt(prop.getProperty("portUdp"));
             this.port = port;
             this.portUdp = portUdp;
+            this.portBlob = Integer.parseInt(prop.getProperty("portBlob", String.valueOf(this.portBlob)));
+            this.transport = prop.getProperty("transport", this.transport);
+            this.udpTransport = prop.getProperty("udpTransport", this.udpTransport);
+            this.udpWorkers = Integer.parseInt(prop.getProperty("udpWorkers", String.valueOf(this.udpWorkers)));
+            this.conferenceSpeakers = Integer.parseInt(prop.getProperty("conferenceSpeakers", String.valueOf(this.conferenceSpeakers)));
+            this.udpIdleTimeoutMs = Long.parseLong(prop.getProperty("udpIdleTimeoutMs", String.valueOf(this.udpIdleTimeoutMs)));
+            this.eventLoops = Integer.parseInt(prop.getProperty("eventLoops", String.valueOf(this.eventLoops)));
+            this.outboundQueueSize = Integer.parseInt(prop.getProperty("outboundQueueSize", String.valueOf(this.outboundQueueSize)));
+            this.presenceOverflow = OverflowPolicy.valueOf(prop.getProperty("presenceOverflow", this.presenceOverflow.name()));
+            this.chatOverflow = OverflowPolicy.valueOf(prop.getProperty("chatOverflow", this.chatOverflow.name()));
+            this.metricsIntervalMs = Long.parseLong(prop.getProperty("metricsIntervalMs", String.valueOf(this.metricsIntervalMs)));
+            this.presenceWindowMs = Long.parseLong(prop.getProperty("presenceWindowMs", String.valueOf(this.presenceWindowMs)));
+            this.transferDir = prop.getProperty("transferDir", this.transferDir);
+            this.transferTtlMs = Long.parseLong(prop.getProperty("transferTtlMs", String.valueOf(this.transferTtlMs)));
+            this.blobDir = prop.getProperty("blobDir", this.blobDir);
         } catch (Exception e) {
             System.out.println("Exception: " + e);
         } finally {
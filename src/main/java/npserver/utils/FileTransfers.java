@@ -0,0 +1,284 @@
+package npserver.utils;
+
+import npserver.handler.ServerHandler;
+import nputils.FileChunk;
+import nputils.Digests;
+import nputils.FileInfo;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Streamed files in flight. Chunks are stored on disk as they are relayed, and the server keeps
+ * track of the bytes it stored and of the bytes each recipient confirmed, so that an upload
+ * resumes from the last stored chunk and a recipient that reconnects pulls only what it lacks.
+ * A transfer is deleted once every recipient has the whole file, or when left untouched too long;
+ * a completed file matching its blob id is kept in the {@link BlobStore} beforehand.
+ * <p>
+ * The disk work runs on {@link #IO_THREADS} file threads rather than the event loops, all the work
+ * of one transfer on the same thread so that its chunks stay in order.
+ */
+public class FileTransfers {
+    private static final Logger LOGGER = LogManager.getLogger(FileTransfers.class);
+
+    // chunks sent for one resume request, the recipient asks again for more
+    public static final int RESUME_BATCH = 16;
+    public static final int IO_THREADS = 4;
+    // the id names the spool file, so it must not name another path nor collide once cleaned
+    private static final Pattern TRANSFER_ID = Pattern.compile("[\\w-]{1,64}");
+
+    private static File dir = new File(System.getProperty("java.io.tmpdir"), "np-transfers");
+    private static long ttlMs = 24 * 60 * 60 * 1000L;
+    private static ScheduledExecutorService sweeper;
+
+    private static final Map<String, Transfer> transfers = new ConcurrentHashMap<>();
+    private static final ExecutorService[] io = new ExecutorService[IO_THREADS];
+
+    static {
+        ServerMetrics.gauge("file.transfers", transfers::size);
+        for (int i = 0; i < io.length; i++) {
+            String threadName = "File IO-" + i;
+            io[i] = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, threadName);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    public static class Transfer {
+        public final FileInfo info;
+        public final String sender;
+        // topic the metadata was delivered on, resumed chunks go out on it too
+        public final String topic;
+        private final File file;
+        private final FileChannel channel;
+        private final Digests.Tree tree = new Digests.Tree();
+        // recipient => bytes they confirmed
+        private final Map<String, Long> delivered = new ConcurrentHashMap<>();
+        private long stored = 0;
+        private volatile long lastActive = System.currentTimeMillis();
+
+        Transfer(FileInfo info, String sender, String topic, File file) throws IOException {
+            this.info = info;
+            this.sender = sender;
+            this.topic = topic;
+            this.file = file;
+            this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+
+        public synchronized long getStored() {
+            return stored;
+        }
+
+        public boolean isRecipient(String name) {
+            return delivered.containsKey(name);
+        }
+
+        synchronized boolean append(FileChunk chunk) throws IOException {
+            // nothing is written past the size, the completed spool may be linked as a blob
+            if (chunk.getOffset() != stored || !chunk.isIntact()
+                    || stored + chunk.getData().length > info.getSize()) return false;
+            ByteBuffer data = ByteBuffer.wrap(chunk.getData());
+            while (data.hasRemaining()) {
+                channel.write(data, stored + data.position());
+            }
+            tree.update(chunk.getData(), 0, chunk.getData().length);
+            stored += chunk.getData().length;
+            lastActive = System.currentTimeMillis();
+            return true;
+        }
+
+        /**
+         * @return true once the whole file is stored and matches the blob id it was sent with
+         */
+        synchronized boolean isBlob() {
+            if (stored < info.getSize() || info.getBlobId() == null) return false;
+            String digest = tree.digest();
+            if (!digest.equals(info.getBlobId())) {
+                LOGGER.error("Transfer ({}) has blob id ({})", info, digest);
+                return false;
+            }
+            return true;
+        }
+
+        List<FileChunk> read(long offset, int maxChunks) throws IOException {
+            long end = Math.min(this.getStored(), offset + (long) maxChunks * info.getChunkSize());
+            List<FileChunk> chunks = new ArrayList<>();
+            for (long position = offset; position < end; ) {
+                ByteBuffer data = ByteBuffer.allocate((int) Math.min(info.getChunkSize(), end - position));
+                while (data.hasRemaining()) {
+                    if (channel.read(data, position + data.position()) < 0) throw new IOException("Truncated " + file);
+                }
+                chunks.add(new FileChunk(info.getTransferId(), position, data.array()));
+                position += data.capacity();
+            }
+            lastActive = System.currentTimeMillis();
+            return chunks;
+        }
+
+        void confirm(String recipient, long offset) {
+            delivered.computeIfPresent(recipient, (name, old) -> Math.max(old, Math.min(offset, info.getSize())));
+            lastActive = System.currentTimeMillis();
+        }
+
+        /**
+         * @return true once the whole file is stored and every recipient has it
+         */
+        boolean isDelivered() {
+            if (this.getStored() < info.getSize()) return false;
+            for (long bytes : delivered.values()) {
+                if (bytes < info.getSize()) return false;
+            }
+            return true;
+        }
+
+        void delete() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOGGER.error("Cannot close ({}): ({})", file, e.toString());
+            }
+            if (!file.delete()) LOGGER.error("Cannot delete ({})", file);
+        }
+    }
+
+    public synchronized static void configure(String directory, long ttl){
+        if(directory != null && !directory.isEmpty()) dir = new File(directory);
+        ttlMs = ttl;
+        if(sweeper != null || ttl <= 0) return;
+        sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "File Transfer Sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long tick = Math.min(ttl, TimeUnit.MINUTES.toMillis(10));
+        sweeper.scheduleAtFixedRate(FileTransfers::sweep, tick, tick, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs disk work for a transfer or a blob after the work queued before for the same id.
+     */
+    public static void execute(String id, Runnable task){
+        io[(Objects.hashCode(id) & Integer.MAX_VALUE) % io.length].execute(task);
+    }
+
+    public static boolean isTransferId(String id){
+        return id != null && TRANSFER_ID.matcher(id).matches();
+    }
+
+    /**
+     * Called once the metadata of a streamed file was delivered.
+     * @return null when the transfer cannot be stored
+     * @param recipients the handlers the metadata went to, the sender excluded
+     */
+    public static Transfer start(FileInfo info, String sender, String topic, ServerHandler[] recipients){
+        Transfer transfer = transfers.get(info.getTransferId());
+        if(transfer != null) return transfer;
+        if(!isTransferId(info.getTransferId())){
+            LOGGER.error("({}) sent an invalid transfer id ({})", sender, info.getTransferId());
+            return null;
+        }
+        try {
+            if(!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Cannot create " + dir);
+            transfer = new Transfer(info, sender, topic, new File(dir, info.getTransferId() + ".part"));
+        } catch (IOException e) {
+            LOGGER.error("({}) cannot store ({}): ({})", sender, info, e.toString());
+            return null;
+        }
+        for(ServerHandler recipient : recipients){
+            if(recipient.name != null && !recipient.name.equals(sender)) transfer.delivered.put(recipient.name, 0L);
+        }
+        Transfer existing = transfers.putIfAbsent(info.getTransferId(), transfer);
+        if(existing != null){
+            transfer.delete();
+            return existing;
+        }
+        LOGGER.info("({}) start transfer ({}) to ({})", sender, info, transfer.delivered.keySet());
+        return transfer;
+    }
+
+    public static Transfer get(String transferId){
+        return transfers.get(transferId);
+    }
+
+    /**
+     * Stores the next chunk of an upload, a chunk of a transfer the server could not store is
+     * relayed as is.
+     * @return false for a chunk that must not be relayed: already stored, out of order, corrupt,
+     * or of a transfer started by someone else
+     */
+    public static boolean append(String sender, FileChunk chunk){
+        Transfer transfer = transfers.get(chunk.getTransferId());
+        if(transfer == null) return true;
+        if(!transfer.sender.equals(sender)) return false;
+        try {
+            boolean stored = transfer.append(chunk);
+            if(!stored){
+                LOGGER.info("({}) skip chunk ({}), stored ({})", sender, chunk, transfer.getStored());
+                return false;
+            }
+            if(transfer.getStored() >= transfer.info.getSize() && transfer.isBlob())
+                BlobStore.add(transfer.info.getBlobId(), transfer.file);
+            // nobody to deliver to
+            finishIfDelivered(transfer);
+            return true;
+        } catch (IOException e) {
+            LOGGER.error("({}) cannot store ({}): ({})", sender, chunk, e.toString());
+            return false;
+        }
+    }
+
+    /**
+     * @return the stored chunks from {@code offset} on, at most {@link #RESUME_BATCH}
+     */
+    public static List<FileChunk> read(Transfer transfer, long offset){
+        try {
+            return transfer.read(offset, RESUME_BATCH);
+        } catch (IOException e) {
+            LOGGER.error("Cannot read ({}): ({})", transfer.info, e.toString());
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * Records the bytes a recipient holds, deleting the transfer once all of them have it.
+     */
+    public static void confirm(Transfer transfer, String recipient, long offset){
+        transfer.confirm(recipient, offset);
+        finishIfDelivered(transfer);
+    }
+
+    private static void finishIfDelivered(Transfer transfer){
+        if(transfer.isDelivered() && transfers.remove(transfer.info.getTransferId(), transfer)){
+            transfer.delete();
+            LOGGER.info("Transfer ({}) delivered to ({})", transfer.info, transfer.delivered.keySet());
+        }
+    }
+
+    private static void sweep(){
+        long now = System.currentTimeMillis();
+        for(Transfer transfer : transfers.values()){
+            if(now - transfer.lastActive > ttlMs && transfers.remove(transfer.info.getTransferId(), transfer)){
+                transfer.delete();
+                LOGGER.info("Transfer ({}) expired, delivered ({})", transfer.info, transfer.delivered);
+            }
+        }
+    }
+}
@@ -2,96 +2,94 @@ package npserver.utils;
 
 import npserver.handler.ServerHandler;
 import nputils.Constants;
-import nputils.DataTransfer;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
 import java.util.Set;
 
 public class HandlerManagement {
     private static final Logger LOGGER = LogManager.getLogger(HandlerManagement.class);
 
-    private static Map<String, Set<ServerHandler>> socketDic = new HashMap<String, Set<ServerHandler>>();
-    private static Map<String, Set<ServerHandler>> topics = new HashMap<String, Set<ServerHandler>>();
+    private static final TopicRegistry<ServerHandler> socketDic = new TopicRegistry<>(ServerHandler[]::new);
+    private static final TopicRegistry<ServerHandler> topics = new TopicRegistry<>(ServerHandler[]::new);
+    // (topic, subscriber name) -> handlers, for 1:1 delivery without scanning the topic
+    private static final TopicRegistry<ServerHandler> routes = new TopicRegistry<>(ServerHandler[]::new);
+
+    static {
+        ServerMetrics.gauge("users", socketDic::size);
+        ServerMetrics.gauge("topics", topics::size);
+        ServerMetrics.gauge("routes", routes::size);
+    }
 
 
     public static void addNewHandler(String name, ServerHandler client){
-        if (socketDic.containsKey(name)) {
-            Set<ServerHandler> set = socketDic.get(name);
-            set.add(client);
-        }
-        else {
-            Set<ServerHandler> set = new HashSet<>();
-            set.add(client);
-            socketDic.put(name, set);
-            Helper.sendOnline();
-        }
-        LOGGER.info("{}: ({})'s handler was added, current number handlers of this user ({})", client.idSocket, client.name, socketDic.get(name).size());
+        int handlers = socketDic.add(name, client);
+        if (handlers == 1) Presence.update(name);
+        LOGGER.info("{}: ({})'s handler was added, current number handlers of this user ({})", client.idSocket, client.name, handlers);
     }
 
     public static void removeHandler(String name, ServerHandler client){
-        if (socketDic.containsKey(name)){
-            Set<ServerHandler> set = socketDic.get(name);
-            if(set.size() > 0) {
-                set.remove(client);
-                LOGGER.info("{}: ({})'s handler was removed", client.idSocket, client.name);
-            }
-            if(set.size() == 0) {
-                socketDic.remove(name, set);
-                Helper.sendOnline();
-                String partner = UdpConnManagement.tcpRemovePair(name);
-                if(partner != null){
-                    String topic = Constants.PREFIX_VOICE + Constants.SPLITTER + partner;
-                    DataTransfer dataTransfer = new DataTransfer(topic, name, Constants.PUBLISH, Constants.VOICE_QUIT);
-                    Helper.sendMessPeerToPeerVoice(client, dataTransfer, partner);
-                }
-            }
+        if (name == null) return;
+        int left = socketDic.remove(name, client);
+        if (left < 0) return;
+        LOGGER.info("{}: ({})'s handler was removed", client.idSocket, client.name);
+        if(left == 0) {
+            Presence.update(name);
+            Helper.endVoiceCall(client, name);
+            UdpConnManagement.leaveRoom(name);
         }
     }
 
     public static Set<String> getAllMembers(){
-        return socketDic.keySet();
+        return socketDic.keys();
     }
 
     public static boolean checkContainKey(String name){
-        return  socketDic.containsKey(name);
+        return name != null && socketDic.containsKey(name);
+    }
+
+    /**
+     * @return snapshot of the topic's subscribers, safe to iterate while others subscribe; must not be modified
+     */
+    public static ServerHandler[] getAllSubscribers(String topic){
+        return topics.get(topic);
+    }
+
+    private static String routeKey(String topic, String name){
+        return topic + '\0' + name;
     }
 
-    public static Set<ServerHandler> getAllSubscribers(String topic){
-        Set<ServerHandler> set = topics.get(topic);
-        if(set == null) set = new HashSet<>();
-        return set;
+    /**
+     * @return handlers of user {@code name} subscribed to {@code topic}; must not be modified
+     */
+    public static ServerHandler[] getSubscribers(String topic, String name){
+        return routes.get(routeKey(topic, name));
     }
 
     public static void subscribeTopic(ServerHandler client, String topic){
-        if(topics.containsKey(topic)){
-            topics.get(topic).add(client);
-        } else {
-            Set<ServerHandler> set = new HashSet<ServerHandler>();
-            set.add(client);
-            topics.put(topic, set);
+        topics.add(topic, client);
+        routes.add(routeKey(topic, client.name), client);
+        client.getSubscribedTopics().add(topic);
+        if(client.isClosed()){
+            // lost the race with closeAll, which may already have cleaned up
+            unsubscribe(client, topic);
+            return;
         }
-        if(topic.equals(Constants.ONLINE_TOPIC)) Helper.sendOnline();
+        if(topic.equals(Constants.ONLINE_TOPIC)) Presence.sendSnapshot(client);
         LOGGER.info("{}: ({}) subscribed ==> ({})", client.idSocket, client.name, topic);
     }
 
     public static void unsubscribe(ServerHandler client, String topic){
-        if(topics.containsKey(topic)){
-            topics.get(topic).remove(client);
+        client.getSubscribedTopics().remove(topic);
+        routes.remove(routeKey(topic, client.name), client);
+        if(topics.remove(topic, client) >= 0){
             LOGGER.info("{}: ({}) unsubscribed ==> ({})", client.idSocket, client.name, topic);
         }
     }
 
     public static void unsubscribeIfExist(ServerHandler client){
-        for(String topic: topics.keySet()){
-            Set<ServerHandler> set = topics.get(topic);
-            if(set.contains(client)){
-                set.remove(client);
-                LOGGER.info("{}: ({}) unsubscribed ==> ({})", client.idSocket, client.name, topic);
-            }
+        for(String topic: client.getSubscribedTopics()){
+            unsubscribe(client, topic);
         }
     }
 }
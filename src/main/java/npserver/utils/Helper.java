@@ -3,75 +3,132 @@ package npserver.utils;
 import npserver.handler.ServerHandler;
 import nputils.Constants;
 import nputils.DataTransfer;
+import nputils.FrameCodec;
+import nputils.PresenceUpdate;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.util.ArrayList;
-import java.util.Set;
+import java.io.IOException;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class Helper {
     private static final Logger LOGGER = LogManager.getLogger(Helper.class);
 
-    public static void sendMessPeerToPeerChat(ServerHandler from, DataTransfer data, String to){
+    // frames a recipient may have queued before the ACK of a file chunk is held back
+    public static final int FILE_BACKLOG = 16;
+
+    /**
+     * @return the handlers the message was queued for
+     */
+    public static ServerHandler[] sendMessPeerToPeerChat(ServerHandler from, DataTransfer data, String to){
         // A sub chat/B
         // B sub chat/A
         // from A publish topic: chat/B
         // get all subscribers topic: chat/A
-        // find a handler named B
+        // route to the handlers named B
         String topic = Constants.PREFIX_CHAT + Constants.SPLITTER + from.name; // chat/A
-        Set<ServerHandler> set = HandlerManagement.getAllSubscribers(topic);
-        for(ServerHandler handler: set){
-            if (handler.name.equals(to)) {
-                data.topic = topic;
-                handler.sendObj(data);
-                LOGGER.info("{}: Send data ({}) ==> ({}): ({})", from.idSocket, from.name, handler.name, data.data);
-            }
+        data.topic = topic;
+        ServerHandler[] recipients = HandlerManagement.getSubscribers(topic, to);
+        byte[] frame = encode(recipients, data);
+        if(frame == null) return recipients;
+        for(ServerHandler handler: recipients){
+            handler.sendEncoded(frame, data);
+            LOGGER.info("{}: Send data ({}) ==> ({}): ({})", from.idSocket, from.name, handler.name, data.data);
         }
+        return recipients;
     }
 
     public static void sendMessPeerToPeerVoice(ServerHandler from, DataTransfer data, String to){
         // A sub voice/A
         // B sub voice/B
         // from A publish topic: voice/B
-        // get all subscribers topic: voice/B
-        // find a handler named A
+        // route to the handlers named B subscribed to voice/B
         String topic = Constants.PREFIX_VOICE + Constants.SPLITTER + to; // voice/B
-        Set<ServerHandler> set = HandlerManagement.getAllSubscribers(topic);
-        for(ServerHandler handler: set){
-            if (handler.name.equals(to)) {
-                data.topic = topic;
-                handler.sendObj(data);
-                LOGGER.info("{}: Send voice ({}) ==> ({}): ({})", from.idSocket, from.name, handler.name, data.data);
-            }
+        data.topic = topic;
+        ServerHandler[] recipients = HandlerManagement.getSubscribers(topic, to);
+        byte[] frame = encode(recipients, data);
+        if(frame == null) return;
+        for(ServerHandler handler: recipients){
+            handler.sendEncoded(frame, data);
+            LOGGER.info("{}: Send voice ({}) ==> ({}): ({})", from.idSocket, from.name, handler.name, data.data);
+        }
+    }
+
+    /**
+     * Ends the 1:1 call of {@code name}, if any, telling the partner it quit.
+     */
+    public static void endVoiceCall(ServerHandler from, String name){
+        String partner = UdpConnManagement.tcpRemovePair(name);
+        if(partner != null){
+            String topic = Constants.PREFIX_VOICE + Constants.SPLITTER + partner;
+            DataTransfer dataTransfer = new DataTransfer(topic, name, Constants.PUBLISH, Constants.VOICE_QUIT);
+            Helper.sendMessPeerToPeerVoice(from, dataTransfer, partner);
         }
     }
 
-    public static void sendMessToTopic(ServerHandler from, DataTransfer data){
-        Set<ServerHandler> set = HandlerManagement.getAllSubscribers(data.topic);
-        for(ServerHandler handler: set){
-            if (handler.name.equals(from.name)) continue;
+    /**
+     * @return the subscribers of the topic, the sender included
+     */
+    public static ServerHandler[] sendMessToTopic(ServerHandler from, DataTransfer data){
+        ServerHandler[] subscribers = HandlerManagement.getAllSubscribers(data.topic);
+        // encode once, every subscriber queues the same frame
+        byte[] frame = encode(subscribers, data);
+        if(frame == null) return subscribers;
+        for(ServerHandler handler: subscribers){
+            if (Objects.equals(handler.name, from.name)) continue;
             else {
-                handler.sendObj(data);
+                handler.sendEncoded(frame, data);
                 LOGGER.info("{}: Send data from ({}) ==> group ({}) ({}): ({})", from.idSocket, from.name, data.topic, handler.name, data.data);
             }
         }
+        return subscribers;
     }
 
-    public static void sendOnline(){
-        Set<ServerHandler> set = HandlerManagement.getAllSubscribers(Constants.ONLINE_TOPIC);
-        ArrayList<String> members = new ArrayList<>();
-        for(String member: HandlerManagement.getAllMembers()){
-            members.add(member);
+    /**
+     * A file is streamed no faster than its slowest recipient reads: the ACK of a chunk is held until
+     * every recipient has at most {@link #FILE_BACKLOG} frames queued, and the sender waits for it
+     * before going past its window. The chunks queued on the server stay a few per recipient
+     * whatever the size of the file.
+     */
+    public static void keepUp(ServerHandler from, ServerHandler[] recipients, Runnable ack){
+        // one count per recipient, and one for this loop so the ACK is not sent before it ends
+        AtomicInteger pending = new AtomicInteger(recipients.length + 1);
+        Runnable drained = () -> {
+            if(pending.decrementAndGet() == 0) ack.run();
+        };
+        for(ServerHandler handler: recipients){
+            if(handler == from) drained.run();
+            else handler.getOutbound().whenDrained(FILE_BACKLOG, drained);
         }
-        DataTransfer data = new DataTransfer(Constants.ONLINE_TOPIC, "server", null, members);
-        for(ServerHandler handler: set){
-            handler.sendObj(data);
-            LOGGER.info("Server send online signal ==> ({}): ({}) online", handler.name, members.size());
+        drained.run();
+    }
+
+    public static void sendPresence(PresenceUpdate update){
+        ServerHandler[] subscribers = HandlerManagement.getAllSubscribers(Constants.ONLINE_TOPIC);
+        DataTransfer data = new DataTransfer(Constants.ONLINE_TOPIC, "server", null, update);
+        byte[] frame = encode(subscribers, data);
+        if(frame == null) return;
+        for(ServerHandler handler: subscribers){
+            handler.sendEncoded(frame, data);
+            LOGGER.info("Server send presence ==> ({}): ({})", handler.name, update);
+        }
+    }
+
+    /**
+     * @return the frame shared by all recipients, or null when there is no recipient to encode for
+     */
+    private static byte[] encode(ServerHandler[] recipients, DataTransfer data){
+        if(recipients.length == 0) return null;
+        try {
+            return FrameCodec.encode(data);
+        } catch (IOException e) {
+            LOGGER.error("Cannot encode data for topic ({}): ({})", data.topic, e.getMessage());
+            return null;
         }
     }
 
     public static boolean checkExistUser(String username){
-        Set<ServerHandler> set = HandlerManagement.getAllSubscribers(Constants.ONLINE_TOPIC);
-        return set.stream().anyMatch(h-> h.name.equals(username));
+        return HandlerManagement.getSubscribers(Constants.ONLINE_TOPIC, username).length > 0;
     }
 }
@@ -0,0 +1,106 @@
+package npserver.utils;
+
+import npserver.handler.ServerHandler;
+import nputils.Constants;
+import nputils.DataTransfer;
+import nputils.PresenceUpdate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Versioned view of the online users that ONLINE subscribers were told about.
+ * <p>
+ * Every change bumps the version and is sent as a delta; a full snapshot is only sent to a client
+ * that (re)subscribes. Versions are assigned and fanned out under one lock so every subscriber
+ * receives the deltas in version order.
+ * <p>
+ * Join and leave events are collected for {@code presenceWindowMs} and sent as one delta, so a
+ * login storm costs each subscriber one update per window instead of one per user.
+ */
+public class Presence {
+    private static final Object lock = new Object();
+    private static final Set<String> online = new HashSet<>();
+    private static final Set<String> pending = new LinkedHashSet<>();
+    private static long version = 0;
+    private static int pendingEvents = 0;
+    private static boolean flushScheduled = false;
+    private static volatile long windowMs = 0;
+    private static ScheduledExecutorService flusher;
+
+    public static void configure(long presenceWindowMs) {
+        windowMs = presenceWindowMs;
+    }
+
+    /**
+     * Queues a join or a leave of the user. When the window closes the user's state in
+     * HandlerManagement is compared with the committed view, so calling it after every add or remove
+     * of a handler keeps the view converging to the real state however those calls interleave.
+     */
+    public static void update(String name) {
+        ServerMetrics.counter("presence.events").increment();
+        synchronized (lock) {
+            pending.add(name);
+            pendingEvents++;
+            if (windowMs <= 0) {
+                flush();
+            } else if (!flushScheduled) {
+                flushScheduled = true;
+                flusher().schedule(Presence::flush, windowMs, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    static void flush() {
+        synchronized (lock) {
+            flushScheduled = false;
+            List<String> joined = new ArrayList<>();
+            List<String> left = new ArrayList<>();
+            for (String name : pending) {
+                if (HandlerManagement.checkContainKey(name)) {
+                    if (online.add(name)) joined.add(name);
+                } else if (online.remove(name)) {
+                    left.add(name);
+                }
+            }
+            pending.clear();
+
+            int events = pendingEvents;
+            pendingEvents = 0;
+            if (joined.isEmpty() && left.isEmpty()) {
+                // e.g. a reconnect inside the window
+                ServerMetrics.counter("presence.coalesced").add(events);
+                return;
+            }
+            ServerMetrics.counter("presence.coalesced").add(events - 1);
+            ServerMetrics.counter("presence.updates").increment();
+            version++;
+            Helper.sendPresence(new PresenceUpdate(version, false, joined, left));
+        }
+    }
+
+    public static void sendSnapshot(ServerHandler client) {
+        synchronized (lock) {
+            PresenceUpdate snapshot = new PresenceUpdate(version, true, new ArrayList<>(online), Collections.emptyList());
+            client.sendObj(new DataTransfer(Constants.ONLINE_TOPIC, "server", null, snapshot));
+        }
+    }
+
+    private static ScheduledExecutorService flusher() {
+        if (flusher == null) {
+            flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "Presence Flusher");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return flusher;
+    }
+}
@@ -0,0 +1,76 @@
+package npserver.utils;
+
+import npserver.handler.OutboundQueue;
+import npserver.handler.ServerHandler;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Process-wide counters and gauges, logged periodically by the reporter started from MainServer.
+ */
+public class ServerMetrics {
+    private static final Logger LOGGER = LogManager.getLogger(ServerMetrics.class);
+
+    private static final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private static final Map<String, Supplier<Object>> gauges = new ConcurrentHashMap<>();
+    private static final Map<String, ServerHandler> connections = new ConcurrentHashMap<>();
+    private static ScheduledExecutorService reporter;
+
+    public static LongAdder counter(String name){
+        return counters.computeIfAbsent(name, k -> new LongAdder());
+    }
+
+    public static void gauge(String name, Supplier<Object> supplier){
+        gauges.put(name, supplier);
+    }
+
+    public static void addConnection(ServerHandler handler){
+        connections.put(handler.idSocket, handler);
+    }
+
+    public static void removeConnection(ServerHandler handler){
+        connections.remove(handler.idSocket, handler);
+    }
+
+    public static Map<String, Object> snapshot(){
+        Map<String, Object> snapshot = new TreeMap<>();
+        for(Map.Entry<String, LongAdder> e: counters.entrySet()){
+            snapshot.put(e.getKey(), e.getValue().sum());
+        }
+        for(Map.Entry<String, Supplier<Object>> e: gauges.entrySet()){
+            snapshot.put(e.getKey(), e.getValue().get());
+        }
+        snapshot.put("connections", connections.size());
+        return snapshot;
+    }
+
+    public static synchronized void startReporter(long intervalMs){
+        if(reporter != null || intervalMs <= 0) return;
+        reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "Metrics Reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleAtFixedRate(ServerMetrics::report, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public static void report(){
+        LOGGER.info("Metrics: {}", snapshot());
+        for(ServerHandler handler: connections.values()){
+            OutboundQueue queue = handler.getOutbound();
+            if(queue.depth() > 0 || queue.dropped() > 0){
+                LOGGER.info("{}: ({}) outbound depth ({}) max ({}) enqueued ({}) dropped ({})", handler.idSocket,
+                        handler.name, queue.depth(), queue.maxDepth(), queue.enqueued(), queue.dropped());
+            }
+        }
+    }
+}
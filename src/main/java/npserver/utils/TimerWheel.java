@@ -0,0 +1,76 @@
+package npserver.utils;
+
+import java.util.ArrayDeque;
+import java.util.function.Consumer;
+
+/**
+ * Hashed timer wheel: an item is put in the slot of its deadline tick, and advancing the wheel only
+ * looks at the slots of the ticks that passed, so a sweep costs the number of items due (plus items
+ * waiting for a later round of the same slot), not the number of items scheduled.
+ */
+public class TimerWheel<T> {
+    private static final class Entry<T> {
+        final T item;
+        final long deadline;
+
+        Entry(T item, long deadline) {
+            this.item = item;
+            this.deadline = deadline;
+        }
+    }
+
+    private final long tickMs;
+    private final ArrayDeque<Entry<T>>[] slots;
+    private long currentTick;
+    private int size = 0;
+
+    @SuppressWarnings("unchecked")
+    public TimerWheel(long tickMs, int wheelSize, long nowMs) {
+        this.tickMs = tickMs;
+        this.slots = (ArrayDeque<Entry<T>>[]) new ArrayDeque<?>[wheelSize];
+        for (int i = 0; i < wheelSize; i++) {
+            slots[i] = new ArrayDeque<>();
+        }
+        this.currentTick = nowMs / tickMs;
+    }
+
+    public synchronized void schedule(T item, long deadlineMs) {
+        // first tick not before the deadline, and never behind the cursor or it would wait a whole round
+        long tick = Math.max((deadlineMs + tickMs - 1) / tickMs, currentTick + 1);
+        slots[(int) (tick % slots.length)].add(new Entry<>(item, deadlineMs));
+        size++;
+    }
+
+    /**
+     * Moves the wheel to {@code nowMs} and hands every item whose deadline passed to {@code expired}.
+     * The consumer runs outside the wheel's lock and may schedule items again.
+     */
+    public void advance(long nowMs, Consumer<T> expired) {
+        ArrayDeque<T> due = new ArrayDeque<>();
+        synchronized (this) {
+            long target = nowMs / tickMs;
+            // a wheel that fell behind more than one round only needs to visit every slot once
+            long from = Math.max(currentTick + 1, target - slots.length + 1);
+            for (long tick = from; tick <= target; tick++) {
+                ArrayDeque<Entry<T>> slot = slots[(int) (tick % slots.length)];
+                for (int n = slot.size(); n > 0; n--) {
+                    Entry<T> entry = slot.poll();
+                    if (entry.deadline <= nowMs) {
+                        due.add(entry.item);
+                        size--;
+                    } else {
+                        slot.add(entry);
+                    }
+                }
+            }
+            currentTick = Math.max(currentTick, target);
+        }
+        for (T item : due) {
+            expired.accept(item);
+        }
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+}
@@ -0,0 +1,88 @@
+package npserver.utils;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntFunction;
+
+/**
+ * Concurrent index from a key to an immutable snapshot array of members.
+ * <p>
+ * Writers copy the array inside {@link ConcurrentHashMap#compute}, so mutations of one key are
+ * serialized by that key's bin lock only. Readers get the current snapshot with a single lookup and
+ * can iterate it without locking or allocating while other threads subscribe.
+ */
+public class TopicRegistry<T> {
+    private final ConcurrentHashMap<String, T[]> entries = new ConcurrentHashMap<>();
+    private final IntFunction<T[]> arrayFactory;
+    private final T[] empty;
+
+    public TopicRegistry(IntFunction<T[]> arrayFactory) {
+        this.arrayFactory = arrayFactory;
+        this.empty = arrayFactory.apply(0);
+    }
+
+    /**
+     * @return the current members, never null; the array must not be modified
+     */
+    public T[] get(String key) {
+        T[] members = entries.get(key);
+        return members == null ? empty : members;
+    }
+
+    /**
+     * @return number of members of the key after adding
+     */
+    public int add(String key, T member) {
+        T[] members = entries.compute(key, (k, current) -> {
+            if (current == null) {
+                T[] created = arrayFactory.apply(1);
+                created[0] = member;
+                return created;
+            }
+            if (indexOf(current, member) >= 0) return current;
+            T[] copy = arrayFactory.apply(current.length + 1);
+            System.arraycopy(current, 0, copy, 0, current.length);
+            copy[current.length] = member;
+            return copy;
+        });
+        return members.length;
+    }
+
+    /**
+     * Removes the member, dropping the key once it has no members left.
+     * @return number of members left, or -1 if the member was not registered under the key
+     */
+    public int remove(String key, T member) {
+        int[] left = {-1};
+        entries.computeIfPresent(key, (k, current) -> {
+            int index = indexOf(current, member);
+            if (index < 0) return current;
+            left[0] = current.length - 1;
+            if (current.length == 1) return null;
+            T[] copy = arrayFactory.apply(current.length - 1);
+            System.arraycopy(current, 0, copy, 0, index);
+            System.arraycopy(current, index + 1, copy, index, current.length - index - 1);
+            return copy;
+        });
+        return left[0];
+    }
+
+    public boolean containsKey(String key) {
+        return entries.containsKey(key);
+    }
+
+    public Set<String> keys() {
+        return entries.keySet();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private static int indexOf(Object[] members, Object member) {
+        for (int i = 0; i < members.length; i++) {
+            if (members[i] == member) return i;
+        }
+        return -1;
+    }
+}
@@ -1,93 +1,428 @@
 package npserver.utils;
 
-import npserver.UdpServer;
-import npserver.handler.ServerHandler;
+import nputils.RelayShard;
+import nputils.VoicePacket;
+import nputils.VoiceReport;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.net.InetAddress;
-import java.net.UnknownHostException;
-import java.util.*;
-import java.util.concurrent.atomic.AtomicReference;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class UdpConnManagement {
     private static final Logger LOGGER = LogManager.getLogger(UdpConnManagement.class);
-    public static class IPInfo{
-        public InetAddress host;
-        public int port;
 
-        public IPInfo(InetAddress host, int port) {
-            this.host = host;
-            this.port = port;
+    /**
+     * Forwarding entry of one registered UDP address. The partner address is filled in when the
+     * user's call is accepted and cleared when it ends, so the relay resolves a packet with a
+     * single lookup by source address.
+     */
+    public static class Route {
+        public final String user;
+        public final InetSocketAddress addr;
+        private volatile InetSocketAddress partner;
+        private volatile int shard;
+        private volatile long lastSeen = System.currentTimeMillis();
+        private volatile Room room;
+        // codec of the mixed stream this user receives in a conference, -1 for forwarded streams
+        private volatile int mixCodec = -1;
+        // smoothed loudness, 0 silent to 127 loudest; written by the room's relay worker only
+        private volatile int loudness;
+        // latest receiver report of this user about the stream they get, and the loss since the one before
+        private volatile VoiceReport report;
+        private volatile double loss;
+
+        Route(String user, InetSocketAddress addr) {
+            this.user = user;
+            this.addr = addr;
+        }
+
+        /**
+         * Called by the relay for every frame from this address in a conference.
+         *
+         * @param level frame level from the packet header, 0 loudest to 127 silent
+         */
+        public void hear(int level) {
+            loudness += (VoicePacket.SILENT - level - loudness) / 4;
+        }
+
+        /**
+         * Called by the relay for every receiver report from this address.
+         */
+        public void report(VoiceReport report) {
+            loss = report.lossSince(this.report);
+            this.report = report;
+        }
+
+        /**
+         * @return latest receiver report of this user, null before the first one
+         */
+        public VoiceReport getReport() {
+            return report;
+        }
+
+        /**
+         * @return fraction of the packets lost between the last two reports
+         */
+        public double getLoss() {
+            return loss;
+        }
+
+        /**
+         * @return conference of this user, null when not in one
+         */
+        public Room getRoom() {
+            return room;
+        }
+
+        /**
+         * @return codec id of the mixed conference stream sent to this user, -1 when frames are forwarded
+         */
+        public int getMixCodec() {
+            return mixCodec;
+        }
+
+        /**
+         * Called by the relay for every packet from this address.
+         */
+        public void touch(long nowMs) {
+            lastSeen = nowMs;
+        }
+
+        public long getLastSeen() {
+            return lastSeen;
+        }
+
+        /**
+         * @return address to forward this user's packets to, null when not in a call
+         */
+        public InetSocketAddress getPartner() {
+            return partner;
+        }
+
+        /**
+         * @return relay worker the call's packets are expected on
+         */
+        public int getShard() {
+            return shard;
+        }
+    }
+
+    /**
+     * Participants of a conference. The relay forwards a frame to every other participant, but
+     * only while its sender is among the {@code conferenceSpeakers} loudest, so a large room costs
+     * about as much to relay as a small one and nobody receives more than that many streams.
+     */
+    public static class Room {
+        private static final long RANK_INTERVAL_MS = 100;
+
+        public final String name;
+        private final int shard;
+        // user -> codec of their mixed stream, -1 when forwarded; written under the class lock
+        private final Map<String, Integer> users = new LinkedHashMap<>();
+        private volatile Route[] members = new Route[0];
+        private volatile Route[] mixed = new Route[0];
+        private volatile Route[] speakers = new Route[0];
+        private volatile long rankedAt = 0;
+
+        Room(String name) {
+            this.name = name;
+            this.shard = RelayShard.ofRoom(name, workers);
+        }
+
+        /**
+         * @return participants with a registered UDP address; must not be modified
+         */
+        public Route[] getMembers() {
+            return members;
+        }
+
+        /**
+         * @return participants that receive one mixed stream instead of the forwarded frames; must not be modified
+         */
+        public Route[] getMixed() {
+            return mixed;
+        }
+
+        public int getShard() {
+            return shard;
+        }
+
+        /**
+         * @return whether frames of {@code route} are forwarded now
+         */
+        public boolean isForwarded(Route route, long nowMs) {
+            if (nowMs - rankedAt >= RANK_INTERVAL_MS) this.rank(nowMs);
+            for (Route speaker : speakers) {
+                if (speaker == route) return true;
+            }
+            return false;
+        }
+
+        private synchronized void rank(long nowMs) {
+            if (nowMs - rankedAt < RANK_INTERVAL_MS) return;
+            Route[] current = members;
+            // loudness changes while sorting, so sort a copy of it with the member index
+            long[] keys = new long[current.length];
+            for (int i = 0; i < current.length; i++) {
+                keys[i] = ((long) current[i].loudness << 32) | i;
+            }
+            Arrays.sort(keys);
+            int count = Math.min(current.length, UdpConnManagement.speakers);
+            Route[] loudest = new Route[count];
+            for (int i = 0; i < count; i++) {
+                loudest[i] = current[(int) keys[keys.length - 1 - i]];
+            }
+            speakers = loudest;
+            rankedAt = nowMs;
+        }
+
+        private void rebuild() {
+            List<Route> list = new ArrayList<>(users.size());
+            List<Route> mixedList = new ArrayList<>();
+            for (Map.Entry<String, Integer> user : users.entrySet()) {
+                Route route = userRoutes.get(user.getKey());
+                if (route == null) continue;
+                route.mixCodec = user.getValue();
+                list.add(route);
+                if (route.mixCodec >= 0) mixedList.add(route);
+            }
+            members = list.toArray(new Route[0]);
+            mixed = mixedList.toArray(new Route[0]);
+            rankedAt = 0;
         }
     }
 
-    private static AtomicReference<Map<String, String>> pairsRef = new AtomicReference<>(new HashMap<>());
-    private static AtomicReference<Map<String, String>> userUdpConn = new AtomicReference<>(new HashMap<>());
+    // read by the relay without locking, written under the class lock
+    private static final Map<InetSocketAddress, Route> routes = new ConcurrentHashMap<>();
+    private static final Map<String, Route> userRoutes = new HashMap<>();
+    private static final Map<String, String> pairs = new HashMap<>();
+    private static final Map<String, Room> rooms = new HashMap<>();
+    private static volatile Room[] roomList = new Room[0];
+    private static final Map<String, Room> userRooms = new HashMap<>();
+    private static volatile int workers = 1;
+    private static volatile int speakers = 3;
+
+    private static final long SWEEP_TICK_MS = 1000;
+    private static final TimerWheel<Route> expiry = new TimerWheel<>(SWEEP_TICK_MS, 512, System.currentTimeMillis());
+    private static volatile long idleTimeoutMs = 0;
+    private static ScheduledExecutorService sweeper;
+
+    static {
+        ServerMetrics.gauge("udp.routes", routes::size);
+        ServerMetrics.gauge("udp.pairs", UdpConnManagement::pairCount);
+        ServerMetrics.gauge("udp.rooms", UdpConnManagement::roomCount);
+        ServerMetrics.gauge("udp.calls", UdpConnManagement::callQuality);
+    }
 
-    private static AtomicReference<Map<String, IPInfo>> userAddr = new AtomicReference<>(new HashMap<>());
+    private synchronized static Object pairCount(){
+        return pairs.size() / 2;
+    }
 
-    public static String createAddr(String host, int port){
-        return String.format("/%s:%d", host, port);
+    private synchronized static Object roomCount(){
+        return rooms.size();
     }
 
+    /**
+     * @return quality of every call direction that was reported on, keyed {@code "listener <- speaker"}
+     */
+    public synchronized static Map<String, String> callQuality(){
+        Map<String, String> quality = new TreeMap<>();
+        for(Route route : userRoutes.values()){
+            VoiceReport report = route.report;
+            String partner = pairs.get(route.user);
+            if(report == null || partner == null) continue;
+            quality.put(route.user + " <- " + partner, String.format(Locale.ROOT, "loss %.1f%% jitter %d ms rtt %s",
+                    route.loss * 100, report.jitterMs,
+                    report.rttMs == VoiceReport.UNKNOWN ? "?" : report.rttMs + " ms"));
+        }
+        return quality;
+    }
 
-    public synchronized static String getUserByConn(String addr) {
-        return userUdpConn.get().get(addr);
+    /**
+     * Starts evicting addresses that sent nothing for {@code idleMs}, ending their calls; 0 keeps them forever.
+     */
+    public synchronized static void startSweeper(long idleMs){
+        idleTimeoutMs = idleMs;
+        if(sweeper != null || idleMs <= 0) return;
+        sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "Udp Sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sweeper.scheduleAtFixedRate(() -> expiry.advance(System.currentTimeMillis(), UdpConnManagement::expire),
+                SWEEP_TICK_MS, SWEEP_TICK_MS, TimeUnit.MILLISECONDS);
     }
 
-    public synchronized static void addMapping(String username, InetAddress host, int port){
-        String strAdd = createAddr(host.getHostAddress(), port);
-        IPInfo ipInfo = new IPInfo(host, port);
+    private synchronized static void expire(Route route){
+        // replaced by a newer registration, that one has its own timer
+        if(userRoutes.get(route.user) != route) return;
 
-        for (Map.Entry<String, String> e : userUdpConn.get().entrySet()) {
-            if (e.getValue().equals(username)) {
-                userUdpConn.get().remove(e.getKey());
-                break;
-            }
+        long idle = System.currentTimeMillis() - route.lastSeen;
+        if(idle < idleTimeoutMs){
+            expiry.schedule(route, route.lastSeen + idleTimeoutMs);
+            return;
         }
-        LOGGER.info("{}: map ==> ({})", strAdd, username);
-        userUdpConn.get().put(strAdd, username);
-        userAddr.get().put(username, ipInfo);
+        String partner = tcpRemovePair(route.user);
+        leaveRoom(route.user);
+        routes.remove(route.addr, route);
+        userRoutes.remove(route.user);
+        ServerMetrics.counter("udp.evicted").increment();
+        LOGGER.info("{}: ({}) idle for ({}) ms, evicted, call with ({}) ended", route.addr, route.user, idle, partner);
+    }
 
-//        userUdpConn.get().put(strAdd, username);
+    /**
+     * @param conferenceSpeakers loudest participants of a room that are forwarded
+     */
+    public static void configure(int udpWorkers, int conferenceSpeakers){
+        workers = Math.max(1, udpWorkers);
+        speakers = Math.max(1, conferenceSpeakers);
+    }
 
-//        if(userUdpConn.get().get(strAdd) == null && userAddr.get().get(username) == null ){
+    public static int getWorkers(){
+        return workers;
+    }
 
-//        }
+    public static Route getRoute(InetSocketAddress addr) {
+        return routes.get(addr);
     }
 
-    public synchronized static IPInfo getPartnerIpInfo(String sender){
-        String partner = pairsRef.get().get(sender);
-        if(partner == null) {
-            LOGGER.error("{}: Pair not found", sender);
-            return null;
+    /**
+     * @return route of the user's call partner when both are now registered, so the relay can
+     * send each of them the other's address as a direct path candidate; null otherwise
+     */
+    public synchronized static Route addMapping(String username, InetSocketAddress addr){
+        Route old = userRoutes.get(username);
+        if(old != null) routes.remove(old.addr, old);
+
+        Route route = new Route(username, addr);
+        Route partnerRoute = null;
+        String partner = pairs.get(username);
+        if(partner != null){
+            route.shard = RelayShard.of(username, partner, workers);
+            partnerRoute = userRoutes.get(partner);
+            if(partnerRoute != null){
+                route.partner = partnerRoute.addr;
+                partnerRoute.partner = addr;
+            }
         }
-        else {
-            IPInfo info = userAddr.get().get(partner);
-            if(info == null) LOGGER.error("{}: Partner IPInfo not found", sender);
-            return info;
+        Room room = userRooms.get(username);
+        if(room != null){
+            route.room = room;
+            route.shard = room.shard;
         }
+        routes.put(addr, route);
+        userRoutes.put(username, route);
+        if(room != null) room.rebuild();
+        if(idleTimeoutMs > 0) expiry.schedule(route, route.lastSeen + idleTimeoutMs);
+        LOGGER.info("{}: map ==> ({})", addr, username);
+        return room == null ? partnerRoute : null;
+    }
+
+    private static void link(String user, String partner){
+        Route route = userRoutes.get(user);
+        if(route == null) {
+            LOGGER.error("{}: UDP address not registered", user);
+            return;
+        }
+        Route partnerRoute = partner == null ? null : userRoutes.get(partner);
+        route.shard = partner == null ? 0 : RelayShard.of(user, partner, workers);
+        route.partner = partnerRoute == null ? null : partnerRoute.addr;
     }
 
     public synchronized static void tcpRemovePair(String user1, String user2){
-        pairsRef.get().remove(user1);
-        pairsRef.get().remove(user2);
+        pairs.remove(user1);
+        pairs.remove(user2);
+        link(user1, null);
+        link(user2, null);
     }
 
     public synchronized static String tcpRemovePair(String user){
-        if(pairsRef.get().get(user) != null){
-            String user2 = pairsRef.get().get(user);
-            pairsRef.get().remove(user);
-            pairsRef.get().remove(user2);
-            return user2;
+        String user2 = pairs.remove(user);
+        if(user2 != null){
+            pairs.remove(user2);
+            link(user, null);
+            link(user2, null);
         }
-        return null;
+        return user2;
     }
 
-
     public synchronized static void tcpAddPair(String user1, String user2){
-        pairsRef.get().put(user1, user2);
-        pairsRef.get().put(user2, user1);
+        leaveRoom(user1);
+        leaveRoom(user2);
+        pairs.put(user1, user2);
+        pairs.put(user2, user1);
+        link(user1, user2);
+        link(user2, user1);
+    }
+
+    /**
+     * @return every conference; must not be modified
+     */
+    public static Room[] getRooms(){
+        return roomList;
+    }
+
+    public static List<String> joinRoom(String roomName, String user){
+        return joinRoom(roomName, user, -1);
+    }
+
+    /**
+     * Puts {@code user} in the conference {@code roomName}, leaving any other room.
+     * @param mixCodec codec id of the mixed stream to send the user, -1 to forward the speakers' frames
+     * @return the room's participants, the new one included
+     */
+    public synchronized static List<String> joinRoom(String roomName, String user, int mixCodec){
+        leaveRoom(user);
+        Room room = rooms.get(roomName);
+        if(room == null){
+            room = new Room(roomName);
+            rooms.put(roomName, room);
+            roomList = rooms.values().toArray(new Room[0]);
+        }
+        room.users.put(user, mixCodec);
+        userRooms.put(user, room);
+        Route route = userRoutes.get(user);
+        if(route != null){
+            route.room = room;
+            route.shard = room.shard;
+        }
+        room.rebuild();
+        LOGGER.info("{}: joined conference ({}), ({}) participants", user, roomName, room.users.size());
+        return new ArrayList<>(room.users.keySet());
+    }
+
+    /**
+     * @return the room {@code user} left, null when not in one
+     */
+    public synchronized static String leaveRoom(String user){
+        Room room = userRooms.remove(user);
+        if(room == null) return null;
+        room.users.remove(user);
+        Route route = userRoutes.get(user);
+        if(route != null){
+            route.room = null;
+            route.shard = 0;
+            route.mixCodec = -1;
+        }
+        if(room.users.isEmpty()){
+            rooms.remove(room.name);
+            roomList = rooms.values().toArray(new Room[0]);
+        } else {
+            room.rebuild();
+        }
+        LOGGER.info("{}: left conference ({})", user, room.name);
+        return room.name;
     }
 }
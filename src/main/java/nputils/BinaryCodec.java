@@ -0,0 +1,396 @@
+package nputils;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compact binary encoding of a {@link DataTransfer} body.
+ * <pre>
+ * opcode:u8 [command:string if OP_OTHER] datetime:i64 requestId:varint topic:string name:string payload
+ * string  = varint(length + 1) utf8-bytes, length 0 encodes null
+ * payload = tag:u8 value
+ * </pre>
+ * Every payload type has its own tag, anything else is refused: nothing read from the network goes
+ * through Java deserialization.
+ */
+public final class BinaryCodec {
+    static final int OP_NULL = 0;
+    static final int OP_INIT = 1;
+    static final int OP_SUBSCRIBE = 2;
+    static final int OP_UN_SUBSCRIBE = 3;
+    static final int OP_PUBLISH = 4;
+    static final int OP_UN_KNOWN = 5;
+    static final int OP_ACK = 6;
+    static final int OP_OTHER = 0xFF;
+
+    static final int TAG_NULL = 0;
+    static final int TAG_STRING = 1;
+    static final int TAG_BOOLEAN = 2;
+    static final int TAG_EMOJI = 3;
+    static final int TAG_FILE_INFO = 4;
+    static final int TAG_LIST = 5;
+    static final int TAG_PRESENCE = 6;
+    static final int TAG_VOICE_SIGNAL = 7;
+    static final int TAG_FILE_STREAM = 8;
+    static final int TAG_FILE_CHUNK = 9;
+    static final int TAG_FILE_RANGE = 10;
+
+    private static final Emoji[] EMOJIS = Emoji.values();
+
+    private BinaryCodec() {
+    }
+
+    /**
+     * Encodes the body leaving {@code headerRoom} zero bytes in front of it for the frame header.
+     */
+    public static byte[] encode(DataTransfer data, int headerRoom) throws IOException {
+        Writer out = new Writer(headerRoom + 64 + estimatePayload(data.data));
+        out.position = headerRoom;
+        writeCommand(out, data.command);
+        out.writeLong(data.datetime);
+        out.writeVarLong(data.requestId);
+        out.writeString(data.topic);
+        out.writeString(data.name);
+        writePayload(out, data.data);
+        return out.toByteArray();
+    }
+
+    public static DataTransfer decode(byte[] buf, int offset, int length) throws IOException {
+        Reader in = new Reader(buf, offset, length);
+        DataTransfer data = new DataTransfer();
+        data.command = readCommand(in);
+        data.datetime = in.readLong();
+        data.requestId = in.readVarLong();
+        data.topic = in.readString();
+        data.name = in.readString();
+        data.data = readPayload(in);
+        if (in.position != in.limit)
+            throw new IOException("Malformed frame: " + (in.limit - in.position) + " trailing bytes");
+        return data;
+    }
+
+    private static void writeCommand(Writer out, String command) {
+        if (command == null) out.writeByte(OP_NULL);
+        else if (command.equals(Constants.INIT_COMMAND)) out.writeByte(OP_INIT);
+        else if (command.equals(Constants.SUBSCRIBE)) out.writeByte(OP_SUBSCRIBE);
+        else if (command.equals(Constants.UN_SUBSCRIBE)) out.writeByte(OP_UN_SUBSCRIBE);
+        else if (command.equals(Constants.PUBLISH)) out.writeByte(OP_PUBLISH);
+        else if (command.equals(Constants.UN_KNOWN_COMMAND)) out.writeByte(OP_UN_KNOWN);
+        else if (command.equals(Constants.ACK)) out.writeByte(OP_ACK);
+        else {
+            out.writeByte(OP_OTHER);
+            out.writeString(command);
+        }
+    }
+
+    private static String readCommand(Reader in) throws IOException {
+        int opcode = in.readByte();
+        switch (opcode) {
+            case OP_NULL:
+                return null;
+            case OP_INIT:
+                return Constants.INIT_COMMAND;
+            case OP_SUBSCRIBE:
+                return Constants.SUBSCRIBE;
+            case OP_UN_SUBSCRIBE:
+                return Constants.UN_SUBSCRIBE;
+            case OP_PUBLISH:
+                return Constants.PUBLISH;
+            case OP_UN_KNOWN:
+                return Constants.UN_KNOWN_COMMAND;
+            case OP_ACK:
+                return Constants.ACK;
+            case OP_OTHER:
+                return in.readString();
+            default:
+                throw new IOException("Unknown opcode: " + opcode);
+        }
+    }
+
+    private static void writePayload(Writer out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(TAG_NULL);
+        } else if (value instanceof String) {
+            out.writeByte(TAG_STRING);
+            out.writeString((String) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(TAG_BOOLEAN);
+            out.writeByte((Boolean) value ? 1 : 0);
+        } else if (value instanceof Emoji) {
+            out.writeByte(TAG_EMOJI);
+            out.writeVarLong(((Emoji) value).ordinal());
+        } else if (value instanceof FileInfo && ((FileInfo) value).isStreamed()) {
+            FileInfo fileInfo = (FileInfo) value;
+            out.writeByte(TAG_FILE_STREAM);
+            out.writeString(fileInfo.getName());
+            out.writeVarLong(fileInfo.getSize());
+            out.writeString(fileInfo.getMd5());
+            out.writeString(fileInfo.getTransferId());
+            out.writeVarLong(fileInfo.getChunkSize());
+            out.writeString(fileInfo.getBlobId());
+        } else if (value instanceof FileInfo) {
+            FileInfo fileInfo = (FileInfo) value;
+            out.writeByte(TAG_FILE_INFO);
+            out.writeString(fileInfo.getName());
+            out.writeVarLong(fileInfo.getSize());
+            out.writeString(fileInfo.getMd5());
+            out.writeBytes(fileInfo.getData());
+        } else if (value instanceof FileChunk) {
+            FileChunk chunk = (FileChunk) value;
+            out.writeByte(TAG_FILE_CHUNK);
+            out.writeString(chunk.getTransferId());
+            out.writeVarLong(chunk.getOffset());
+            out.writeVarLong(chunk.getCrc());
+            out.writeBytes(chunk.getData());
+        } else if (value instanceof FileRange) {
+            FileRange range = (FileRange) value;
+            out.writeByte(TAG_FILE_RANGE);
+            out.writeString(range.getAction());
+            out.writeVarLong(range.getOffset());
+        } else if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            out.writeByte(TAG_LIST);
+            out.writeVarLong(list.size());
+            for (Object item : list) {
+                writePayload(out, item);
+            }
+        } else if (value instanceof PresenceUpdate) {
+            PresenceUpdate presence = (PresenceUpdate) value;
+            out.writeByte(TAG_PRESENCE);
+            out.writeVarLong(presence.getVersion());
+            out.writeByte(presence.isSnapshot() ? 1 : 0);
+            writeStrings(out, presence.getJoined());
+            writeStrings(out, presence.getLeft());
+        } else if (value instanceof VoiceSignal) {
+            VoiceSignal signal = (VoiceSignal) value;
+            out.writeByte(TAG_VOICE_SIGNAL);
+            out.writeString(signal.getAction());
+            writeStrings(out, signal.getCodecs());
+        } else {
+            throw new IOException("Unsupported payload type");
+        }
+    }
+
+    private static Object readPayload(Reader in) throws IOException {
+        int tag = in.readByte();
+        switch (tag) {
+            case TAG_NULL:
+                return null;
+            case TAG_STRING:
+                return in.readString();
+            case TAG_BOOLEAN:
+                return in.readByte() != 0;
+            case TAG_EMOJI:
+                int ordinal = in.readVarInt();
+                if (ordinal >= EMOJIS.length) throw new IOException("Unknown emoji: " + ordinal);
+                return EMOJIS[ordinal];
+            case TAG_FILE_INFO:
+                FileInfo fileInfo = new FileInfo();
+                fileInfo.setName(in.readString());
+                fileInfo.setSize(in.readVarLong());
+                fileInfo.setMd5(in.readString());
+                fileInfo.setData(in.readBytes());
+                return fileInfo;
+            case TAG_FILE_STREAM:
+                FileInfo stream = new FileInfo();
+                stream.setName(in.readString());
+                stream.setSize(in.readVarLong());
+                stream.setMd5(in.readString());
+                stream.setTransferId(in.readString());
+                stream.setChunkSize(in.readVarInt());
+                stream.setBlobId(in.readString());
+                return stream;
+            case TAG_FILE_CHUNK:
+                FileChunk chunk = new FileChunk();
+                chunk.setTransferId(in.readString());
+                chunk.setOffset(in.readVarLong());
+                chunk.setCrc(in.readVarLong());
+                chunk.setData(in.readBytes());
+                return chunk;
+            case TAG_FILE_RANGE:
+                FileRange range = new FileRange();
+                range.setAction(in.readString());
+                range.setOffset(in.readVarLong());
+                return range;
+            case TAG_LIST:
+                int size = in.readVarInt();
+                List<Object> list = new ArrayList<>(Math.min(size, in.limit - in.position));
+                for (int i = 0; i < size; i++) {
+                    list.add(readPayload(in));
+                }
+                return list;
+            case TAG_PRESENCE:
+                PresenceUpdate presence = new PresenceUpdate();
+                presence.setVersion(in.readVarLong());
+                presence.setSnapshot(in.readByte() != 0);
+                presence.setJoined(readStrings(in));
+                presence.setLeft(readStrings(in));
+                return presence;
+            case TAG_VOICE_SIGNAL:
+                VoiceSignal signal = new VoiceSignal();
+                signal.setAction(in.readString());
+                signal.setCodecs(readStrings(in));
+                return signal;
+            default:
+                throw new IOException("Unknown payload tag: " + tag);
+        }
+    }
+
+    private static void writeStrings(Writer out, List<String> strings) {
+        if (strings == null) {
+            out.writeVarLong(0);
+            return;
+        }
+        out.writeVarLong(strings.size());
+        for (String s : strings) {
+            out.writeString(s);
+        }
+    }
+
+    private static List<String> readStrings(Reader in) throws IOException {
+        int size = in.readVarInt();
+        List<String> strings = new ArrayList<>(Math.min(size, in.limit - in.position));
+        for (int i = 0; i < size; i++) {
+            strings.add(in.readString());
+        }
+        return strings;
+    }
+
+    private static int estimatePayload(Object value) {
+        if (value instanceof FileInfo && ((FileInfo) value).getData() != null)
+            return ((FileInfo) value).getData().length + 128;
+        if (value instanceof FileChunk && ((FileChunk) value).getData() != null)
+            return ((FileChunk) value).getData().length + 128;
+        if (value instanceof PresenceUpdate && ((PresenceUpdate) value).isSnapshot())
+            return ((PresenceUpdate) value).getJoined().size() * 16 + 64;
+        return 64;
+    }
+
+    static final class Writer {
+        private byte[] buf;
+        private int position;
+
+        Writer(int capacity) {
+            this.buf = new byte[capacity];
+        }
+
+        private void ensure(int n) {
+            if (position + n > buf.length) {
+                int capacity = Math.max(buf.length << 1, position + n);
+                byte[] bigger = new byte[capacity];
+                System.arraycopy(buf, 0, bigger, 0, position);
+                buf = bigger;
+            }
+        }
+
+        void writeByte(int v) {
+            ensure(1);
+            buf[position++] = (byte) v;
+        }
+
+        void writeLong(long v) {
+            ensure(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                buf[position++] = (byte) (v >>> shift);
+            }
+        }
+
+        void writeVarLong(long v) {
+            ensure(10);
+            while ((v & ~0x7FL) != 0) {
+                buf[position++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            buf[position++] = (byte) v;
+        }
+
+        void writeString(String s) {
+            writeBytes(s == null ? null : s.getBytes(StandardCharsets.UTF_8));
+        }
+
+        void writeBytes(byte[] bytes) {
+            if (bytes == null) {
+                writeVarLong(0);
+                return;
+            }
+            writeVarLong(bytes.length + 1L);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, position, bytes.length);
+            position += bytes.length;
+        }
+
+        byte[] toByteArray() {
+            if (position == buf.length) return buf;
+            byte[] result = new byte[position];
+            System.arraycopy(buf, 0, result, 0, position);
+            return result;
+        }
+    }
+
+    static final class Reader {
+        private final byte[] buf;
+        private int position;
+        private final int limit;
+
+        Reader(byte[] buf, int offset, int length) {
+            this.buf = buf;
+            this.position = offset;
+            this.limit = offset + length;
+        }
+
+        private void require(int n) throws IOException {
+            if (n < 0 || limit - position < n) throw new EOFException("Truncated frame");
+        }
+
+        int readByte() throws IOException {
+            require(1);
+            return buf[position++] & 0xFF;
+        }
+
+        long readLong() throws IOException {
+            require(8);
+            long v = 0;
+            for (int i = 0; i < 8; i++) {
+                v = (v << 8) | (buf[position++] & 0xFF);
+            }
+            return v;
+        }
+
+        long readVarLong() throws IOException {
+            long v = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                v |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return v;
+            }
+            throw new IOException("Malformed varint");
+        }
+
+        int readVarInt() throws IOException {
+            long v = readVarLong();
+            if (v < 0 || v > Integer.MAX_VALUE) throw new IOException("Varint out of range: " + v);
+            return (int) v;
+        }
+
+        String readString() throws IOException {
+            int length = readVarInt() - 1;
+            if (length < 0) return null;
+            require(length);
+            String s = new String(buf, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return s;
+        }
+
+        byte[] readBytes() throws IOException {
+            int length = readVarInt() - 1;
+            if (length < 0) return null;
+            require(length);
+            byte[] bytes = new byte[length];
+            System.arraycopy(buf, position, bytes, 0, length);
+            position += length;
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package nputils;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Request of a byte range of a blob on the download port. A connection starts with the
+ * {@link FrameCodec#hello()} of the client, then carries any number of requests, each answered by
+ * the length of the range followed by the raw bytes, or by {@link #NOT_FOUND} alone.
+ * <pre>
+ * request:  id:utf, offset:i64, length:i64 (-1 to the end)
+ * response: length:i64, bytes
+ * </pre>
+ */
+public final class BlobRequest {
+    public static final long TO_END = -1;
+    public static final long NOT_FOUND = -1;
+
+    public final String id;
+    public final long offset;
+    public final long length;
+
+    public BlobRequest(String id, long offset, long length) {
+        this.id = id;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    public void write(DataOutputStream out) throws IOException {
+        out.writeUTF(id);
+        out.writeLong(offset);
+        out.writeLong(length);
+        out.flush();
+    }
+
+    public static BlobRequest read(DataInputStream in) throws IOException {
+        return new BlobRequest(in.readUTF(), in.readLong(), in.readLong());
+    }
+
+    /**
+     * @return the length of the range within a blob of {@code size} bytes, {@link #NOT_FOUND} when it
+     * starts past the end or has a negative length other than {@link #TO_END}
+     */
+    public long rangeOf(long size) {
+        if (offset < 0 || offset > size || (length < 0 && length != TO_END)) return NOT_FOUND;
+        return length == TO_END ? size - offset : Math.min(length, size - offset);
+    }
+
+    @Override
+    public String toString() {
+        return id + " [" + offset + ", " + (length == TO_END ? "end" : "+" + length) + ")";
+    }
+}
@@ -6,20 +6,44 @@ public final class Constants {
     public static final String UN_SUBSCRIBE = "UN_SUBSCRIBE";
     public static final String PUBLISH = "PUBLISH";
     public static final String UN_KNOWN_COMMAND = "UN_KNOWN_COMMAND";
+    public static final String ACK = "ACK";
 
     public static final String ONLINE_TOPIC = "ONLINE";
     public static final String PREFIX_CHAT = "chat";
     public static final String PREFIX_GROUP = "group";
     public static final String PREFIX_LOGIN = "login";
     public static final String PREFIX_VOICE = "voice";
+    public static final String PREFIX_CONFERENCE = "conference";
+    public static final String PREFIX_FILE = "file";
+    public static final String PREFIX_BLOB = "blob";
 
     public static final String VOICE_REQUEST = "VOICE_REQUEST";
     public static final String VOICE_ACCEPT = "VOICE_ACCEPT";
     public static final String VOICE_QUIT = "VOICE_QUIT";
     public static final String VOICE_REJECT = "VOICE_REJECT";
 
+    // publish conference/<group>; a join carrying a VoiceSignal with codecs asks for one mixed stream in the first known codec
+    public static final String CONFERENCE_JOIN = "CONFERENCE_JOIN";
+    public static final String CONFERENCE_LEAVE = "CONFERENCE_LEAVE";
+
+    // publish file/<transfer id> with a FileRange to resume a streamed file
+    public static final String FILE_STATUS = "FILE_STATUS";
+    public static final String FILE_RESUME = "FILE_RESUME";
+    public static final String FILE_CONFIRM = "FILE_CONFIRM";
+    // publish blob/<blob id> to ask whether the server holds the content, the ACK carries true if so
+    public static final String BLOB_OFFER = "BLOB_OFFER";
+
     public static final String SPLITTER = "/";
 
     public static final int BUFFER_SIZE = 1024;
+    // a voice frame is BUFFER_SIZE bytes of 8 kHz 16 bit PCM
+    public static final int VOICE_CHANNELS = 2;
+    public static final int VOICE_FRAME_MS = 32;
+    public static final int MAX_FRAME_SIZE = 256 * 1024 * 1024;
+    // streamed files go in frames of at most this many bytes of content
+    public static final int FILE_CHUNK_SIZE = 64 * 1024;
+    // frames the server takes from a client: the login, then at most a file chunk and its envelope
+    public static final int MAX_LOGIN_FRAME_SIZE = 4 * 1024;
+    public static final int MAX_CLIENT_FRAME_SIZE = FILE_CHUNK_SIZE + 64 * 1024;
     public static final String INITIALIZE_TOPIC = null;
 }
@@ -9,6 +9,8 @@ public class DataTransfer implements Serializable {
     public String command;
     public long datetime;
     public Object data;
+    // non-zero when the sender wants an ACK carrying the same id
+    public long requestId;
 
     public DataTransfer() {
         this.datetime = System.currentTimeMillis();
@@ -33,6 +35,7 @@ public class DataTransfer implements Serializable {
     public String toString() {
         return "DataTransfer{" +
                 "command=" + command +
+                (requestId != 0 ? ", requestId=" + requestId : "") +
                 ", datetime=" + datetime +
                 ", data=" + data +
                 '}';
@@ -0,0 +1,213 @@
+package nputils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Digests of files without loading them on the heap.
+ * <p>
+ * {@link #streamed} reads the file through a channel into one direct buffer, {@link #mapped} lets
+ * the digests read the mapped file, a window at a time. Both are sequential, as MD5 and SHA-256 are.
+ * {@link #tree} is a different digest that parallelizes: the SHA-256 of the concatenated SHA-256 of
+ * every {@link #LEAF_SIZE} block, the leaves hashed on a fork-join pool. {@link Tree} computes the
+ * same digest from a stream, for a receiver checking the blocks as they arrive.
+ */
+public final class Digests {
+    public static final int LEAF_SIZE = 1024 * 1024;
+    // leaves hashed by one task before it splits
+    private static final int LEAVES_PER_TASK = 4;
+    private static final int STREAM_BUFFER = 256 * 1024;
+    private static final long MAP_WINDOW = 64L * 1024 * 1024;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private Digests() {
+    }
+
+    public static String hex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[2 * i] = HEX[(bytes[i] >> 4) & 0xF];
+            chars[2 * i + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Reads the file once for all the digests.
+     * @return the hex digests in the order of the algorithms
+     */
+    public static String[] streamed(File file, String... algorithms) throws IOException {
+        MessageDigest[] mds = digests(algorithms);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(STREAM_BUFFER);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                update(mds, buffer);
+                buffer.clear();
+            }
+        }
+        return hex(mds);
+    }
+
+    /**
+     * {@link #streamed} reading the file mapped in memory instead of copying it into a buffer.
+     */
+    public static String[] mapped(File file, String... algorithms) throws IOException {
+        MessageDigest[] mds = digests(algorithms);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            for (long position = 0; position < size; position += MAP_WINDOW) {
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAP_WINDOW, size - position));
+                update(mds, window);
+            }
+        }
+        return hex(mds);
+    }
+
+    /**
+     * @return the hex tree digest of the file, its leaves hashed in parallel on the common pool
+     */
+    public static String tree(File file) throws IOException {
+        return tree(file, ForkJoinPool.commonPool());
+    }
+
+    public static String tree(File file, ForkJoinPool pool) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            byte[][] leaves = new byte[(int) ((size + LEAF_SIZE - 1) / LEAF_SIZE)][];
+            LeafTask task = new LeafTask(channel, size, leaves, 0, leaves.length);
+            pool.invoke(task);
+            if (task.error != null) throw task.error;
+            MessageDigest root = sha256();
+            for (byte[] leaf : leaves) {
+                root.update(leaf);
+            }
+            return hex(root.digest());
+        }
+    }
+
+    /**
+     * Hashes the leaves {@code [from, to)}, reading them with positional reads so that tasks share the channel.
+     */
+    private static class LeafTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final FileChannel channel;
+        private final long size;
+        private final byte[][] leaves;
+        private final int from;
+        private final int to;
+        private volatile IOException error;
+
+        LeafTask(FileChannel channel, long size, byte[][] leaves, int from, int to) {
+            this.channel = channel;
+            this.size = size;
+            this.leaves = leaves;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > LEAVES_PER_TASK) {
+                int middle = (from + to) >>> 1;
+                LeafTask left = new LeafTask(channel, size, leaves, from, middle);
+                LeafTask right = new LeafTask(channel, size, leaves, middle, to);
+                invokeAll(left, right);
+                error = left.error != null ? left.error : right.error;
+                return;
+            }
+            ByteBuffer buffer = ByteBuffer.allocateDirect(LEAF_SIZE);
+            MessageDigest md = sha256();
+            try {
+                for (int leaf = from; leaf < to; leaf++) {
+                    long start = (long) leaf * LEAF_SIZE;
+                    buffer.clear().limit((int) Math.min(LEAF_SIZE, size - start));
+                    while (buffer.hasRemaining()) {
+                        if (channel.read(buffer, start + buffer.position()) < 0) throw new IOException("File shrank while hashed");
+                    }
+                    buffer.flip();
+                    md.update(buffer);
+                    leaves[leaf] = md.digest();
+                }
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+    }
+
+    /**
+     * The tree digest of bytes given in order, in pieces of any size.
+     */
+    public static final class Tree {
+        private final MessageDigest leaf = sha256();
+        private final MessageDigest root = sha256();
+        private int inLeaf = 0;
+
+        public void update(byte[] data, int offset, int length) {
+            while (length > 0) {
+                int n = Math.min(length, LEAF_SIZE - inLeaf);
+                leaf.update(data, offset, n);
+                inLeaf += n;
+                offset += n;
+                length -= n;
+                if (inLeaf == LEAF_SIZE) {
+                    root.update(leaf.digest());
+                    inLeaf = 0;
+                }
+            }
+        }
+
+        /**
+         * @return the hex digest, after which the tree starts over
+         */
+        public String digest() {
+            if (inLeaf > 0) root.update(leaf.digest());
+            inLeaf = 0;
+            return hex(root.digest());
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every JVM has it
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MessageDigest[] digests(String... algorithms) throws IOException {
+        MessageDigest[] mds = new MessageDigest[algorithms.length];
+        for (int i = 0; i < algorithms.length; i++) {
+            try {
+                mds[i] = MessageDigest.getInstance(algorithms[i]);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IOException(e);
+            }
+        }
+        return mds;
+    }
+
+    private static void update(MessageDigest[] mds, ByteBuffer buffer) {
+        for (MessageDigest md : mds) {
+            md.update(buffer.duplicate());
+        }
+    }
+
+    private static String[] hex(MessageDigest[] mds) {
+        String[] digests = new String[mds.length];
+        for (int i = 0; i < mds.length; i++) {
+            digests[i] = hex(mds[i].digest());
+        }
+        return digests;
+    }
+}
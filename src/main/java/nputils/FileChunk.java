@@ -0,0 +1,82 @@
+package nputils;
+
+import java.io.Serializable;
+import java.util.zip.CRC32;
+
+/**
+ * One piece of a streamed file. Chunks are published on the topic of their {@link FileInfo} right
+ * after it, in order, each in its own frame so other messages can go in between.
+ */
+public class FileChunk implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private String transferId;
+    private long offset;
+    private byte[] data;
+    private long crc;
+
+    public FileChunk() {
+
+    }
+
+    public FileChunk(String transferId, long offset, byte[] data) {
+        this.transferId = transferId;
+        this.offset = offset;
+        this.data = data;
+        this.crc = checksum(data);
+    }
+
+    public static long checksum(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        return crc.getValue();
+    }
+
+    /**
+     * @return true when the data matches the checksum computed by the sender
+     */
+    public boolean isIntact() {
+        return data != null && checksum(data) == crc;
+    }
+
+    public String getTransferId() {
+        return transferId;
+    }
+
+    public void setTransferId(String transferId) {
+        this.transferId = transferId;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public void setOffset(long offset) {
+        this.offset = offset;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public void setData(byte[] data) {
+        this.data = data;
+    }
+
+    public long getCrc() {
+        return crc;
+    }
+
+    public void setCrc(long crc) {
+        this.crc = crc;
+    }
+
+    @Override
+    public String toString() {
+        return "Chunk{" +
+                "transferId='" + transferId + '\'' +
+                ", offset=" + offset +
+                ", length=" + (data == null ? 0 : data.length) +
+                '}';
+    }
+}
@@ -8,14 +8,28 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.Serializable;
 import java.nio.file.Files;
-import java.security.NoSuchAlgorithmException;
-
+import java.util.UUID;
+
+/**
+ * A file sent in a chat. Either the data is embedded, or the file is streamed: this metadata goes
+ * first with a transfer id and no data, and the content follows in {@link FileChunk}s of
+ * {@code chunkSize} bytes.
+ * <p>
+ * A streamed file also carries the {@link Digests#tree} digest of its content, the id it is kept
+ * under in the server's blob store. A file the server already holds is sent as a reference: its transfer id is the blob
+ * id, no chunk follows and recipients pull the content from the store.
+ */
 public class FileInfo implements Serializable {
 
     private byte[] data;
     private String md5;
     private String name;
     private long size;
+    private String transferId;
+    private int chunkSize;
+    private String blobId;
+    // the content on this machine: the file sent, or a streamed file once it is received
+    private transient volatile File localFile;
 
     public FileInfo() {
 
@@ -35,6 +49,56 @@ public class FileInfo implements Serializable {
         this.md5 = Utils.computeMd5(data);
     }
 
+    /**
+     * @return the metadata of {@code file} sent as a stream of chunks
+     */
+    public static FileInfo stream(File file) throws IOException, BigFileTransferException {
+        if (file == null || !file.isFile())
+            throw new FileNotFoundException();
+
+        FileInfo info = new FileInfo();
+        info.name = file.getName();
+        info.size = file.length();
+        if (info.size > CliConstants.MAX_FILE_SIZE)
+            throw new BigFileTransferException(info.name);
+
+        info.md5 = Utils.computeMd5(file);
+        // hashed in parallel, only the MD5 is one pass over the file
+        info.blobId = Utils.computeBlobId(file);
+        if (info.md5 == null || info.blobId == null)
+            throw new IOException("Can't read " + file.getName());
+        info.transferId = UUID.randomUUID().toString();
+        info.chunkSize = Constants.FILE_CHUNK_SIZE;
+        info.localFile = file;
+        return info;
+    }
+
+    public boolean isStreamed() {
+        return transferId != null;
+    }
+
+    /**
+     * @return true when the content is pulled from the blob store rather than streamed after this
+     */
+    public boolean isBlobReference() {
+        return blobId != null && blobId.equals(transferId);
+    }
+
+    /**
+     * Turns the metadata into a reference to the blob holding the content.
+     */
+    public void referBlob() {
+        this.transferId = blobId;
+    }
+
+    public String getBlobId() {
+        return blobId;
+    }
+
+    public void setBlobId(String blobId) {
+        this.blobId = blobId;
+    }
+
     public byte[] getData() {
         return data;
     }
@@ -67,12 +131,41 @@ public class FileInfo implements Serializable {
         this.size = size;
     }
 
+    public String getTransferId() {
+        return transferId;
+    }
+
+    public void setTransferId(String transferId) {
+        this.transferId = transferId;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * @return the content on this machine, null while a streamed file is still being received
+     */
+    public File getLocalFile() {
+        return localFile;
+    }
+
+    public void setLocalFile(File localFile) {
+        this.localFile = localFile;
+    }
+
     @Override
     public String toString() {
         return "File{" +
                 "name='" + name + '\'' +
                 ", size=" + size +
                 ", md5='" + md5 + '\'' +
+                (transferId != null ? ", transferId='" + transferId + '\'' : "") +
+                (blobId != null && !blobId.equals(transferId) ? ", blobId='" + blobId + '\'' : "") +
                 '}';
     }
 }
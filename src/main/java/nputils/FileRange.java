@@ -0,0 +1,49 @@
+package nputils;
+
+import java.io.Serializable;
+
+/**
+ * Payload of a {@code file/<transfer id>} publish, keeping track of how far a streamed file got.
+ * <p>
+ * {@link Constants#FILE_STATUS}: the sender asks how many bytes the server stored, the ACK carries
+ * them, or null when the server does not know the transfer. {@link Constants#FILE_RESUME}: a
+ * recipient holding {@code offset} bytes asks for the next chunks, which arrive before the ACK
+ * carrying the bytes stored so far. {@link Constants#FILE_CONFIRM}: a recipient reports the bytes
+ * it holds.
+ */
+public class FileRange implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private String action;
+    private long offset;
+
+    public FileRange() {
+
+    }
+
+    public FileRange(String action, long offset) {
+        this.action = action;
+        this.offset = offset;
+    }
+
+    public String getAction() {
+        return action;
+    }
+
+    public void setAction(String action) {
+        this.action = action;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public void setOffset(long offset) {
+        this.offset = offset;
+    }
+
+    @Override
+    public String toString() {
+        return action + "@" + offset;
+    }
+}
@@ -0,0 +1,87 @@
+package nputils;
+
+import java.io.*;
+
+/**
+ * Length-prefixed framing of {@link DataTransfer} used by both the blocking and the NIO transport.
+ * Every frame is a 4-byte big-endian body length followed by a {@link BinaryCodec} body, so a
+ * non-blocking reader can tell where one message ends without parsing it.
+ * <p>
+ * Each side starts a connection with a 4-byte hello (magic + protocol version) and checks the
+ * hello of its peer before decoding any frame.
+ */
+public final class FrameCodec {
+    public static final int HEADER_SIZE = 4;
+    public static final int HELLO_SIZE = 4;
+    public static final short MAGIC = 0x4E50;
+    public static final short VERSION = 2;
+
+    private FrameCodec() {
+    }
+
+    public static byte[] encode(DataTransfer data) throws IOException {
+        byte[] frame = BinaryCodec.encode(data, HEADER_SIZE);
+        putLength(frame, frame.length - HEADER_SIZE);
+        return frame;
+    }
+
+    public static DataTransfer decode(byte[] body, int offset, int length) throws IOException {
+        return BinaryCodec.decode(body, offset, length);
+    }
+
+    public static void write(DataOutputStream out, DataTransfer data) throws IOException {
+        out.write(encode(data));
+        out.flush();
+    }
+
+    public static DataTransfer read(DataInputStream in) throws IOException {
+        return read(in, Constants.MAX_FRAME_SIZE);
+    }
+
+    /**
+     * Reads a frame, refusing a body longer than {@code maxLength} before allocating it.
+     */
+    public static DataTransfer read(DataInputStream in, int maxLength) throws IOException {
+        int length = in.readInt();
+        checkLength(length, maxLength);
+        byte[] body = new byte[length];
+        in.readFully(body);
+        return decode(body, 0, length);
+    }
+
+    public static byte[] hello() {
+        return new byte[]{(byte) (MAGIC >>> 8), (byte) MAGIC, (byte) (VERSION >>> 8), (byte) VERSION};
+    }
+
+    public static void writeHello(DataOutputStream out) throws IOException {
+        out.write(hello());
+        out.flush();
+    }
+
+    public static void readHello(DataInputStream in) throws IOException {
+        checkHello(in.readShort(), in.readShort());
+    }
+
+    public static void checkHello(short magic, short version) throws IOException {
+        if (magic != MAGIC)
+            throw new IOException("Not a np protocol stream");
+        if (version != VERSION)
+            throw new IOException("Unsupported protocol version: " + version + ", expected " + VERSION);
+    }
+
+    public static void checkLength(int length) throws IOException {
+        checkLength(length, Constants.MAX_FRAME_SIZE);
+    }
+
+    public static void checkLength(int length, int maxLength) throws IOException {
+        if (length < 0 || length > maxLength)
+            throw new IOException("Invalid frame length: " + length);
+    }
+
+    private static void putLength(byte[] frame, int length) {
+        frame[0] = (byte) (length >>> 24);
+        frame[1] = (byte) (length >>> 16);
+        frame[2] = (byte) (length >>> 8);
+        frame[3] = (byte) length;
+    }
+}
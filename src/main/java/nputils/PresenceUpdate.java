@@ -0,0 +1,73 @@
+package nputils;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Payload of the ONLINE topic.
+ * <p>
+ * A snapshot carries every online user in {@code joined}; a delta carries the users who came online
+ * or went offline since the previous version. Versions of consecutive updates differ by one, so a
+ * subscriber that sees a gap has missed an update and has to ask for a new snapshot.
+ */
+public class PresenceUpdate implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private long version;
+    private boolean snapshot;
+    private List<String> joined;
+    private List<String> left;
+
+    public PresenceUpdate() {
+        this(0, false, new ArrayList<>(), new ArrayList<>());
+    }
+
+    public PresenceUpdate(long version, boolean snapshot, List<String> joined, List<String> left) {
+        this.version = version;
+        this.snapshot = snapshot;
+        this.joined = joined;
+        this.left = left;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
+    public boolean isSnapshot() {
+        return snapshot;
+    }
+
+    public void setSnapshot(boolean snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    public List<String> getJoined() {
+        return joined;
+    }
+
+    public void setJoined(List<String> joined) {
+        this.joined = joined;
+    }
+
+    public List<String> getLeft() {
+        return left;
+    }
+
+    public void setLeft(List<String> left) {
+        this.left = left;
+    }
+
+    @Override
+    public String toString() {
+        return "Presence{" +
+                "version=" + version +
+                (snapshot ? ", online=" : ", joined=") + joined +
+                ", left=" + left +
+                '}';
+    }
+}
@@ -0,0 +1,26 @@
+package nputils;
+
+/**
+ * Picks the UDP relay worker of a call. Both clients and the server compute it from the two user
+ * names, so every packet of a call reaches the same worker ({@code portUdp + shard}).
+ */
+public final class RelayShard {
+
+    private RelayShard() {
+    }
+
+    public static int of(String user1, String user2, int shards) {
+        if (shards <= 1) return 0;
+        // order independent, String.hashCode is the same on every JVM
+        String key = user1.compareTo(user2) <= 0 ? user1 + '\0' + user2 : user2 + '\0' + user1;
+        return Math.floorMod(key.hashCode(), shards);
+    }
+
+    /**
+     * @return the worker relaying every participant of a conference room
+     */
+    public static int ofRoom(String room, int shards) {
+        if (shards <= 1) return 0;
+        return Math.floorMod(room.hashCode(), shards);
+    }
+}
@@ -2,21 +2,52 @@ package nputils;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
 public class Utils {
 
     public static String computeMd5(File file){
-        String digest = null;
+        String[] digests = computeDigests(file, "MD5");
+        return digests == null ? null : digests[0];
+    }
+
+    /**
+     * Reads the file once for all the digests.
+     * @return the hex digests in the order of the algorithms, null when the file cannot be read
+     */
+    public static String[] computeDigests(File file, String... algorithms){
+        // streamed, a file can be far larger than what we want on the heap
         try {
-            byte[] bytes = Files.readAllBytes(file.toPath());
-            digest = computeMd5(bytes);
+            return Digests.streamed(file, algorithms);
         } catch (IOException ex) {
             ex.printStackTrace();
         }
-        return digest;
+        return null;
+    }
+
+    /**
+     * @return the id of the file in the blob store, see {@link Digests#tree}, null when the file cannot be read
+     */
+    public static String computeBlobId(File file){
+        try {
+            return Digests.tree(file);
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * @return true for a hex tree digest, the id of a blob
+     */
+    public static boolean isBlobId(String id){
+        if (id == null || id.length() != 64) return false;
+        for (int i = 0; i < id.length(); i++) {
+            char c = id.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) return false;
+        }
+        return true;
     }
 
     public static String computeMd5(byte[] bytes) {
@@ -24,18 +55,15 @@ public class Utils {
         try {
             MessageDigest md = MessageDigest.getInstance("MD5");
             byte[] hash = md.digest(bytes);
-
-            //converting byte array to Hexadecimal String
-            StringBuilder sb = new StringBuilder(2*hash.length);
-            for(byte b : hash){
-                sb.append(String.format("%02x", b&0xff));
-            }
-
-            digest = sb.toString();
+            digest = toHex(hash);
 
         } catch (NoSuchAlgorithmException ex) {
             ex.printStackTrace();
         }
         return digest;
     }
+
+    public static String toHex(byte[] hash) {
+        return Digests.hex(hash);
+    }
 }
@@ -0,0 +1,146 @@
+package nputils;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+
+/**
+ * Layout of the datagrams on the voice UDP path. The first byte is always the packet type;
+ * the relay only looks at that byte.
+ * <pre>
+ * register: type:u8 = 0, name length:u8, name
+ * voice:    type:u8 = 1, codec:u8, seq:u16, timestamp:u32, ssrc:u32, level:u8, payload
+ * noise:    type:u8 = 2, codec:u8, seq:u16, timestamp:u32, ssrc:u32, level:u8, noise level:u8
+ * candidate: type:u8 = 3, address length:u8, address, port:u16
+ * probe:    type:u8 = 4, nonce:u32
+ * probe ack: type:u8 = 5, nonce:u32
+ * keepalive: type:u8 = 6
+ * report:   type:u8 = 7, see {@link VoiceReport}
+ * </pre>
+ * {@code seq} counts voice packets of a call and wraps around, {@code timestamp} is the sender's
+ * capture time in milliseconds (truncated), only meaningful as a difference. {@code ssrc} is picked
+ * at random by the sender for each call, so a conference participant can tell the forwarded
+ * streams apart. {@code level} is the loudness of the frame in dB below full scale (RFC 6464),
+ * 0 loudest to 127 silent, which the forwarder ranks speakers by without decoding.
+ * <p>
+ * While the sender is silent it only sends a comfort noise packet now and then, carrying the
+ * background level in dB below full scale. It does not use up a sequence number, so the silence
+ * is not mistaken for loss.
+ * <p>
+ * When both users of a call are registered the server sends each one a candidate: the address it
+ * sees the other one at. The clients probe each other's candidate and send voice directly once a
+ * probe is answered, keeping their relay route alive with keepalives in case they have to go
+ * back to it.
+ */
+public final class VoicePacket {
+    public static final byte TYPE_REGISTER = 0;
+    public static final byte TYPE_VOICE = 1;
+    public static final byte TYPE_COMFORT_NOISE = 2;
+    public static final byte TYPE_CANDIDATE = 3;
+    public static final byte TYPE_PROBE = 4;
+    public static final byte TYPE_PROBE_ACK = 5;
+    public static final byte TYPE_KEEPALIVE = 6;
+    public static final byte TYPE_REPORT = 7;
+
+    public static final int HEADER_SIZE = 13;
+    public static final int LEVEL_OFFSET = 12;
+    public static final int SILENT = 127;
+    public static final int MAX_SIZE = HEADER_SIZE + Constants.BUFFER_SIZE;
+
+    private VoicePacket() {
+    }
+
+    public static void writeHeader(byte[] packet, byte type, int codec, int seq, int timestamp, int ssrc, int level) {
+        packet[0] = type;
+        packet[1] = (byte) codec;
+        packet[2] = (byte) (seq >>> 8);
+        packet[3] = (byte) seq;
+        packet[4] = (byte) (timestamp >>> 24);
+        packet[5] = (byte) (timestamp >>> 16);
+        packet[6] = (byte) (timestamp >>> 8);
+        packet[7] = (byte) timestamp;
+        packet[8] = (byte) (ssrc >>> 24);
+        packet[9] = (byte) (ssrc >>> 16);
+        packet[10] = (byte) (ssrc >>> 8);
+        packet[11] = (byte) ssrc;
+        packet[LEVEL_OFFSET] = (byte) level;
+    }
+
+    public static byte type(byte[] packet) {
+        return packet[0];
+    }
+
+    public static int codec(byte[] packet) {
+        return packet[1] & 0xFF;
+    }
+
+    public static int seq(byte[] packet) {
+        return ((packet[2] & 0xFF) << 8) | (packet[3] & 0xFF);
+    }
+
+    public static int timestamp(byte[] packet) {
+        return readInt(packet, 4);
+    }
+
+    public static int ssrc(byte[] packet) {
+        return readInt(packet, 8);
+    }
+
+    public static int level(byte[] packet) {
+        return packet[LEVEL_OFFSET] & 0x7F;
+    }
+
+    public static byte[] candidate(InetSocketAddress addr) {
+        byte[] ip = addr.getAddress().getAddress();
+        byte[] packet = new byte[2 + ip.length + 2];
+        packet[0] = TYPE_CANDIDATE;
+        packet[1] = (byte) ip.length;
+        System.arraycopy(ip, 0, packet, 2, ip.length);
+        packet[2 + ip.length] = (byte) (addr.getPort() >>> 8);
+        packet[3 + ip.length] = (byte) addr.getPort();
+        return packet;
+    }
+
+    /**
+     * @return the address of a candidate packet, null when it is malformed
+     */
+    public static InetSocketAddress readCandidate(byte[] packet, int length) {
+        if (length < 2) return null;
+        int len = packet[1] & 0xFF;
+        if ((len != 4 && len != 16) || length < 4 + len) return null;
+        try {
+            InetAddress ip = InetAddress.getByAddress(Arrays.copyOfRange(packet, 2, 2 + len));
+            int port = ((packet[2 + len] & 0xFF) << 8) | (packet[3 + len] & 0xFF);
+            return new InetSocketAddress(ip, port);
+        } catch (UnknownHostException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @param type {@link #TYPE_PROBE} or {@link #TYPE_PROBE_ACK}
+     */
+    public static byte[] probe(byte type, int nonce) {
+        byte[] packet = new byte[5];
+        packet[0] = type;
+        writeInt(packet, 1, nonce);
+        return packet;
+    }
+
+    public static int nonce(byte[] packet) {
+        return readInt(packet, 1);
+    }
+
+    static int readInt(byte[] packet, int offset) {
+        return ((packet[offset] & 0xFF) << 24) | ((packet[offset + 1] & 0xFF) << 16)
+                | ((packet[offset + 2] & 0xFF) << 8) | (packet[offset + 3] & 0xFF);
+    }
+
+    static void writeInt(byte[] packet, int offset, int value) {
+        packet[offset] = (byte) (value >>> 24);
+        packet[offset + 1] = (byte) (value >>> 16);
+        packet[offset + 2] = (byte) (value >>> 8);
+        packet[offset + 3] = (byte) value;
+    }
+}
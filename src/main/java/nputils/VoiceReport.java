@@ -0,0 +1,106 @@
+package nputils;
+
+/**
+ * Receiver report of a call, sent by each client every few seconds about the stream it receives,
+ * in the spirit of RTCP (RFC 3550).
+ * <pre>
+ * type:u8 = 7, ssrc:u32, expected:u32, received:u32, jitter:u16, echo:u32, echo delay:u16, rtt:u16
+ * </pre>
+ * {@code expected} and {@code received} count the voice packets of stream {@code ssrc} since it
+ * started, so loss over an interval is the difference of two reports. {@code echo} is the
+ * timestamp of the last voice packet received and {@code echo delay} the milliseconds since it
+ * arrived: the sender of the stream gets its own clock back and works out the round trip as
+ * {@code now - echo - delay}. Each report carries the round trip its sender last worked out that
+ * way, so the relay sees both directions of the call. Times are in milliseconds, 16 bit fields
+ * saturate and {@link #UNKNOWN} means not measured yet.
+ */
+public final class VoiceReport {
+    public static final int SIZE = 23;
+    public static final int UNKNOWN = 0xFFFF;
+
+    public final int ssrc;
+    public final long expected;
+    public final long received;
+    public final int jitterMs;
+    public final int echo;
+    public final int echoDelayMs;
+    public final int rttMs;
+
+    public VoiceReport(int ssrc, long expected, long received, int jitterMs, int echo, int echoDelayMs, int rttMs) {
+        this.ssrc = ssrc;
+        this.expected = expected;
+        this.received = received;
+        this.jitterMs = Math.min(jitterMs, UNKNOWN - 1);
+        this.echo = echo;
+        this.echoDelayMs = Math.min(echoDelayMs, UNKNOWN - 1);
+        this.rttMs = rttMs < 0 ? UNKNOWN : Math.min(rttMs, UNKNOWN);
+    }
+
+    public byte[] toBytes() {
+        byte[] packet = new byte[SIZE];
+        packet[0] = VoicePacket.TYPE_REPORT;
+        VoicePacket.writeInt(packet, 1, ssrc);
+        VoicePacket.writeInt(packet, 5, (int) expected);
+        VoicePacket.writeInt(packet, 9, (int) received);
+        writeShort(packet, 13, jitterMs);
+        VoicePacket.writeInt(packet, 15, echo);
+        writeShort(packet, 19, echoDelayMs);
+        writeShort(packet, 21, rttMs);
+        return packet;
+    }
+
+    /**
+     * @return the report, null when the packet is too short
+     */
+    public static VoiceReport read(byte[] packet, int length) {
+        if (length < SIZE || packet[0] != VoicePacket.TYPE_REPORT) return null;
+        return new VoiceReport(VoicePacket.readInt(packet, 1),
+                VoicePacket.readInt(packet, 5) & 0xFFFFFFFFL,
+                VoicePacket.readInt(packet, 9) & 0xFFFFFFFFL,
+                readShort(packet, 13),
+                VoicePacket.readInt(packet, 15),
+                readShort(packet, 19),
+                readShort(packet, 21));
+    }
+
+    /**
+     * @param previous earlier report of the same receiver, or null
+     * @return fraction of the packets expected since {@code previous} that did not arrive
+     */
+    public double lossSince(VoiceReport previous) {
+        long expectedSince = expected;
+        long receivedSince = received;
+        if (previous != null && previous.ssrc == ssrc && previous.expected <= expected) {
+            expectedSince -= previous.expected;
+            receivedSince -= previous.received;
+        }
+        if (expectedSince <= 0) return 0;
+        // duplicates may make it negative
+        return Math.max(0, expectedSince - receivedSince) / (double) expectedSince;
+    }
+
+    /**
+     * @param nowMs local clock of the stream's sender
+     * @return round trip in ms from this report's echo, or -1 when nothing was echoed
+     */
+    public int roundTrip(long nowMs) {
+        if (echo == 0) return -1;
+        int rtt = (int) nowMs - echo - echoDelayMs;
+        return rtt < 0 ? -1 : rtt;
+    }
+
+    private static void writeShort(byte[] packet, int offset, int value) {
+        packet[offset] = (byte) (value >>> 8);
+        packet[offset + 1] = (byte) value;
+    }
+
+    private static int readShort(byte[] packet, int offset) {
+        return ((packet[offset] & 0xFF) << 8) | (packet[offset + 1] & 0xFF);
+    }
+
+    @Override
+    public String toString() {
+        return "expected " + expected + " received " + received + " jitter " + jitterMs + " ms rtt "
+                + (rttMs == UNKNOWN ? "?" : rttMs + " ms");
+    }
+}
@@ -0,0 +1,65 @@
+package nputils;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Payload of a {@code voice/<user>} publish that negotiates the call's codec.
+ * <p>
+ * A {@link Constants#VOICE_REQUEST} offers codec names, most preferred first; a
+ * {@link Constants#VOICE_ACCEPT} carries the single codec picked by the callee. Other signals, and
+ * clients that do not negotiate, publish the bare action string.
+ */
+public class VoiceSignal implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private String action;
+    private List<String> codecs;
+
+    public VoiceSignal() {
+        this(null, new ArrayList<>());
+    }
+
+    public VoiceSignal(String action, List<String> codecs) {
+        this.action = action;
+        this.codecs = codecs;
+    }
+
+    /**
+     * @return the signal action of a voice payload, either a {@code VoiceSignal} or a bare string
+     */
+    public static String actionOf(Object data) {
+        if (data instanceof VoiceSignal) return ((VoiceSignal) data).getAction();
+        if (data instanceof String) return (String) data;
+        return null;
+    }
+
+    /**
+     * @return the offered or accepted codecs, null for a bare string signal
+     */
+    public static List<String> codecsOf(Object data) {
+        return data instanceof VoiceSignal ? ((VoiceSignal) data).getCodecs() : null;
+    }
+
+    public String getAction() {
+        return action;
+    }
+
+    public void setAction(String action) {
+        this.action = action;
+    }
+
+    public List<String> getCodecs() {
+        return codecs;
+    }
+
+    public void setCodecs(List<String> codecs) {
+        this.codecs = codecs;
+    }
+
+    @Override
+    public String toString() {
+        return action + codecs;
+    }
+}
@@ -0,0 +1,41 @@
+package nputils.codec;
+
+/**
+ * G.711 A-law, as used by European telephony.
+ */
+public class ALawCodec extends G711Codec {
+    private static final int[] SEGMENT_ENDS = {0x1F, 0x3F, 0x7F, 0xFF, 0x1FF, 0x3FF, 0x7FF, 0xFFF};
+
+    @Override
+    protected int compress(int sample) {
+        // works on 13 bit magnitudes
+        int value = sample >> 3;
+        int mask;
+        if (value >= 0) {
+            mask = 0xD5;
+        } else {
+            mask = 0x55;
+            value = -value - 1;
+        }
+
+        int seg = segment(value, SEGMENT_ENDS);
+        if (seg >= 8) return 0x7F ^ mask;
+        int code = seg << 4;
+        code |= seg < 2 ? (value >> 1) & 0x0F : (value >> seg) & 0x0F;
+        return code ^ mask;
+    }
+
+    @Override
+    protected int expand(int code) {
+        code ^= 0x55;
+        int t = (code & 0x0F) << 4;
+        int seg = (code & 0x70) >> 4;
+        if (seg == 0) {
+            t += 8;
+        } else {
+            t += 0x108;
+            if (seg > 1) t <<= seg - 1;
+        }
+        return (code & 0x80) != 0 ? t : -t;
+    }
+}
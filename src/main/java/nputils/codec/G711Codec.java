@@ -0,0 +1,52 @@
+package nputils.codec;
+
+/**
+ * G.711 companding: every 16 bit sample becomes one logarithmic byte, halving the bandwidth.
+ * Decoding is a table lookup.
+ */
+public abstract class G711Codec implements VoiceCodec {
+
+    private final short[] expandTable = new short[256];
+
+    protected G711Codec() {
+        for (int i = 0; i < 256; i++) {
+            expandTable[i] = (short) expand(i);
+        }
+    }
+
+    protected abstract int compress(int sample);
+
+    protected abstract int expand(int code);
+
+    @Override
+    public int encode(byte[] pcm, int offset, int length, byte[] out, int outOffset) {
+        int samples = length / 2;
+        for (int i = 0; i < samples; i++) {
+            int p = offset + 2 * i;
+            short sample = (short) ((pcm[p] & 0xFF) | (pcm[p + 1] << 8));
+            out[outOffset + i] = (byte) compress(sample);
+        }
+        return samples;
+    }
+
+    @Override
+    public byte[] decode(byte[] data, int offset, int length) {
+        byte[] pcm = new byte[length * 2];
+        for (int i = 0; i < length; i++) {
+            short sample = expandTable[data[offset + i] & 0xFF];
+            pcm[2 * i] = (byte) sample;
+            pcm[2 * i + 1] = (byte) (sample >> 8);
+        }
+        return pcm;
+    }
+
+    /**
+     * @return index of the first segment whose end is not below {@code value}, or the table length
+     */
+    static int segment(int value, int[] ends) {
+        for (int i = 0; i < ends.length; i++) {
+            if (value <= ends[i]) return i;
+        }
+        return ends.length;
+    }
+}
@@ -0,0 +1,135 @@
+package nputils.codec;
+
+/**
+ * IMA ADPCM: every 16 bit sample becomes a 4 bit step against a predicted value, a quarter of
+ * the bandwidth.
+ * <p>
+ * A frame starts with the predictor state of each channel ({@code predictor:s16 LE, step index:u8,
+ * 0}), followed by one nibble per sample in the interleaved PCM order, low nibble first. The
+ * encoder carries its state over from the previous frame so it stays adapted, but the header lets
+ * the decoder start any frame from scratch. A mono frame with an odd number of samples decodes
+ * with one extra sample.
+ */
+public class ImaAdpcmCodec implements VoiceCodec {
+    private static final int CHANNEL_HEADER = 4;
+
+    private static final int[] INDEX_TABLE = {
+            -1, -1, -1, -1, 2, 4, 6, 8,
+            -1, -1, -1, -1, 2, 4, 6, 8
+    };
+
+    private static final int[] STEP_TABLE = {
+            7, 8, 9, 10, 11, 12, 13, 14, 16, 17, 19, 21, 23, 25, 28, 31, 34, 37, 41, 45,
+            50, 55, 60, 66, 73, 80, 88, 97, 107, 118, 130, 143, 157, 173, 190, 209, 230, 253, 279, 307,
+            337, 371, 408, 449, 494, 544, 598, 658, 724, 796, 876, 963, 1060, 1166, 1282, 1411, 1552, 1707, 1878, 2066,
+            2272, 2499, 2749, 3024, 3327, 3660, 4026, 4428, 4871, 5358, 5894, 6484, 7132, 7845, 8630, 9493, 10442, 11487, 12635, 13899,
+            15289, 16818, 18500, 20350, 22385, 24623, 27086, 29794, 32767
+    };
+
+    private final int channels;
+    private final int[] predictor;
+    private final int[] index;
+
+    public ImaAdpcmCodec(int channels) {
+        this.channels = Math.max(1, channels);
+        this.predictor = new int[this.channels];
+        this.index = new int[this.channels];
+    }
+
+    @Override
+    public int encode(byte[] pcm, int offset, int length, byte[] out, int outOffset) {
+        int pos = outOffset;
+        for (int c = 0; c < channels; c++) {
+            out[pos++] = (byte) predictor[c];
+            out[pos++] = (byte) (predictor[c] >> 8);
+            out[pos++] = (byte) index[c];
+            out[pos++] = 0;
+        }
+
+        int samples = length / 2;
+        for (int i = 0; i < samples; i++) {
+            int p = offset + 2 * i;
+            int sample = (short) ((pcm[p] & 0xFF) | (pcm[p + 1] << 8));
+            int c = i % channels;
+
+            int diff = sample - predictor[c];
+            int nibble = 0;
+            if (diff < 0) {
+                nibble = 8;
+                diff = -diff;
+            }
+            int step = STEP_TABLE[index[c]];
+            if (diff >= step) {
+                nibble |= 4;
+                diff -= step;
+            }
+            step >>= 1;
+            if (diff >= step) {
+                nibble |= 2;
+                diff -= step;
+            }
+            step >>= 1;
+            if (diff >= step) nibble |= 1;
+
+            // track what the decoder will reconstruct, not the input
+            this.update(c, nibble);
+
+            if ((i & 1) == 0) {
+                out[pos] = (byte) nibble;
+            } else {
+                out[pos++] |= (byte) (nibble << 4);
+            }
+        }
+        if ((samples & 1) == 1) pos++;
+        return pos - outOffset;
+    }
+
+    @Override
+    public byte[] decode(byte[] data, int offset, int length) {
+        int header = channels * CHANNEL_HEADER;
+        if (length < header) return new byte[0];
+
+        int[] predictor = new int[channels];
+        int[] index = new int[channels];
+        int pos = offset;
+        for (int c = 0; c < channels; c++) {
+            predictor[c] = (short) ((data[pos] & 0xFF) | (data[pos + 1] << 8));
+            index[c] = clampIndex(data[pos + 2] & 0xFF);
+            pos += CHANNEL_HEADER;
+        }
+
+        int samples = (length - header) * 2;
+        byte[] pcm = new byte[samples * 2];
+        for (int i = 0; i < samples; i++) {
+            int b = data[pos + i / 2];
+            int nibble = (i & 1) == 0 ? b & 0x0F : (b >> 4) & 0x0F;
+            int c = i % channels;
+
+            predictor[c] = next(predictor[c], index[c], nibble);
+            index[c] = clampIndex(index[c] + INDEX_TABLE[nibble]);
+
+            pcm[2 * i] = (byte) predictor[c];
+            pcm[2 * i + 1] = (byte) (predictor[c] >> 8);
+        }
+        return pcm;
+    }
+
+    private void update(int c, int nibble) {
+        predictor[c] = next(predictor[c], index[c], nibble);
+        index[c] = clampIndex(index[c] + INDEX_TABLE[nibble]);
+    }
+
+    private static int next(int predictor, int index, int nibble) {
+        int step = STEP_TABLE[index];
+        int delta = step >> 3;
+        if ((nibble & 4) != 0) delta += step;
+        if ((nibble & 2) != 0) delta += step >> 1;
+        if ((nibble & 1) != 0) delta += step >> 2;
+        predictor += (nibble & 8) != 0 ? -delta : delta;
+        return Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, predictor));
+    }
+
+    private static int clampIndex(int index) {
+        return Math.max(0, Math.min(STEP_TABLE.length - 1, index));
+    }
+}
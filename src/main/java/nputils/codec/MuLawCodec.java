@@ -0,0 +1,37 @@
+package nputils.codec;
+
+/**
+ * G.711 µ-law, as used by North American telephony.
+ */
+public class MuLawCodec extends G711Codec {
+    private static final int BIAS = 0x84;
+    private static final int CLIP = 8159;
+    private static final int[] SEGMENT_ENDS = {0x3F, 0x7F, 0xFF, 0x1FF, 0x3FF, 0x7FF, 0xFFF, 0x1FFF};
+
+    @Override
+    protected int compress(int sample) {
+        // works on 14 bit magnitudes
+        int value = sample >> 2;
+        int mask;
+        if (value < 0) {
+            value = -value;
+            mask = 0x7F;
+        } else {
+            mask = 0xFF;
+        }
+        if (value > CLIP) value = CLIP;
+        value += BIAS >> 2;
+
+        int seg = segment(value, SEGMENT_ENDS);
+        if (seg >= 8) return 0x7F ^ mask;
+        return ((seg << 4) | ((value >> (seg + 1)) & 0x0F)) ^ mask;
+    }
+
+    @Override
+    protected int expand(int code) {
+        code = ~code;
+        int t = ((code & 0x0F) << 3) + BIAS;
+        t <<= (code & 0x70) >> 4;
+        return (code & 0x80) != 0 ? BIAS - t : t - BIAS;
+    }
+}
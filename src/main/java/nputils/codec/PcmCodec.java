@@ -0,0 +1,20 @@
+package nputils.codec;
+
+import java.util.Arrays;
+
+/**
+ * No compression, the format of clients that do not negotiate a codec.
+ */
+public class PcmCodec implements VoiceCodec {
+
+    @Override
+    public int encode(byte[] pcm, int offset, int length, byte[] out, int outOffset) {
+        System.arraycopy(pcm, offset, out, outOffset, length);
+        return length;
+    }
+
+    @Override
+    public byte[] decode(byte[] data, int offset, int length) {
+        return Arrays.copyOfRange(data, offset, offset + length);
+    }
+}
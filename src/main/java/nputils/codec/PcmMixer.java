@@ -0,0 +1,61 @@
+package nputils.codec;
+
+/**
+ * Sums frames of 16 bit little endian PCM, clipping the result instead of letting it wrap.
+ */
+public final class PcmMixer {
+
+    private PcmMixer() {
+    }
+
+    /**
+     * Adds the samples of {@code pcm} to {@code mix}, as many as both hold.
+     *
+     * @return number of samples added
+     */
+    public static int add(int[] mix, byte[] pcm) {
+        int samples = Math.min(mix.length, pcm.length / 2);
+        for (int i = 0; i < samples; i++) {
+            mix[i] += (short) ((pcm[2 * i] & 0xFF) | (pcm[2 * i + 1] << 8));
+        }
+        return samples;
+    }
+
+    /**
+     * Takes the samples of {@code pcm} out of {@code mix} again, e.g. a listener's own voice.
+     */
+    public static void subtract(int[] mix, byte[] pcm) {
+        int samples = Math.min(mix.length, pcm.length / 2);
+        for (int i = 0; i < samples; i++) {
+            mix[i] -= (short) ((pcm[2 * i] & 0xFF) | (pcm[2 * i + 1] << 8));
+        }
+    }
+
+    /**
+     * @return loudness of the first {@code samples} sums in dB below full scale, 0 to 127
+     */
+    public static int level(int[] mix, int samples) {
+        if (samples == 0) return 127;
+        double sum = 0;
+        for (int i = 0; i < samples; i++) {
+            double sample = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, mix[i]));
+            sum += sample * sample;
+        }
+        double rms = Math.sqrt(sum / samples);
+        if (rms < 1) return 127;
+        return (int) Math.max(0, Math.min(127, Math.round(-20 * Math.log10(rms / Short.MAX_VALUE))));
+    }
+
+    /**
+     * Writes the first {@code samples} sums of {@code mix} as PCM.
+     */
+    public static byte[] toPcm(int[] mix, int samples) {
+        byte[] pcm = new byte[samples * 2];
+        for (int i = 0; i < samples; i++) {
+            int sample = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, mix[i]));
+            pcm[2 * i] = (byte) sample;
+            pcm[2 * i + 1] = (byte) (sample >> 8);
+        }
+        return pcm;
+    }
+}
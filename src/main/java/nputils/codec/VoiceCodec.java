@@ -0,0 +1,20 @@
+package nputils.codec;
+
+/**
+ * Compresses frames of 16 bit little endian PCM for the voice UDP path.
+ * <p>
+ * Every encoded frame must decode on its own, so a lost packet never corrupts the ones after it.
+ * An instance serves one direction of one call and may keep state between frames of that stream.
+ */
+public interface VoiceCodec {
+
+    /**
+     * @return bytes written to {@code out}
+     */
+    int encode(byte[] pcm, int offset, int length, byte[] out, int outOffset);
+
+    /**
+     * @return the decoded PCM frame
+     */
+    byte[] decode(byte[] data, int offset, int length);
+}
@@ -0,0 +1,99 @@
+package nputils.codec;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntFunction;
+
+/**
+ * Codecs a client can use for voice. A codec is negotiated by name during call signaling and
+ * identified by its id in the codec byte of every voice packet, so registering another one makes
+ * it available to both.
+ */
+public final class VoiceCodecs {
+
+    /**
+     * Uncompressed, what a peer that offers nothing understands.
+     */
+    public static final String PCM = "L16";
+    public static final String MU_LAW = "PCMU";
+    public static final String A_LAW = "PCMA";
+    public static final String IMA_ADPCM = "IMA-ADPCM";
+
+    private static final class Entry {
+        final int id;
+        final String name;
+        final IntFunction<VoiceCodec> factory;
+
+        Entry(int id, String name, IntFunction<VoiceCodec> factory) {
+            this.id = id;
+            this.name = name;
+            this.factory = factory;
+        }
+    }
+
+    // in order of preference
+    private static final Map<String, Entry> byName = new LinkedHashMap<>();
+    private static final Entry[] byId = new Entry[256];
+
+    static {
+        register(3, IMA_ADPCM, ImaAdpcmCodec::new);
+        register(1, MU_LAW, channels -> new MuLawCodec());
+        register(2, A_LAW, channels -> new ALawCodec());
+        register(0, PCM, channels -> new PcmCodec());
+    }
+
+    private VoiceCodecs() {
+    }
+
+    /**
+     * Adds a codec after the ones already registered in order of preference.
+     *
+     * @param factory creates a codec for the given number of interleaved channels
+     */
+    public synchronized static void register(int id, String name, IntFunction<VoiceCodec> factory) {
+        if (id < 0 || id >= byId.length || byId[id] != null || byName.containsKey(name))
+            throw new IllegalArgumentException("Codec already registered: " + id + " " + name);
+        Entry entry = new Entry(id, name, factory);
+        byName.put(name, entry);
+        byId[id] = entry;
+    }
+
+    /**
+     * @return names of every codec, most preferred first, to offer in a call request
+     */
+    public synchronized static List<String> names() {
+        return new ArrayList<>(byName.keySet());
+    }
+
+    /**
+     * Picks the first offered codec this side supports.
+     *
+     * @param offered codec names from the caller, most preferred first, null for an old client
+     */
+    public synchronized static String choose(List<String> offered) {
+        if (offered != null) {
+            for (String name : offered) {
+                if (byName.containsKey(name)) return name;
+            }
+        }
+        return PCM;
+    }
+
+    /**
+     * @return the packet codec id of {@code name}, -1 when unknown
+     */
+    public synchronized static int idOf(String name) {
+        Entry entry = byName.get(name);
+        return entry == null ? -1 : entry.id;
+    }
+
+    /**
+     * @return a new codec, null when {@code id} is unknown
+     */
+    public synchronized static VoiceCodec create(int id, int channels) {
+        Entry entry = id < 0 || id >= byId.length ? null : byId[id];
+        return entry == null ? null : entry.factory.apply(channels);
+    }
+}
@@ -8,40 +8,44 @@ import npclient.core.callback.OnPublishMessageSuccess;
 import npclient.core.callback.SubscribedTopicListener;
 import nputils.Constants;
 import nputils.DataTransfer;
+import nputils.FrameCodec;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 
 public class BasicClientTest {
 
-    public void singleThreadTest() throws IOException, ClassNotFoundException, InterruptedException {
+    public void singleThreadTest() throws IOException, InterruptedException {
         TCPConnection user1 = new TCPConnection("np-server.anhdh.me", 1699);
-        ObjectOutputStream outputStream1 = new ObjectOutputStream(user1.getOutputStream());
+        DataOutputStream outputStream1 = new DataOutputStream(user1.getOutputStream());
+        FrameCodec.writeHello(outputStream1);
         DataTransfer login1 = new DataTransfer(Constants.INITIALIZE_TOPIC, "Lam", Constants.INIT_COMMAND);
-        outputStream1.writeObject(login1);
+        FrameCodec.write(outputStream1, login1);
 
         TCPConnection user2 = new TCPConnection("np-server.anhdh.me", 1699);
-        ObjectOutputStream outputStream2 = new ObjectOutputStream(user2.getOutputStream());
+        DataOutputStream outputStream2 = new DataOutputStream(user2.getOutputStream());
+        FrameCodec.writeHello(outputStream2);
         DataTransfer login2 = new DataTransfer(Constants.INITIALIZE_TOPIC, "HA", Constants.INIT_COMMAND);
-        outputStream2.writeObject(login2);
+        FrameCodec.write(outputStream2, login2);
 
         Thread.sleep(5000);
 
         DataTransfer dataSub = new DataTransfer("chat/Lam", "HA", Constants.SUBSCRIBE);
-        outputStream2.writeObject(dataSub);
+        FrameCodec.write(outputStream2, dataSub);
 
         Thread.sleep(5000);
 
         DataTransfer dataPub = new DataTransfer("chat/HA", "Lam", Constants.PUBLISH, "message");
-        outputStream1.writeObject(dataPub);
+        FrameCodec.write(outputStream1, dataPub);
 
         Thread.sleep(5000);
 
-        ObjectInputStream inputStream2 = new ObjectInputStream(user2.getInputStream());
-        DataTransfer receivedData = (DataTransfer) inputStream2.readObject();
+        DataInputStream inputStream2 = new DataInputStream(user2.getInputStream());
+        FrameCodec.readHello(inputStream2);
+        DataTransfer receivedData = FrameCodec.read(inputStream2);
         Assertions.assertEquals("chat/Lam", receivedData.topic);
         Assertions.assertEquals("message", receivedData.data);
     }
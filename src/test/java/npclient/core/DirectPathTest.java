@@ -0,0 +1,111 @@
+package npclient.core;
+
+import nputils.VoicePacket;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+
+public class DirectPathTest {
+
+    private static DatagramSocket socket() throws IOException {
+        DatagramSocket socket = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+        socket.setSoTimeout(50);
+        return socket;
+    }
+
+    /**
+     * A candidate as sent by {@code from}, the relay when it is the server's.
+     */
+    private static DatagramPacket candidate(DatagramSocket of, SocketAddress from) {
+        byte[] data = VoicePacket.candidate((InetSocketAddress) of.getLocalSocketAddress());
+        return new DatagramPacket(data, data.length, from);
+    }
+
+    /**
+     * Receives what is waiting on the socket and hands it to its path, as the speaker thread does.
+     */
+    private static void pump(DatagramSocket socket, DirectPath path) throws IOException {
+        DatagramPacket packet = new DatagramPacket(new byte[VoicePacket.MAX_SIZE], VoicePacket.MAX_SIZE);
+        try {
+            socket.receive(packet);
+            path.handle(packet);
+        } catch (SocketTimeoutException ignored) {
+        }
+    }
+
+    @Test
+    public void probesOpenDirectPathBothWays() throws IOException {
+        SocketAddress relay = new InetSocketAddress(InetAddress.getLoopbackAddress(), 9);
+        try (DatagramSocket a = socket(); DatagramSocket b = socket()) {
+            DirectPath pathA = new DirectPath(a, relay);
+            DirectPath pathB = new DirectPath(b, relay);
+            Assertions.assertSame(relay, pathA.destination(relay));
+
+            // as sent by the server once both are registered
+            Assertions.assertTrue(pathA.handle(candidate(b, relay)));
+            Assertions.assertTrue(pathB.handle(candidate(a, relay)));
+
+            long deadline = System.currentTimeMillis() + 2000;
+            while (!(pathA.isDirect() && pathB.isDirect()) && System.currentTimeMillis() < deadline) {
+                pump(a, pathA);
+                pump(b, pathB);
+            }
+            Assertions.assertEquals(b.getLocalSocketAddress(), pathA.destination(relay));
+            Assertions.assertEquals(a.getLocalSocketAddress(), pathB.destination(relay));
+
+            byte[] voice = new byte[VoicePacket.HEADER_SIZE + 1];
+            VoicePacket.writeHeader(voice, VoicePacket.TYPE_VOICE, 0, 0, 0, 0, 0);
+            DatagramPacket packet = new DatagramPacket(voice, voice.length);
+            Assertions.assertFalse(pathA.handle(packet));
+        }
+    }
+
+    @Test
+    public void staysOnRelayWhenProbesAreNotAnswered() throws IOException, InterruptedException {
+        SocketAddress relay = new InetSocketAddress(InetAddress.getLoopbackAddress(), 9);
+        try (DatagramSocket a = socket()) {
+            DatagramPacket silent;
+            try (DatagramSocket gone = socket()) {
+                silent = candidate(gone, relay);
+            }
+            DirectPath path = new DirectPath(a, relay);
+            path.handle(silent);
+
+            long deadline = System.currentTimeMillis() + DirectPath.PROBE_ATTEMPTS * DirectPath.PROBE_INTERVAL_MS + 2000;
+            while (!path.isFailed() && System.currentTimeMillis() < deadline) {
+                pump(a, path);
+            }
+            Assertions.assertTrue(path.isFailed());
+            Assertions.assertFalse(path.isDirect());
+            Assertions.assertSame(relay, path.destination(relay));
+        }
+    }
+
+    @Test
+    public void onlyTheRelayAndItsCandidateAreHeard() throws IOException {
+        SocketAddress relay = new InetSocketAddress(InetAddress.getLoopbackAddress(), 9);
+        try (DatagramSocket a = socket(); DatagramSocket partner = socket(); DatagramSocket stranger = socket()) {
+            DirectPath path = new DirectPath(a, relay);
+            // a candidate from anyone but the relay is ignored, no probe goes out
+            Assertions.assertTrue(path.handle(candidate(stranger, stranger.getLocalSocketAddress())));
+            Assertions.assertThrows(SocketTimeoutException.class,
+                    () -> stranger.receive(new DatagramPacket(new byte[VoicePacket.MAX_SIZE], VoicePacket.MAX_SIZE)));
+
+            path.handle(candidate(partner, relay));
+            // a probe from someone else than the candidate gets no answer carrying its nonce
+            byte[] probe = VoicePacket.probe(VoicePacket.TYPE_PROBE, 42);
+            stranger.send(new DatagramPacket(probe, probe.length, a.getLocalSocketAddress()));
+            pump(a, path);
+            Assertions.assertThrows(SocketTimeoutException.class,
+                    () -> stranger.receive(new DatagramPacket(new byte[VoicePacket.MAX_SIZE], VoicePacket.MAX_SIZE)));
+            Assertions.assertFalse(path.isDirect());
+        }
+    }
+}
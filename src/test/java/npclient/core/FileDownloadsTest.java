@@ -0,0 +1,73 @@
+package npclient.core;
+
+import nputils.FileChunk;
+import nputils.FileInfo;
+import nputils.Utils;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+public class FileDownloadsTest {
+
+    private static FileInfo info(byte[] content, int chunkSize) {
+        FileInfo info = new FileInfo();
+        info.setName("photo.png");
+        info.setSize(content.length);
+        info.setMd5(Utils.computeMd5(content));
+        info.setTransferId(UUID.randomUUID().toString());
+        info.setChunkSize(chunkSize);
+        return info;
+    }
+
+    @Test
+    public void chunksAreWrittenToTheLocalFile() throws Exception {
+        byte[] content = new byte[10000];
+        new Random(1).nextBytes(content);
+        FileInfo info = info(content, 4096);
+        FileDownloads downloads = FileDownloads.getInstance();
+        downloads.start(null, info);
+        CompletableFuture<File> result = downloads.whenComplete(info);
+
+        for (int offset = 0; offset < content.length; offset += info.getChunkSize()) {
+            Assertions.assertFalse(result.isDone());
+            byte[] data = Arrays.copyOfRange(content, offset, Math.min(content.length, offset + info.getChunkSize()));
+            downloads.onChunk(null, new FileChunk(info.getTransferId(), offset, data));
+        }
+        File file = result.get();
+        Assertions.assertArrayEquals(content, Files.readAllBytes(file.toPath()));
+        Assertions.assertEquals(file, info.getLocalFile());
+        file.delete();
+    }
+
+    @Test
+    public void corruptAndRepeatedChunksAreSkipped() throws Exception {
+        byte[] content = new byte[100];
+        new Random(2).nextBytes(content);
+        FileInfo info = info(content, 64);
+        FileDownloads downloads = FileDownloads.getInstance();
+        downloads.start(null, info);
+        CompletableFuture<File> result = downloads.whenComplete(info);
+
+        FileChunk first = new FileChunk(info.getTransferId(), 0, Arrays.copyOf(content, 64));
+        FileChunk corrupt = new FileChunk(info.getTransferId(), 0, Arrays.copyOf(content, 64));
+        corrupt.getData()[3] ^= 1;
+        FileChunk last = new FileChunk(info.getTransferId(), 64, Arrays.copyOfRange(content, 64, 100));
+        downloads.onChunk(null, corrupt);
+        downloads.onChunk(null, last);
+        Assertions.assertFalse(result.isDone());
+
+        // sent again after a resume
+        downloads.onChunk(null, first);
+        downloads.onChunk(null, first);
+        downloads.onChunk(null, last);
+        File file = result.get();
+        Assertions.assertArrayEquals(content, Files.readAllBytes(file.toPath()));
+        file.delete();
+    }
+}
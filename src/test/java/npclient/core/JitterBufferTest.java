@@ -0,0 +1,59 @@
+package npclient.core;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class JitterBufferTest {
+
+    private static byte[] frame(int id) {
+        return new byte[]{(byte) id};
+    }
+
+    @Test
+    public void reordersAndConcealsLostFrames() throws InterruptedException {
+        JitterBuffer jitter = new JitterBuffer(1);
+        // 0 and 1 swapped, 2 lost, 1 duplicated
+        jitter.put(1, 1, frame(1), 1);
+        jitter.put(0, 0, frame(0), 1);
+        jitter.put(1, 1, frame(1), 1);
+        jitter.put(3, 3, frame(3), 3);
+
+        byte[] first = null;
+        while (first == null) first = jitter.poll();
+        Assertions.assertArrayEquals(frame(0), first);
+        Assertions.assertArrayEquals(frame(1), jitter.poll());
+        Assertions.assertSame(JitterBuffer.MISSING, jitter.poll());
+        Assertions.assertArrayEquals(frame(3), jitter.poll());
+
+        // arrives after its slot was concealed
+        jitter.put(2, 2, frame(2), 10);
+        Assertions.assertEquals(2, jitter.getLate());
+        Assertions.assertEquals(1, jitter.getMissing());
+    }
+
+    @Test
+    public void sequenceNumbersWrapAround() throws InterruptedException {
+        JitterBuffer jitter = new JitterBuffer(1);
+        jitter.put(0xFFFF, 0, frame(1), 0);
+        jitter.put(0, 1, frame(2), 1);
+
+        byte[] first = null;
+        while (first == null) first = jitter.poll();
+        Assertions.assertArrayEquals(frame(1), first);
+        Assertions.assertArrayEquals(frame(2), jitter.poll());
+        Assertions.assertEquals(2, jitter.getExpected());
+    }
+
+    @Test
+    public void depthFollowsJitter() {
+        JitterBuffer steady = new JitterBuffer(20);
+        JitterBuffer bursty = new JitterBuffer(20);
+        for (int i = 0; i < 50; i++) {
+            steady.put(i, i * 20, frame(i), i * 20 + 5);
+            // every other packet held back by 60 ms
+            bursty.put(i, i * 20, frame(i), i * 20 + 5 + (i % 2) * 60);
+        }
+        Assertions.assertEquals(1, steady.targetDepth());
+        Assertions.assertTrue(bursty.targetDepth() > 3, "depth " + bursty.targetDepth());
+    }
+}
@@ -0,0 +1,54 @@
+package npclient.core;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+public class VoiceActivityDetectorTest {
+    private static final int FRAME = 1024;
+
+    private static byte[] noise(Random random, double rms) {
+        byte[] pcm = new byte[FRAME];
+        for (int i = 0; i < FRAME; i += 2) {
+            short sample = (short) Math.round(random.nextGaussian() * rms);
+            pcm[i] = (byte) sample;
+            pcm[i + 1] = (byte) (sample >> 8);
+        }
+        return pcm;
+    }
+
+    @Test
+    public void silenceIsSuppressedAfterHangover() {
+        Random random = new Random(1);
+        VoiceActivityDetector vad = new VoiceActivityDetector(3);
+
+        Assertions.assertTrue(vad.isSpeech(noise(random, 5000), 0, FRAME));
+        for (int i = 0; i < 3; i++) {
+            Assertions.assertTrue(vad.isSpeech(noise(random, 10), 0, FRAME), "hangover frame " + i);
+        }
+        Assertions.assertFalse(vad.isSpeech(noise(random, 10), 0, FRAME));
+        Assertions.assertEquals(4, vad.getSpeech());
+        Assertions.assertEquals(1, vad.getSuppressed());
+    }
+
+    @Test
+    public void steadyBackgroundNoiseBecomesTheFloor() {
+        Random random = new Random(2);
+        VoiceActivityDetector vad = new VoiceActivityDetector(0);
+
+        // a loud hum is speech at first, until the floor has caught up with it
+        int sent = 0;
+        for (int i = 0; i < 300; i++) {
+            if (vad.isSpeech(noise(random, 600), 0, FRAME)) sent++;
+        }
+        Assertions.assertFalse(vad.isSpeech(noise(random, 600), 0, FRAME));
+        Assertions.assertTrue(sent < 200, "sent " + sent);
+        Assertions.assertTrue(vad.isSpeech(noise(random, 6000), 0, FRAME));
+
+        int level = vad.noiseLevel();
+        Assertions.assertEquals(VoiceActivityDetector.toDbov(600), level, 2);
+        byte[] comfort = new ComfortNoise().generate(level, FRAME);
+        Assertions.assertEquals(600, VoiceActivityDetector.rms(comfort, 0, FRAME), 120);
+    }
+}
@@ -0,0 +1,75 @@
+package npserver.handler;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class OutboundQueueTest {
+
+    private ByteBuffer frame(int id) {
+        return ByteBuffer.wrap(new byte[]{(byte) id});
+    }
+
+    @Test
+    public void fullQueueDropsOldestPresenceFrame() {
+        OutboundQueue queue = new OutboundQueue(3);
+        queue.offer(frame(1), OverflowPolicy.DISCONNECT);
+        queue.offer(frame(2), OverflowPolicy.DROP_OLDEST);
+        queue.offer(frame(3), OverflowPolicy.DROP_OLDEST);
+
+        Assertions.assertTrue(queue.offer(frame(4), OverflowPolicy.DROP_OLDEST));
+        Assertions.assertEquals(3, queue.depth());
+        Assertions.assertEquals(1, queue.dropped());
+        Assertions.assertEquals(1, queue.poll().get(0));
+        Assertions.assertEquals(3, queue.poll().get(0));
+        Assertions.assertEquals(4, queue.poll().get(0));
+    }
+
+    @Test
+    public void fullQueueAsksToDisconnectForChatFrame() {
+        OutboundQueue queue = new OutboundQueue(2);
+        Assertions.assertTrue(queue.offer(frame(1), OverflowPolicy.DISCONNECT));
+        Assertions.assertTrue(queue.offer(frame(2), OverflowPolicy.DISCONNECT));
+        Assertions.assertFalse(queue.offer(frame(3), OverflowPolicy.DISCONNECT));
+        Assertions.assertEquals(2, queue.maxDepth());
+        Assertions.assertEquals(2, queue.enqueued());
+    }
+
+    @Test
+    public void closeReleasesWaitingWriter() throws InterruptedException {
+        OutboundQueue queue = new OutboundQueue(2);
+        Thread closer = new Thread(() -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException ignored) {
+            }
+            queue.close();
+        });
+        closer.start();
+        Assertions.assertNull(queue.take());
+    }
+
+    @Test
+    public void drainedTaskRunsOnceTheQueueIsShortEnough() {
+        OutboundQueue queue = new OutboundQueue(8);
+        for (int i = 0; i < 4; i++) {
+            queue.offer(frame(i), OverflowPolicy.DISCONNECT);
+        }
+        AtomicInteger runs = new AtomicInteger();
+        queue.whenDrained(4, runs::incrementAndGet);
+        Assertions.assertEquals(1, runs.get());
+
+        queue.whenDrained(2, runs::incrementAndGet);
+        queue.poll();
+        Assertions.assertEquals(1, runs.get());
+        queue.poll();
+        Assertions.assertEquals(2, runs.get());
+
+        // a closed connection holds nothing back
+        queue.whenDrained(0, runs::incrementAndGet);
+        queue.close();
+        Assertions.assertEquals(3, runs.get());
+    }
+}
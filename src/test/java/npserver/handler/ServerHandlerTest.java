@@ -0,0 +1,40 @@
+package npserver.handler;
+
+import nputils.Constants;
+import nputils.DataTransfer;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class ServerHandlerTest {
+
+    private static ServerHandler handler() {
+        return new ServerHandler("/127.0.0.1:1") {
+            @Override
+            protected void closeTransport() {
+            }
+        };
+    }
+
+    @Test
+    public void framesWithoutCommandNameOrTopicCloseTheConnection() {
+        Assertions.assertFalse(handler().handle(new DataTransfer("group/np", "anhdh", null)));
+        Assertions.assertFalse(handler().handle(new DataTransfer(null, null, Constants.INIT_COMMAND)));
+        Assertions.assertFalse(handler().handle(new DataTransfer("group/np", null, Constants.SUBSCRIBE)));
+        Assertions.assertFalse(handler().handle(new DataTransfer(null, "anhdh", Constants.PUBLISH)));
+        Assertions.assertFalse(handler().handle(new DataTransfer(null, "anhdh", Constants.SUBSCRIBE)));
+    }
+
+    @Test
+    public void connectionThatNeverLoggedInCannotUseAnotherUsersName() {
+        ServerHandler user = handler();
+        ServerHandler intruder = handler();
+        try {
+            Assertions.assertTrue(user.handle(new DataTransfer(null, "checkname1", Constants.INIT_COMMAND)));
+            Assertions.assertFalse(intruder.handle(new DataTransfer("group/np", "checkname1", Constants.SUBSCRIBE)));
+            Assertions.assertTrue(intruder.getSubscribedTopics().isEmpty());
+        } finally {
+            user.closeAll();
+            intruder.closeAll();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package npserver.server;
+
+import npserver.BlobServer;
+import npserver.utils.BlobStore;
+import npserver.utils.ConfigReader;
+import nputils.BlobRequest;
+import nputils.Digests;
+import nputils.FrameCodec;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+public class BlobServerTest {
+
+    @Test
+    public void rangesOfBlobsAreSentOverOneConnection() throws Exception {
+        byte[] content = new byte[300000];
+        new Random(System.nanoTime()).nextBytes(content);
+        Digests.Tree tree = new Digests.Tree();
+        tree.update(content, 0, content.length);
+        String id = tree.digest();
+        File source = File.createTempFile("blob", ".bin");
+        Files.write(source.toPath(), content);
+        BlobStore.add(id, source);
+        source.delete();
+
+        ConfigReader config = new ConfigReader();
+        config.portBlob = 0;
+        BlobServer blobServer = new BlobServer(config);
+        Thread thread = new Thread(() -> {
+            try {
+                blobServer.StartServer();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        while (blobServer.server == null) Thread.sleep(10);
+
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), blobServer.server.socket().getLocalPort())) {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            FrameCodec.writeHello(out);
+
+            new BlobRequest(id, 0, BlobRequest.TO_END).write(out);
+            Assertions.assertArrayEquals(content, read(in));
+            // resumed from an offset
+            new BlobRequest(id, 100000, 5000).write(out);
+            Assertions.assertArrayEquals(Arrays.copyOfRange(content, 100000, 105000), read(in));
+            new BlobRequest(id, 299990, 5000).write(out);
+            Assertions.assertArrayEquals(Arrays.copyOfRange(content, 299990, 300000), read(in));
+
+            new BlobRequest(id, 300001, BlobRequest.TO_END).write(out);
+            Assertions.assertEquals(BlobRequest.NOT_FOUND, in.readLong());
+            new BlobRequest(id, 0, -5).write(out);
+            Assertions.assertEquals(BlobRequest.NOT_FOUND, in.readLong());
+            new BlobRequest("../" + id, 0, BlobRequest.TO_END).write(out);
+            Assertions.assertEquals(BlobRequest.NOT_FOUND, in.readLong());
+        } finally {
+            blobServer.server.close();
+        }
+    }
+
+    private static byte[] read(DataInputStream in) throws IOException {
+        byte[] data = new byte[(int) in.readLong()];
+        in.readFully(data);
+        return data;
+    }
+}
@@ -4,26 +4,103 @@ import npserver.ServerTest;
 import npserver.handler.ReadWriteHandler;
 import nputils.Constants;
 import nputils.DataTransfer;
+import nputils.FrameCodec;
+import nputils.PresenceUpdate;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.time.Duration;
+import java.util.Collections;
 
 public class ExtensionTest extends ServerTest {
     @Test
     public void clientSubscribeAndReceiveOnlineNotification() throws IOException, InterruptedException {
         this.generateClient();
         ReadWriteHandler handler1 = this.handlers.get(0);
+        // let the presence window commit handler1's join before asking for a snapshot
+        this.delay();
         DataTransfer dataSub = new DataTransfer(Constants.ONLINE_TOPIC, handler1.name, Constants.SUBSCRIBE);
         handler1.sendObj(dataSub);
         this.delay();
 
         this.generateClient();
         this.delay();
-        DataTransfer data = handler1.receiveObj();
-        data = handler1.receiveObj();
-        ArrayList<String> members = (ArrayList<String>)data.data;
-        Assertions.assertEquals(handlers.size(), members.size());
+        PresenceUpdate snapshot = (PresenceUpdate) handler1.receiveObj().data;
+        Assertions.assertTrue(snapshot.isSnapshot());
+        Assertions.assertTrue(snapshot.getJoined().contains(handler1.name));
+
+        PresenceUpdate delta = (PresenceUpdate) handler1.receiveObj().data;
+        Assertions.assertFalse(delta.isSnapshot());
+        Assertions.assertEquals(snapshot.getVersion() + 1, delta.getVersion());
+        Assertions.assertEquals(Collections.singletonList(handlers.get(1).name), delta.getJoined());
+        Assertions.assertEquals(handlers.size(), snapshot.getJoined().size() + delta.getJoined().size());
+    }
+
+    @Test
+    public void requestWithIdIsAcknowledged() throws IOException, InterruptedException {
+        this.generateClient();
+        ReadWriteHandler handler1 = this.handlers.get(0);
+        DataTransfer dataSub = new DataTransfer(this.generateGroupTopic("np"), handler1.name, Constants.SUBSCRIBE);
+        dataSub.requestId = 42;
+        handler1.sendObj(dataSub);
+
+        DataTransfer ack = handler1.receiveObj();
+        Assertions.assertEquals(Constants.ACK, ack.command);
+        Assertions.assertEquals(42, ack.requestId);
+
+        String topic = Constants.PREFIX_LOGIN + Constants.SPLITTER + handler1.name;
+        DataTransfer dataLogin = new DataTransfer(topic, handler1.name, Constants.PUBLISH);
+        dataLogin.requestId = 43;
+        handler1.sendObj(dataLogin);
+        ack = handler1.receiveObj();
+        Assertions.assertEquals(43, ack.requestId);
+        Assertions.assertEquals(true, ack.data);
+    }
+
+    @Test
+    public void frameLongerThanALoginBeforeInitClosesTheConnection() throws IOException {
+        try (Socket client = new Socket(InetAddress.getLocalHost(), cr.port)) {
+            client.setSoTimeout(5000);
+            DataOutputStream out = new DataOutputStream(client.getOutputStream());
+            DataInputStream in = new DataInputStream(client.getInputStream());
+            FrameCodec.writeHello(out);
+            FrameCodec.readHello(in);
+            out.writeInt(Constants.MAX_LOGIN_FRAME_SIZE + 1);
+            out.flush();
+            Assertions.assertEquals(-1, in.read());
+        }
+    }
+
+    @Test
+    public void malformedFrameClosesOnlyItsOwnConnection() throws IOException {
+        this.generateClient();
+        ReadWriteHandler served = this.handlers.get(0);
+        served.getSocket().setSoTimeout(5000);
+        // on every event loop, a frame without a command
+        for (int i = 0; i < cr.eventLoops; i++) {
+            try (Socket client = new Socket(InetAddress.getLocalHost(), cr.port)) {
+                client.setSoTimeout(5000);
+                DataOutputStream out = new DataOutputStream(client.getOutputStream());
+                DataInputStream in = new DataInputStream(client.getInputStream());
+                FrameCodec.writeHello(out);
+                FrameCodec.readHello(in);
+                FrameCodec.write(out, new DataTransfer(null, "nobody", null));
+                Assertions.assertEquals(-1, in.read());
+            }
+        }
+
+        // the clients of those loops are still served, the ones connected before and new ones
+        DataTransfer dataSub = new DataTransfer(this.generateGroupTopic("np"), served.name, Constants.SUBSCRIBE);
+        dataSub.requestId = 7;
+        served.sendObj(dataSub);
+        DataTransfer ack = served.receiveObj();
+        Assertions.assertNotNull(ack);
+        Assertions.assertEquals(7, ack.requestId);
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(10), () -> this.generateClient());
     }
 }
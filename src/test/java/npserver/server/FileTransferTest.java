@@ -0,0 +1,206 @@
+package npserver.server;
+
+import npserver.ServerTest;
+import npserver.handler.ReadWriteHandler;
+import nputils.Constants;
+import nputils.DataTransfer;
+import nputils.Digests;
+import nputils.FileChunk;
+import nputils.FileInfo;
+import nputils.FileRange;
+import nputils.Utils;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+public class FileTransferTest extends ServerTest {
+
+    private DataTransfer publish(ReadWriteHandler from, String topic, Object data, long requestId) {
+        DataTransfer publish = new DataTransfer(topic, from.name, Constants.PUBLISH, data);
+        publish.requestId = requestId;
+        from.sendObj(publish);
+        return publish;
+    }
+
+    private FileInfo info(byte[] content, String transferId) {
+        FileInfo info = new FileInfo();
+        info.setName("a.bin");
+        info.setSize(content.length);
+        info.setMd5(Utils.computeMd5(content));
+        info.setTransferId(transferId);
+        info.setChunkSize(60);
+        return info;
+    }
+
+    @Test
+    public void chunksAreRelayedInOrderAlongOtherMessages() throws IOException, InterruptedException {
+        this.generateClient(2);
+        ReadWriteHandler receiver = this.handlers.get(0);
+        ReadWriteHandler sender = this.handlers.get(1);
+        receiver.sendObj(new DataTransfer(this.generateChatTopic(sender.name), receiver.name, Constants.SUBSCRIBE));
+        this.delay();
+
+        byte[] content = new byte[100];
+        Arrays.fill(content, (byte) 7);
+        FileInfo info = info(content, "transfer-1");
+
+        String topic = this.generateChatTopic(receiver.name);
+        publish(sender, topic, info, 1);
+        publish(sender, topic, new FileChunk("transfer-1", 0, Arrays.copyOfRange(content, 0, 60)), 2);
+        publish(sender, topic, "in between", 0);
+        publish(sender, topic, new FileChunk("transfer-1", 60, Arrays.copyOfRange(content, 60, 100)), 3);
+
+        FileInfo meta = (FileInfo) receiver.receiveObj().data;
+        Assertions.assertEquals("transfer-1", meta.getTransferId());
+        // chunks are relayed by the file thread once stored, the text does not wait for them
+        List<FileChunk> chunks = new ArrayList<>();
+        List<Object> others = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Object data = receiver.receiveObj().data;
+            if (data instanceof FileChunk) chunks.add((FileChunk) data);
+            else others.add(data);
+        }
+        Assertions.assertEquals(Collections.singletonList("in between"), others);
+        Assertions.assertEquals(0, chunks.get(0).getOffset());
+        Assertions.assertEquals(60, chunks.get(1).getOffset());
+        Assertions.assertTrue(chunks.get(1).isIntact());
+
+        // the receiver keeps up, nothing holds the ACKs back
+        Assertions.assertEquals(1, sender.receiveObj().requestId);
+        for (long id = 2; id <= 3; id++) {
+            DataTransfer ack = sender.receiveObj();
+            Assertions.assertEquals(id, ack.requestId);
+            Assertions.assertEquals(true, ack.data);
+        }
+    }
+
+    @Test
+    public void transfersWithIdsUnfitForAFileNameAreRefused() throws IOException, InterruptedException {
+        this.generateClient(2);
+        ReadWriteHandler receiver = this.handlers.get(0);
+        ReadWriteHandler sender = this.handlers.get(1);
+        String topic = this.generateChatTopic(receiver.name);
+
+        byte[] content = new byte[100];
+        publish(sender, topic, info(content, "../transfer"), 1);
+        publish(sender, topic, info(content, "transfer.2"), 2);
+        for (long id = 1; id <= 2; id++) {
+            DataTransfer ack = sender.receiveObj();
+            Assertions.assertEquals(id, ack.requestId);
+            Assertions.assertEquals(false, ack.data);
+        }
+    }
+
+    @Test
+    public void uploadAndDownloadResumeFromTheStoredChunks() throws IOException, InterruptedException {
+        this.generateClient(3);
+        ReadWriteHandler receiver = this.handlers.get(0);
+        ReadWriteHandler sender = this.handlers.get(1);
+        ReadWriteHandler stranger = this.handlers.get(2);
+        receiver.sendObj(new DataTransfer(this.generateChatTopic(sender.name), receiver.name, Constants.SUBSCRIBE));
+        this.delay();
+
+        byte[] content = new byte[100];
+        Arrays.fill(content, (byte) 9);
+        String topic = this.generateChatTopic(receiver.name);
+        String status = Constants.PREFIX_FILE + Constants.SPLITTER + "transfer-2";
+        publish(sender, topic, info(content, "transfer-2"), 1);
+        FileChunk first = new FileChunk("transfer-2", 0, Arrays.copyOfRange(content, 0, 60));
+        publish(sender, topic, first, 2);
+        Assertions.assertEquals(1, sender.receiveObj().requestId);
+        Assertions.assertEquals(2, sender.receiveObj().requestId);
+
+        // the upload was cut, the server tells where to go on from
+        publish(sender, status, new FileRange(Constants.FILE_STATUS, 0), 3);
+        DataTransfer stored = sender.receiveObj();
+        Assertions.assertEquals(3, stored.requestId);
+        Assertions.assertEquals(60, ((FileRange) stored.data).getOffset());
+        // a chunk sent twice is acknowledged but not relayed again
+        publish(sender, topic, first, 4);
+        Assertions.assertEquals(true, sender.receiveObj().data);
+        publish(sender, topic, new FileChunk("transfer-2", 60, Arrays.copyOfRange(content, 60, 100)), 5);
+        Assertions.assertEquals(5, sender.receiveObj().requestId);
+
+        Assertions.assertEquals("transfer-2", ((FileInfo) receiver.receiveObj().data).getTransferId());
+        Assertions.assertEquals(0, ((FileChunk) receiver.receiveObj().data).getOffset());
+        Assertions.assertEquals(60, ((FileChunk) receiver.receiveObj().data).getOffset());
+
+        // the receiver lost the last chunk and pulls it from the server
+        publish(receiver, status, new FileRange(Constants.FILE_RESUME, 60), 1);
+        DataTransfer resent = receiver.receiveObj();
+        Assertions.assertEquals(this.generateChatTopic(sender.name), resent.topic);
+        FileChunk chunk = (FileChunk) resent.data;
+        Assertions.assertEquals(60, chunk.getOffset());
+        Assertions.assertTrue(chunk.isIntact());
+        DataTransfer ack = receiver.receiveObj();
+        Assertions.assertEquals(1, ack.requestId);
+        Assertions.assertEquals(100, ((FileRange) ack.data).getOffset());
+
+        // only the sender and the recipients know about the transfer
+        publish(stranger, status, new FileRange(Constants.FILE_RESUME, 0), 1);
+        Assertions.assertNull(stranger.receiveObj().data);
+        publish(stranger, status, new FileRange(Constants.FILE_STATUS, 0), 2);
+        Assertions.assertNull(stranger.receiveObj().data);
+
+        // delivered to everyone, the server lets it go
+        publish(receiver, status, new FileRange(Constants.FILE_CONFIRM, 100), 2);
+        Assertions.assertEquals(2, receiver.receiveObj().requestId);
+        publish(sender, status, new FileRange(Constants.FILE_STATUS, 0), 6);
+        Assertions.assertNull(sender.receiveObj().data);
+    }
+
+    @Test
+    public void fileSentAgainIsPulledFromTheBlobStore() throws IOException, InterruptedException {
+        this.generateClient(2);
+        ReadWriteHandler receiver = this.handlers.get(0);
+        ReadWriteHandler sender = this.handlers.get(1);
+        receiver.sendObj(new DataTransfer(this.generateChatTopic(sender.name), receiver.name, Constants.SUBSCRIBE));
+        this.delay();
+
+        // new content on every run, the store outlives the server
+        byte[] content = new byte[100];
+        new Random(System.nanoTime()).nextBytes(content);
+        Digests.Tree tree = new Digests.Tree();
+        tree.update(content, 0, content.length);
+        String blobId = tree.digest();
+        String topic = this.generateChatTopic(receiver.name);
+        String offer = Constants.PREFIX_BLOB + Constants.SPLITTER + blobId;
+
+        publish(sender, offer, Constants.BLOB_OFFER, 1);
+        Assertions.assertEquals(false, sender.receiveObj().data);
+        // a reference to content the server does not hold is refused
+        FileInfo info = info(content, "transfer-3");
+        info.setBlobId(blobId);
+        info.referBlob();
+        publish(sender, topic, info, 2);
+        Assertions.assertEquals(false, sender.receiveObj().data);
+
+        info.setTransferId("transfer-3");
+        publish(sender, topic, info, 3);
+        publish(sender, topic, new FileChunk("transfer-3", 0, Arrays.copyOfRange(content, 0, 60)), 4);
+        publish(sender, topic, new FileChunk("transfer-3", 60, Arrays.copyOfRange(content, 60, 100)), 5);
+        for (long id = 3; id <= 5; id++) Assertions.assertEquals(id, sender.receiveObj().requestId);
+        for (int i = 0; i < 3; i++) receiver.receiveObj();
+
+        // the second time only the reference goes through
+        publish(sender, offer, Constants.BLOB_OFFER, 6);
+        Assertions.assertEquals(true, sender.receiveObj().data);
+        info.referBlob();
+        publish(sender, topic, info, 7);
+        Assertions.assertEquals(true, sender.receiveObj().data);
+        FileInfo reference = (FileInfo) receiver.receiveObj().data;
+        Assertions.assertTrue(reference.isBlobReference());
+
+        publish(receiver, Constants.PREFIX_FILE + Constants.SPLITTER + blobId, new FileRange(Constants.FILE_RESUME, 0), 1);
+        FileChunk chunk = (FileChunk) receiver.receiveObj().data;
+        Assertions.assertEquals(blobId, chunk.getTransferId());
+        Assertions.assertArrayEquals(content, chunk.getData());
+        Assertions.assertEquals(100, ((FileRange) receiver.receiveObj().data).getOffset());
+    }
+}
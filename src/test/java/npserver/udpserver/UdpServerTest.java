@@ -1,12 +1,22 @@
 package npserver.udpserver;
 
 import npserver.ServerTest;
+import npserver.utils.ConfigReader;
+import npserver.utils.UdpConnManagement;
 import nputils.Constants;
+import nputils.RelayShard;
+import nputils.VoicePacket;
+import nputils.VoiceReport;
+import nputils.codec.VoiceCodecs;
 import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
 import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
 import java.net.*;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
 
 public class UdpServerTest extends ServerTest {
     public void clientPublishToUdpServer() throws IOException, InterruptedException {
@@ -28,4 +38,222 @@ public class UdpServerTest extends ServerTest {
         String result = new String(newBuff);
         Assertions.assertEquals(this.user, result);
     }
+
+    private int workers;
+
+    private DatagramSocket register(String name) throws IOException {
+        DatagramSocket socket = new DatagramSocket();
+        socket.setSoTimeout(3000);
+        byte[] initBuf = new byte[Constants.BUFFER_SIZE];
+        initBuf[0] = 0;
+        initBuf[1] = (byte) name.length();
+        System.arraycopy(name.getBytes(), 0, initBuf, 2, name.length());
+        socket.send(new DatagramPacket(initBuf, initBuf.length, InetAddress.getByName("localhost"), cr.portUdp));
+
+        DatagramPacket ack = new DatagramPacket(new byte[2], 2);
+        socket.receive(ack);
+        Assertions.assertEquals(0, ack.getData()[0]);
+        workers = ack.getData()[1];
+        return socket;
+    }
+
+    @Test
+    public void relayForwardsOnlyReceivedBytesToPartner() throws IOException, InterruptedException {
+        DatagramSocket caller = register("relay1");
+        DatagramSocket callee = register("relay2");
+        this.delay();
+        UdpConnManagement.tcpAddPair("relay1", "relay2");
+
+        byte[] voice = new byte[100];
+        voice[0] = 1;
+        voice[99] = 42;
+        int relayPort = cr.portUdp + RelayShard.of("relay1", "relay2", workers);
+        caller.send(new DatagramPacket(voice, voice.length, InetAddress.getByName("localhost"), relayPort));
+
+        DatagramPacket recvPacket = new DatagramPacket(new byte[Constants.BUFFER_SIZE], Constants.BUFFER_SIZE);
+        callee.receive(recvPacket);
+        Assertions.assertEquals(voice.length, recvPacket.getLength());
+        Assertions.assertEquals(42, recvPacket.getData()[99]);
+
+        UdpConnManagement.tcpRemovePair("relay1");
+        caller.close();
+        callee.close();
+    }
+
+    private InetSocketAddress receiveCandidate(DatagramSocket socket) throws IOException {
+        DatagramPacket packet = new DatagramPacket(new byte[VoicePacket.MAX_SIZE], VoicePacket.MAX_SIZE);
+        socket.receive(packet);
+        Assertions.assertEquals(VoicePacket.TYPE_CANDIDATE, VoicePacket.type(packet.getData()));
+        return VoicePacket.readCandidate(packet.getData(), packet.getLength());
+    }
+
+    @Test
+    public void pairedClientsLearnEachOthersAddress() throws IOException, InterruptedException {
+        // the call is accepted first, the clients register once they start talking
+        UdpConnManagement.tcpAddPair("p2p1", "p2p2");
+        DatagramSocket caller = register("p2p1");
+        DatagramSocket callee = register("p2p2");
+
+        Assertions.assertEquals(callee.getLocalPort(), receiveCandidate(caller).getPort());
+        Assertions.assertEquals(caller.getLocalPort(), receiveCandidate(callee).getPort());
+
+        // a client talking directly keeps its relay route with keepalives, which are not relayed
+        int relayPort = cr.portUdp + RelayShard.of("p2p1", "p2p2", workers);
+        caller.send(new DatagramPacket(new byte[]{VoicePacket.TYPE_KEEPALIVE}, 1, InetAddress.getByName("localhost"), relayPort));
+        callee.setSoTimeout(500);
+        Assertions.assertThrows(SocketTimeoutException.class,
+                () -> callee.receive(new DatagramPacket(new byte[VoicePacket.MAX_SIZE], VoicePacket.MAX_SIZE)));
+
+        UdpConnManagement.tcpRemovePair("p2p1");
+        caller.close();
+        callee.close();
+    }
+
+    @Test
+    public void receiverReportsAreRecordedPerCallAndRelayed() throws IOException, InterruptedException {
+        DatagramSocket caller = register("rep1");
+        DatagramSocket callee = register("rep2");
+        this.delay();
+        UdpConnManagement.tcpAddPair("rep1", "rep2");
+        int relayPort = cr.portUdp + RelayShard.of("rep1", "rep2", workers);
+        InetAddress server = InetAddress.getByName("localhost");
+
+        byte[] first = new VoiceReport(7, 100, 100, 3, 0, 0, -1).toBytes();
+        caller.send(new DatagramPacket(first, first.length, server, relayPort));
+        // half of the next hundred packets lost
+        int echo = (int) System.currentTimeMillis() - 40;
+        byte[] second = new VoiceReport(7, 200, 150, 12, echo, 10, 60).toBytes();
+        caller.send(new DatagramPacket(second, second.length, server, relayPort));
+
+        // the callee sent the stream, it gets the reports back to work out the round trip
+        DatagramPacket packet = new DatagramPacket(new byte[VoicePacket.MAX_SIZE], VoicePacket.MAX_SIZE);
+        callee.receive(packet);
+        callee.receive(packet);
+        VoiceReport relayed = VoiceReport.read(packet.getData(), packet.getLength());
+        Assertions.assertNotNull(relayed);
+        Assertions.assertEquals(150, relayed.received);
+        Assertions.assertTrue(relayed.roundTrip(System.currentTimeMillis()) >= 30);
+
+        Assertions.assertEquals("loss 50.0% jitter 12 ms rtt 60 ms", UdpConnManagement.callQuality().get("rep1 <- rep2"));
+
+        UdpConnManagement.tcpRemovePair("rep1");
+        caller.close();
+        callee.close();
+    }
+
+    private void speak(DatagramSocket socket, int port, int ssrc, int level) throws IOException {
+        byte[] voice = new byte[VoicePacket.HEADER_SIZE + 4];
+        VoicePacket.writeHeader(voice, VoicePacket.TYPE_VOICE, 0, 0, 0, ssrc, level);
+        socket.send(new DatagramPacket(voice, voice.length, InetAddress.getByName("localhost"), port));
+    }
+
+    private int drain(DatagramSocket socket) throws IOException {
+        int received = 0;
+        socket.setSoTimeout(300);
+        try {
+            while (true) {
+                socket.receive(new DatagramPacket(new byte[Constants.BUFFER_SIZE], Constants.BUFFER_SIZE));
+                received++;
+            }
+        } catch (SocketTimeoutException e) {
+            return received;
+        }
+    }
+
+    @Test
+    public void conferenceForwardsOnlyTheLoudestSpeakers() throws IOException, InterruptedException {
+        // the test config forwards 3 speakers
+        DatagramSocket[] sockets = new DatagramSocket[4];
+        for (int i = 0; i < sockets.length; i++) {
+            sockets[i] = register("conf" + i);
+            UdpConnManagement.joinRoom("room", "conf" + i);
+        }
+        int port = cr.portUdp + RelayShard.ofRoom("room", workers);
+
+        // conf0..2 talk, conf3 only sends background noise
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < sockets.length; i++) {
+                speak(sockets[i], port, i, i < 3 ? 10 : 120);
+            }
+            Thread.sleep(20);
+        }
+        for (DatagramSocket socket : sockets) {
+            drain(socket);
+        }
+
+        speak(sockets[3], port, 3, 120);
+        speak(sockets[0], port, 0, 10);
+
+        DatagramPacket recvPacket = new DatagramPacket(new byte[Constants.BUFFER_SIZE], Constants.BUFFER_SIZE);
+        sockets[1].receive(recvPacket);
+        Assertions.assertEquals(0, VoicePacket.ssrc(recvPacket.getData()));
+        Assertions.assertEquals(0, drain(sockets[1]));
+        Assertions.assertEquals(0, drain(sockets[0]), "the quiet participant is not forwarded, nor is anyone's own voice");
+
+        for (int i = 0; i < sockets.length; i++) {
+            UdpConnManagement.leaveRoom("conf" + i);
+            sockets[i].close();
+        }
+    }
+
+    private void speakPcm(DatagramSocket socket, int port, int ssrc, int seq, short sample) throws IOException {
+        byte[] voice = new byte[VoicePacket.MAX_SIZE];
+        VoicePacket.writeHeader(voice, VoicePacket.TYPE_VOICE, VoiceCodecs.idOf(VoiceCodecs.PCM), seq, 0, ssrc, 10);
+        for (int i = VoicePacket.HEADER_SIZE; i < voice.length; i += 2) {
+            voice[i] = (byte) sample;
+            voice[i + 1] = (byte) (sample >> 8);
+        }
+        socket.send(new DatagramPacket(voice, voice.length, InetAddress.getByName("localhost"), port));
+    }
+
+    @Test
+    public void mixedParticipantReceivesOneStreamWithoutTheirOwnVoice() throws IOException, InterruptedException {
+        // only the nio relay mixes
+        Assumptions.assumeTrue(ConfigReader.TRANSPORT_NIO.equals(cr.udpTransport));
+        DatagramSocket mixed = register("mix0");
+        DatagramSocket speaker1 = register("mix1");
+        DatagramSocket speaker2 = register("mix2");
+        UdpConnManagement.joinRoom("mixroom", "mix0", VoiceCodecs.idOf(VoiceCodecs.PCM));
+        UdpConnManagement.joinRoom("mixroom", "mix1");
+        UdpConnManagement.joinRoom("mixroom", "mix2");
+        int port = cr.portUdp + RelayShard.ofRoom("mixroom", workers);
+
+        for (int seq = 0; seq < 15; seq++) {
+            speakPcm(mixed, port, 0, seq, (short) 500);
+            speakPcm(speaker1, port, 1, seq, (short) 1000);
+            speakPcm(speaker2, port, 2, seq, (short) 2000);
+            Thread.sleep(32);
+        }
+
+        Set<Integer> ssrcs = new HashSet<>();
+        Set<Integer> samples = new HashSet<>();
+        mixed.setSoTimeout(500);
+        try {
+            while (true) {
+                DatagramPacket recvPacket = new DatagramPacket(new byte[VoicePacket.MAX_SIZE], VoicePacket.MAX_SIZE);
+                mixed.receive(recvPacket);
+                byte[] data = recvPacket.getData();
+                ssrcs.add(VoicePacket.ssrc(data));
+                samples.add((int) (short) ((data[VoicePacket.HEADER_SIZE] & 0xFF) | (data[VoicePacket.HEADER_SIZE + 1] << 8)));
+            }
+        } catch (SocketTimeoutException e) {
+            // drained
+        }
+        Assertions.assertEquals(1, ssrcs.size(), "one stream, whoever speaks");
+        Assertions.assertTrue(samples.contains(3000), "both speakers mixed: " + samples);
+        samples.removeAll(Arrays.asList(1000, 2000, 3000));
+        Assertions.assertTrue(samples.isEmpty(), "own voice is not mixed in: " + samples);
+
+        // forwarded participants still get every speaker's own frames
+        DatagramPacket recvPacket = new DatagramPacket(new byte[VoicePacket.MAX_SIZE], VoicePacket.MAX_SIZE);
+        speaker1.receive(recvPacket);
+        Assertions.assertNotEquals(1, VoicePacket.ssrc(recvPacket.getData()));
+
+        for (String name : new String[]{"mix0", "mix1", "mix2"}) {
+            UdpConnManagement.leaveRoom(name);
+        }
+        mixed.close();
+        speaker1.close();
+        speaker2.close();
+    }
 }
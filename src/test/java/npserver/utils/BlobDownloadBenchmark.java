@@ -0,0 +1,155 @@
+package npserver.utils;
+
+import npserver.BlobServer;
+import nputils.BlobRequest;
+import nputils.Constants;
+import nputils.DataTransfer;
+import nputils.FileChunk;
+import nputils.FrameCodec;
+import nputils.Utils;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Download of a whole blob over loopback, from the blob port with transferTo against the chunks
+ * framed and written like {@code sendObj} does for a resume: the first copies nothing onto the heap,
+ * the second reads, encodes and decodes every byte.
+ * <p>
+ * Run with {@code mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=npserver.utils.BlobDownloadBenchmark}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BlobDownloadBenchmark {
+
+    @Param({"1048576", "16777216"})
+    public int blobSize;
+
+    private String id;
+    private ServerSocket framedServer;
+    private BlobServer blobServer;
+    private Socket blobSocket;
+    private DataOutputStream blobOut;
+    private DataInputStream blobIn;
+    private Socket framedSocket;
+    private DataOutputStream framedOut;
+    private DataInputStream framedIn;
+    private final byte[] buffer = new byte[Constants.FILE_CHUNK_SIZE];
+
+    @Setup
+    public void setUp() throws Exception {
+        byte[] content = new byte[blobSize];
+        new Random(blobSize).nextBytes(content);
+        id = Utils.toHex(MessageDigest.getInstance("SHA-256").digest(content));
+        File source = File.createTempFile("blob", ".bin");
+        Files.write(source.toPath(), content);
+        BlobStore.add(id, source);
+        source.delete();
+
+        ConfigReader config = new ConfigReader();
+        config.portBlob = 0;
+        blobServer = new BlobServer(config);
+        daemon(() -> {
+            blobServer.StartServer();
+            return null;
+        });
+        while (blobServer.server == null) Thread.sleep(10);
+        framedServer = new ServerSocket(0);
+        daemon(this::serveFramed);
+
+        InetAddress host = InetAddress.getLoopbackAddress();
+        blobSocket = new Socket(host, blobServer.server.socket().getLocalPort());
+        blobOut = new DataOutputStream(new BufferedOutputStream(blobSocket.getOutputStream()));
+        blobIn = new DataInputStream(new BufferedInputStream(blobSocket.getInputStream(), buffer.length));
+        FrameCodec.writeHello(blobOut);
+        framedSocket = new Socket(host, framedServer.getLocalPort());
+        framedOut = new DataOutputStream(framedSocket.getOutputStream());
+        framedIn = new DataInputStream(new BufferedInputStream(framedSocket.getInputStream(), buffer.length));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        blobSocket.close();
+        framedSocket.close();
+        blobServer.server.close();
+        framedServer.close();
+    }
+
+    /**
+     * The blob as resume chunks, each a {@link FileChunk} frame, then an ACK.
+     */
+    private Void serveFramed() throws IOException {
+        try (Socket socket = framedServer.accept()) {
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            File blob = BlobStore.get(id);
+            while (true) {
+                long offset = in.readLong();
+                // as many chunks per read as a resume request gets
+                long batch = (long) FileTransfers.RESUME_BATCH * Constants.FILE_CHUNK_SIZE;
+                for (long position = offset; position < blob.length(); position += batch) {
+                    for (FileChunk chunk : BlobStore.read(blob, position, Constants.FILE_CHUNK_SIZE, FileTransfers.RESUME_BATCH)) {
+                        out.write(FrameCodec.encode(new DataTransfer("file/" + id, "bench", Constants.PUBLISH, chunk)));
+                    }
+                }
+                FrameCodec.write(out, new DataTransfer("file/" + id, "bench", Constants.ACK, null));
+            }
+        }
+    }
+
+    @Benchmark
+    public long transferTo() throws IOException {
+        new BlobRequest(id, 0, BlobRequest.TO_END).write(blobOut);
+        long remaining = blobIn.readLong();
+        while (remaining > 0) {
+            int read = blobIn.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (read < 0) throw new EOFException();
+            remaining -= read;
+        }
+        return remaining;
+    }
+
+    @Benchmark
+    public long framedChunks() throws IOException {
+        framedOut.writeLong(0);
+        framedOut.flush();
+        long received = 0;
+        while (true) {
+            DataTransfer data = FrameCodec.read(framedIn);
+            if (!(data.data instanceof FileChunk)) return received;
+            received += ((FileChunk) data.data).getData().length;
+        }
+    }
+
+    private static void daemon(java.util.concurrent.Callable<Void> task) {
+        Thread thread = new Thread(() -> {
+            try {
+                task.call();
+            } catch (Exception ignored) {
+                // closed by the tear down
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(BlobDownloadBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
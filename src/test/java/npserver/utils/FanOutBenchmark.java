@@ -0,0 +1,86 @@
+package npserver.utils;
+
+import npserver.handler.OutboundQueue;
+import npserver.handler.OverflowPolicy;
+import nputils.Constants;
+import nputils.DataTransfer;
+import nputils.FileInfo;
+import nputils.FrameCodec;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Group fan-out of one message into every recipient's outbound queue, encoding it per recipient
+ * against encoding it once and sharing the frame: the shared frame should cost the same whatever the
+ * payload size, the per-recipient encode grows with it.
+ * <p>
+ * Run with {@code mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=npserver.utils.FanOutBenchmark}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FanOutBenchmark {
+
+    @Param({"0", "65536", "1048576"})
+    public int payloadSize;
+
+    @Param({"100"})
+    public int recipients;
+
+    private DataTransfer data;
+    private OutboundQueue[] queues;
+
+    @Setup
+    public void setUp() {
+        Object payload = "hello group";
+        if (payloadSize > 0) {
+            FileInfo fileInfo = new FileInfo();
+            fileInfo.setName("image.png");
+            fileInfo.setData(new byte[payloadSize]);
+            fileInfo.setSize(payloadSize);
+            payload = fileInfo;
+        }
+        data = new DataTransfer("group/np", "anhdh", Constants.PUBLISH, payload);
+        queues = new OutboundQueue[recipients];
+        for (int i = 0; i < recipients; i++) {
+            queues[i] = new OutboundQueue(16);
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void drain() {
+        for (OutboundQueue queue : queues) {
+            while (queue.poll() != null) ;
+        }
+    }
+
+    @Benchmark
+    public void encodePerRecipient() throws IOException {
+        for (OutboundQueue queue : queues) {
+            queue.offer(ByteBuffer.wrap(FrameCodec.encode(data)), OverflowPolicy.DISCONNECT);
+        }
+    }
+
+    @Benchmark
+    public void encodeOnce() throws IOException {
+        byte[] frame = FrameCodec.encode(data);
+        for (OutboundQueue queue : queues) {
+            queue.offer(ByteBuffer.wrap(frame), OverflowPolicy.DISCONNECT);
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(FanOutBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
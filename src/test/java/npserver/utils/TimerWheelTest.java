@@ -0,0 +1,47 @@
+package npserver.utils;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class TimerWheelTest {
+
+    @Test
+    public void itemsExpireOnlyOnceTheirDeadlinePassed() {
+        TimerWheel<String> wheel = new TimerWheel<>(100, 8, 0);
+        wheel.schedule("a", 250);
+        wheel.schedule("b", 1000);
+        // same slot as "a" one round later
+        wheel.schedule("c", 250 + 800);
+
+        List<String> expired = new ArrayList<>();
+        wheel.advance(200, expired::add);
+        Assertions.assertTrue(expired.isEmpty());
+
+        wheel.advance(300, expired::add);
+        Assertions.assertEquals(Arrays.asList("a"), expired);
+
+        wheel.advance(1100, expired::add);
+        Assertions.assertEquals(Arrays.asList("a", "b", "c"), expired);
+        Assertions.assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void wheelThatFellBehindStillExpiresEverything() {
+        TimerWheel<Integer> wheel = new TimerWheel<>(10, 4, 0);
+        for (int i = 1; i <= 20; i++) {
+            wheel.schedule(i, i * 7);
+        }
+        List<Integer> expired = new ArrayList<>();
+        wheel.advance(10_000, expired::add);
+        Assertions.assertEquals(20, expired.size());
+
+        // an already overdue item is put in front of the cursor, not a round behind it
+        wheel.schedule(99, 5);
+        wheel.advance(10_010, expired::add);
+        Assertions.assertEquals(21, expired.size());
+    }
+}
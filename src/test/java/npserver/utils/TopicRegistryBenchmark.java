@@ -0,0 +1,108 @@
+package npserver.utils;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publish-path lookup + iteration of {@link TopicRegistry} against a single-lock HashMap index,
+ * run with an increasing number of threads: the registry should scale, the locked map should not.
+ * <p>
+ * Run with {@code mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=npserver.utils.TopicRegistryBenchmark}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TopicRegistryBenchmark {
+
+    @Param({"1000"})
+    public int topics;
+
+    @Param({"50"})
+    public int subscribers;
+
+    private String[] names;
+    private TopicRegistry<Object> registry;
+    private Map<String, Set<Object>> locked;
+
+    @Setup
+    public void setUp() {
+        names = new String[topics];
+        registry = new TopicRegistry<>(Object[]::new);
+        locked = new HashMap<>();
+        for (int i = 0; i < topics; i++) {
+            names[i] = "group/" + i;
+            Set<Object> set = new HashSet<>();
+            for (int j = 0; j < subscribers; j++) {
+                Object subscriber = new Object();
+                registry.add(names[i], subscriber);
+                set.add(subscriber);
+            }
+            locked.put(names[i], set);
+        }
+    }
+
+    private String randomTopic() {
+        return names[ThreadLocalRandom.current().nextInt(topics)];
+    }
+
+    @Benchmark
+    public void publishRegistry(Blackhole bh) {
+        for (Object subscriber : registry.get(randomTopic())) {
+            bh.consume(subscriber);
+        }
+    }
+
+    @Benchmark
+    public void publishLockedMap(Blackhole bh) {
+        synchronized (locked) {
+            for (Object subscriber : locked.get(randomTopic())) {
+                bh.consume(subscriber);
+            }
+        }
+    }
+
+    @Benchmark
+    @Group("churn")
+    @GroupThreads(3)
+    public void churnPublish(Blackhole bh) {
+        publishRegistry(bh);
+    }
+
+    @Benchmark
+    @Group("churn")
+    @GroupThreads(1)
+    public void churnSubscribe() {
+        String topic = randomTopic();
+        Object subscriber = new Object();
+        registry.add(topic, subscriber);
+        registry.remove(topic, subscriber);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= cores; threads *= 2) {
+            Options options = new OptionsBuilder()
+                    .include(TopicRegistryBenchmark.class.getSimpleName() + ".publish")
+                    .threads(threads)
+                    .build();
+            new Runner(options).run();
+        }
+        new Runner(new OptionsBuilder()
+                .include(TopicRegistryBenchmark.class.getSimpleName() + ".churn")
+                .build()).run();
+    }
+}
@@ -0,0 +1,58 @@
+package npserver.utils;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+public class TopicRegistryTest {
+
+    @Test
+    public void addAndRemoveReportMemberCount() {
+        TopicRegistry<String> registry = new TopicRegistry<>(String[]::new);
+        String a = "a", b = "b";
+        Assertions.assertEquals(1, registry.add("group/x", a));
+        Assertions.assertEquals(1, registry.add("group/x", a));
+        Assertions.assertEquals(2, registry.add("group/x", b));
+        Assertions.assertEquals(-1, registry.remove("group/y", a));
+        Assertions.assertEquals(1, registry.remove("group/x", a));
+        Assertions.assertEquals(0, registry.remove("group/x", b));
+        Assertions.assertFalse(registry.containsKey("group/x"));
+        Assertions.assertEquals(0, registry.get("group/x").length);
+    }
+
+    @Test
+    public void concurrentSubscribesAreNotLost() throws InterruptedException {
+        TopicRegistry<Object> registry = new TopicRegistry<>(Object[]::new);
+        int threads = 8, perThread = 2000;
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < perThread; i++) {
+                    Object subscriber = new Object();
+                    registry.add("group/hot", subscriber);
+                    // readers iterate while others keep writing
+                    for (Object o : registry.get("group/hot")) {
+                        Assertions.assertNotNull(o);
+                    }
+                    if (i % 2 == 1) registry.remove("group/hot", subscriber);
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        Assertions.assertEquals(threads * perThread / 2, registry.get("group/hot").length);
+    }
+}
@@ -0,0 +1,119 @@
+package nputils;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Digests of a file in the page cache: an input stream into a heap buffer as {@link Utils#computeMd5}
+ * did, a channel into a direct buffer, the mapped file, and the tree digest on every core against
+ * the same tree on one. Plus the hex encoding of a digest, formatted per byte against the table.
+ * <p>
+ * Run with {@code mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=nputils.DigestBenchmark}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DigestBenchmark {
+
+    @Param({"67108864"})
+    public int fileSize;
+
+    @Param({"MD5", "SHA-256"})
+    public String algorithm;
+
+    private File file;
+    private byte[] digest;
+
+    @Setup
+    public void setUp() throws IOException, NoSuchAlgorithmException {
+        byte[] content = new byte[fileSize];
+        new Random(fileSize).nextBytes(content);
+        file = File.createTempFile("digest", ".bin");
+        Files.write(file.toPath(), content);
+        digest = MessageDigest.getInstance(algorithm).digest(content);
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public String inputStream() throws IOException, NoSuchAlgorithmException {
+        MessageDigest md = MessageDigest.getInstance(algorithm);
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] buffer = new byte[Constants.FILE_CHUNK_SIZE];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                md.update(buffer, 0, read);
+            }
+        }
+        return Digests.hex(md.digest());
+    }
+
+    @Benchmark
+    public String[] channel() throws IOException {
+        return Digests.streamed(file, algorithm);
+    }
+
+    @Benchmark
+    public String[] mapped() throws IOException {
+        return Digests.mapped(file, algorithm);
+    }
+
+    /**
+     * Always SHA-256 leaves, compare with the SHA-256 rows.
+     */
+    @Benchmark
+    public String treeParallel() throws IOException {
+        return Digests.tree(file);
+    }
+
+    @Benchmark
+    public String treeOneThread() throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(1);
+        try {
+            return Digests.tree(file, pool);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public String hexFormat() {
+        StringBuilder sb = new StringBuilder(2 * digest.length);
+        for (byte b : digest) {
+            sb.append(String.format("%02x", b & 0xff));
+        }
+        return sb.toString();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public String hexTable() {
+        return Digests.hex(digest);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(DigestBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,62 @@
+package nputils;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+public class DigestsTest {
+
+    private static File file(byte[] content) throws IOException {
+        File file = File.createTempFile("digest", ".bin");
+        file.deleteOnExit();
+        Files.write(file.toPath(), content);
+        return file;
+    }
+
+    @Test
+    public void hexMatchesFormat() {
+        byte[] bytes = new byte[256];
+        for (int i = 0; i < bytes.length; i++) bytes[i] = (byte) i;
+        StringBuilder expected = new StringBuilder();
+        for (byte b : bytes) expected.append(String.format("%02x", b & 0xff));
+        Assertions.assertEquals(expected.toString(), Digests.hex(bytes));
+    }
+
+    @Test
+    public void streamedAndMappedMatchTheWholeDigest() throws Exception {
+        byte[] content = new byte[3 * Digests.LEAF_SIZE + 12345];
+        new Random(3).nextBytes(content);
+        File file = file(content);
+        String md5 = Digests.hex(MessageDigest.getInstance("MD5").digest(content));
+        String sha256 = Digests.hex(MessageDigest.getInstance("SHA-256").digest(content));
+
+        Assertions.assertArrayEquals(new String[]{md5, sha256}, Digests.streamed(file, "MD5", "SHA-256"));
+        Assertions.assertArrayEquals(new String[]{md5, sha256}, Digests.mapped(file, "MD5", "SHA-256"));
+        Assertions.assertEquals(md5, Utils.computeMd5(file));
+    }
+
+    @Test
+    public void parallelTreeMatchesTheStreamedTree() throws Exception {
+        Random random = new Random(4);
+        for (int size : new int[]{0, 100, Digests.LEAF_SIZE, 21 * Digests.LEAF_SIZE + 7}) {
+            byte[] content = new byte[size];
+            random.nextBytes(content);
+            File file = file(content);
+
+            // fed in pieces that do not line up with the leaves
+            Digests.Tree tree = new Digests.Tree();
+            for (int offset = 0; offset < size; offset += 65537) {
+                tree.update(content, offset, Math.min(65537, size - offset));
+            }
+            String expected = tree.digest();
+            Assertions.assertEquals(expected, Digests.tree(file, new ForkJoinPool(3)), "size " + size);
+            Assertions.assertTrue(Utils.isBlobId(expected));
+        }
+    }
+}
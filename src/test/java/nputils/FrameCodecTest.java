@@ -0,0 +1,127 @@
+package nputils;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+
+public class FrameCodecTest {
+
+    private DataTransfer roundTrip(DataTransfer data) throws IOException {
+        byte[] frame = FrameCodec.encode(data);
+        return FrameCodec.read(new DataInputStream(new ByteArrayInputStream(frame)));
+    }
+
+    @Test
+    public void commandsAndStringsSurviveRoundTrip() throws IOException {
+        DataTransfer data = new DataTransfer("chat/Lâm", "anhdh", Constants.PUBLISH, "xin chào");
+        DataTransfer decoded = roundTrip(data);
+        Assertions.assertEquals(data.topic, decoded.topic);
+        Assertions.assertEquals(data.name, decoded.name);
+        Assertions.assertEquals(data.command, decoded.command);
+        Assertions.assertEquals(data.datetime, decoded.datetime);
+        Assertions.assertEquals(data.data, decoded.data);
+
+        DataTransfer login = roundTrip(new DataTransfer(null, "anhdh", "", true));
+        Assertions.assertNull(login.topic);
+        Assertions.assertEquals("", login.command);
+        Assertions.assertEquals(true, login.data);
+    }
+
+    @Test
+    public void typedPayloadsSurviveRoundTrip() throws IOException {
+        Assertions.assertEquals(Emoji.N050_calm, roundTrip(new DataTransfer("group/a", "b", Constants.PUBLISH, Emoji.N050_calm)).data);
+
+        ArrayList<String> members = new ArrayList<>(Arrays.asList("a", "b", "c"));
+        Assertions.assertEquals(members, roundTrip(new DataTransfer(Constants.ONLINE_TOPIC, "server", null, members)).data);
+
+        PresenceUpdate presence = new PresenceUpdate(7, false, Arrays.asList("a"), Arrays.asList("b", "c"));
+        PresenceUpdate decodedPresence = (PresenceUpdate) roundTrip(new DataTransfer(Constants.ONLINE_TOPIC, "server", null, presence)).data;
+        Assertions.assertEquals(7, decodedPresence.getVersion());
+        Assertions.assertFalse(decodedPresence.isSnapshot());
+        Assertions.assertEquals(presence.getJoined(), decodedPresence.getJoined());
+        Assertions.assertEquals(presence.getLeft(), decodedPresence.getLeft());
+
+        VoiceSignal signal = new VoiceSignal(Constants.VOICE_REQUEST, Arrays.asList("IMA-ADPCM", "L16"));
+        VoiceSignal decodedSignal = (VoiceSignal) roundTrip(new DataTransfer("voice/a", "b", Constants.PUBLISH, signal)).data;
+        Assertions.assertEquals(signal.getAction(), decodedSignal.getAction());
+        Assertions.assertEquals(signal.getCodecs(), decodedSignal.getCodecs());
+
+        FileInfo fileInfo = new FileInfo();
+        fileInfo.setName("a.png");
+        fileInfo.setData(new byte[]{1, 2, 3});
+        fileInfo.setSize(3);
+        fileInfo.setMd5(Utils.computeMd5(fileInfo.getData()));
+        FileInfo decoded = (FileInfo) roundTrip(new DataTransfer("chat/a", "b", Constants.PUBLISH, fileInfo)).data;
+        Assertions.assertEquals(fileInfo.getName(), decoded.getName());
+        Assertions.assertEquals(fileInfo.getSize(), decoded.getSize());
+        Assertions.assertEquals(fileInfo.getMd5(), decoded.getMd5());
+        Assertions.assertArrayEquals(fileInfo.getData(), decoded.getData());
+
+        FileInfo stream = new FileInfo();
+        stream.setName("big.zip");
+        stream.setSize(1L << 32);
+        stream.setMd5("d41d8cd98f00b204e9800998ecf8427e");
+        stream.setTransferId("t1");
+        stream.setChunkSize(Constants.FILE_CHUNK_SIZE);
+        stream.setBlobId("e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855");
+        FileInfo decodedStream = (FileInfo) roundTrip(new DataTransfer("chat/a", "b", Constants.PUBLISH, stream)).data;
+        Assertions.assertTrue(decodedStream.isStreamed());
+        Assertions.assertNull(decodedStream.getData());
+        Assertions.assertEquals(stream.getSize(), decodedStream.getSize());
+        Assertions.assertEquals(stream.getChunkSize(), decodedStream.getChunkSize());
+        Assertions.assertEquals(stream.getBlobId(), decodedStream.getBlobId());
+        Assertions.assertFalse(decodedStream.isBlobReference());
+
+        FileChunk chunk = new FileChunk("t1", 1L << 31, new byte[]{(byte) 0xFF, 0, 1});
+        FileChunk decodedChunk = (FileChunk) roundTrip(new DataTransfer("chat/a", "b", Constants.PUBLISH, chunk)).data;
+        Assertions.assertEquals(chunk.getOffset(), decodedChunk.getOffset());
+        Assertions.assertEquals(chunk.getCrc(), decodedChunk.getCrc());
+        Assertions.assertTrue(decodedChunk.isIntact());
+        decodedChunk.getData()[0] = 0;
+        Assertions.assertFalse(decodedChunk.isIntact());
+
+        FileRange range = new FileRange(Constants.FILE_RESUME, 5L << 32);
+        FileRange decodedRange = (FileRange) roundTrip(new DataTransfer("file/t1", "b", Constants.PUBLISH, range)).data;
+        Assertions.assertEquals(range.getAction(), decodedRange.getAction());
+        Assertions.assertEquals(range.getOffset(), decodedRange.getOffset());
+    }
+
+    @Test
+    public void frameIsSmallerThanJavaSerialization() throws IOException {
+        DataTransfer data = new DataTransfer("chat/anhdh", "lamnt", Constants.UN_SUBSCRIBE);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bos);
+        oos.writeObject(data);
+        oos.flush();
+        Assertions.assertTrue(FrameCodec.encode(data).length * 5 < bos.size());
+    }
+
+    @Test
+    public void missingCommandTopicAndNameDecodeAsNull() throws IOException {
+        // the server has to check them, see ServerHandler#handle
+        DataTransfer decoded = roundTrip(new DataTransfer(null, null, null));
+        Assertions.assertNull(decoded.command);
+        Assertions.assertNull(decoded.topic);
+        Assertions.assertNull(decoded.name);
+    }
+
+    @Test
+    public void unknownPayloadTypesAreRefused() {
+        Assertions.assertThrows(IOException.class,
+                () -> FrameCodec.encode(new DataTransfer("chat/a", "b", Constants.PUBLISH, new Date())));
+    }
+
+    @Test
+    public void helloRejectsOtherVersions() throws IOException {
+        FrameCodec.readHello(new DataInputStream(new ByteArrayInputStream(FrameCodec.hello())));
+
+        byte[] hello = FrameCodec.hello();
+        hello[3]++;
+        Assertions.assertThrows(IOException.class,
+                () -> FrameCodec.readHello(new DataInputStream(new ByteArrayInputStream(hello))));
+    }
+}
@@ -0,0 +1,77 @@
+package nputils.codec;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+public class VoiceCodecTest {
+
+    /**
+     * 512 stereo frames of a 440 Hz tone at 8 kHz, 16 bit little endian.
+     */
+    private static byte[] tone() {
+        byte[] pcm = new byte[2048];
+        for (int i = 0; i < pcm.length / 4; i++) {
+            short sample = (short) (8000 * Math.sin(2 * Math.PI * 440 * i / 8000.0));
+            for (int c = 0; c < 2; c++) {
+                pcm[4 * i + 2 * c] = (byte) sample;
+                pcm[4 * i + 2 * c + 1] = (byte) (sample >> 8);
+            }
+        }
+        return pcm;
+    }
+
+    private static int maxError(byte[] expected, byte[] actual) {
+        int max = 0;
+        for (int i = 0; i + 1 < expected.length; i += 2) {
+            short e = (short) ((expected[i] & 0xFF) | (expected[i + 1] << 8));
+            short a = (short) ((actual[i] & 0xFF) | (actual[i + 1] << 8));
+            max = Math.max(max, Math.abs(e - a));
+        }
+        return max;
+    }
+
+    private static void assertRoundTrip(String name, int maxSize, int tolerance) {
+        byte[] pcm = tone();
+        VoiceCodec codec = VoiceCodecs.create(VoiceCodecs.idOf(name), 2);
+        byte[] encoded = new byte[pcm.length];
+        // the second frame is encoded with adapted state but must still decode on its own
+        int length = 0;
+        for (int frame = 0; frame < 2; frame++) {
+            length = codec.encode(pcm, 0, pcm.length, encoded, 0);
+        }
+        Assertions.assertTrue(length <= maxSize, name + " encoded to " + length);
+
+        byte[] decoded = VoiceCodecs.create(VoiceCodecs.idOf(name), 2).decode(encoded, 0, length);
+        Assertions.assertEquals(pcm.length, decoded.length);
+        Assertions.assertTrue(maxError(pcm, decoded) <= tolerance, name + " error " + maxError(pcm, decoded));
+    }
+
+    @Test
+    public void codecsRoundTripWithinTheirPrecision() {
+        assertRoundTrip(VoiceCodecs.PCM, 2048, 0);
+        assertRoundTrip(VoiceCodecs.MU_LAW, 1024, 256);
+        assertRoundTrip(VoiceCodecs.A_LAW, 1024, 256);
+        assertRoundTrip(VoiceCodecs.IMA_ADPCM, 2 * 4 + 512, 1024);
+    }
+
+    @Test
+    public void companderKeepsSmallSamplesExact() {
+        byte[] pcm = {0, 0, 8, 0, (byte) 0xF8, (byte) 0xFF};
+        byte[] out = new byte[3];
+        Assertions.assertEquals(3, new ALawCodec().encode(pcm, 0, pcm.length, out, 0));
+        byte[] decoded = new ALawCodec().decode(out, 0, 3);
+        Assertions.assertTrue(maxError(pcm, decoded) <= 8);
+    }
+
+    @Test
+    public void negotiationPicksTheFirstSharedCodec() {
+        Assertions.assertEquals(VoiceCodecs.MU_LAW, VoiceCodecs.choose(Arrays.asList("opus", VoiceCodecs.MU_LAW, VoiceCodecs.PCM)));
+        Assertions.assertEquals(VoiceCodecs.PCM, VoiceCodecs.choose(Collections.singletonList("opus")));
+        Assertions.assertEquals(VoiceCodecs.PCM, VoiceCodecs.choose(null));
+        Assertions.assertEquals(0, VoiceCodecs.idOf(VoiceCodecs.PCM));
+        Assertions.assertNull(VoiceCodecs.create(200, 2));
+    }
+}